@@ -48,6 +48,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
@@ -549,6 +550,18 @@ public class Elastic extends BaseMapper<ElasticEntity, ElasticConstraint, Elasti
         return Optional.of(result);
     }
 
+    /**
+     * Resolves all given ids via a single (unrouted) search on the <tt>_id</tt> field.
+     * <p>
+     * As the ids of the referenced entities are known but their routing usually isn't, the search is deliberately
+     * executed against all shards.
+     */
+    @Override
+    protected <E extends ElasticEntity> void findBlock(Class<E> type, List<Object> ids, Consumer<E> consumer) {
+        ElasticQuery<E> query = select(type).deliberatelyUnrouted();
+        query.where(query.filters().oneInField(ElasticEntity.ID, ids).build()).iterateAll(consumer);
+    }
+
     private String determineRoutingForFind(Object id,
                                            EntityDescriptor entityDescriptor,
                                            Function<String, Value> context) {
@@ -617,12 +630,21 @@ public class Elastic extends BaseMapper<ElasticEntity, ElasticConstraint, Elasti
         }
     }
 
+    @Override
+    protected <E extends ElasticEntity> E copyEntity(E entity) throws Exception {
+        E copy = super.copyEntity(entity);
+        copy.setId(entity.getId());
+        copy.setPrimaryTerm(entity.getPrimaryTerm());
+        copy.setSeqNo(entity.getSeqNo());
+        return copy;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     protected <E extends ElasticEntity> Optional<E> findEntity(E entity) {
-        return find((Class<E>) entity.getClass(),
-                    entity.getId(),
-                    routedBy(determineRouting(entity.getDescriptor(), entity, RoutingAccessMode.READ)));
+        return findUncached((Class<E>) entity.getClass(),
+                            entity.getId(),
+                            routedBy(determineRouting(entity.getDescriptor(), entity, RoutingAccessMode.READ)));
     }
 
     /**
@@ -215,6 +215,7 @@ public class ElasticQuery<E extends ElasticEntity> extends Query<ElasticQuery<E>
         copy.unrouted = this.unrouted;
         copy.explain = this.explain;
         copy.collapseBy = this.collapseBy;
+        copy.prefetches.addAll(this.prefetches);
 
         if (queryBuilder != null) {
             copy.queryBuilder = this.queryBuilder.copy();
@@ -859,12 +860,17 @@ public class ElasticQuery<E extends ElasticEntity> extends Query<ElasticQuery<E>
         return existsResponse.getJSONObject(KEY_HITS).getJSONObject(KEY_TOTAL).getIntValue(KEY_VALUE) >= 1;
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public void iterate(Predicate<E> handler) {
         if (forceFail) {
             return;
         }
+
+        iterateWithPrefetches(handler, this::iterateResults);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void iterateResults(Predicate<E> handler) {
         if (useScrolling()) {
             scroll(handler);
             return;
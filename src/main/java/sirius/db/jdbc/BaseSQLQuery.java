@@ -10,7 +10,6 @@ package sirius.db.jdbc;
 
 import sirius.kernel.async.TaskContext;
 import sirius.kernel.commons.Limit;
-import sirius.kernel.commons.Tuple;
 import sirius.kernel.commons.ValueHolder;
 import sirius.kernel.di.std.Part;
 
@@ -21,7 +20,6 @@ import java.sql.Blob;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
@@ -35,8 +33,6 @@ public abstract class BaseSQLQuery {
     @Part
     protected static Databases dbs;
 
-    protected List<String> fieldNames;
-
     /**
      * Executes the given query returning the result as list
      *
@@ -92,19 +88,34 @@ public abstract class BaseSQLQuery {
         }, limit);
     }
 
-    protected void processResultSet(Predicate<Row> handler,
-                                    Limit effectiveLimit,
-                                    ResultSet resultSet,
-                                    TaskContext taskContext) throws SQLException {
+    /**
+     * Reads the given result set and supplies all rows to the given handler.
+     *
+     * @param handler        the handler to supply with all rows
+     * @param effectiveLimit the limit to apply
+     * @param resultSet      the result set to read
+     * @param taskContext    the task context used to abort reading if the task is no longer active
+     * @return the number of rows which have been read from the result set
+     * @throws SQLException in case of a database error
+     */
+    protected int processResultSet(Predicate<Row> handler,
+                                   Limit effectiveLimit,
+                                   ResultSet resultSet,
+                                   TaskContext taskContext) throws SQLException {
+        RowHeader header = RowHeader.of(resultSet);
+        int rows = 0;
         while (resultSet.next() && taskContext.isActive()) {
-            Row row = loadIntoRow(resultSet);
+            rows++;
+            Row row = loadIntoRow(resultSet, header);
             if (effectiveLimit.nextRow() && !handler.test(row)) {
-                return;
+                return rows;
             }
             if (!effectiveLimit.shouldContinue()) {
-                return;
+                return rows;
             }
         }
+
+        return rows;
     }
 
     /**
@@ -138,35 +149,42 @@ public abstract class BaseSQLQuery {
         return result.get();
     }
 
-    /*
-     * Converts the current row of the given result set into a Row object
+    /**
+     * Converts the current row of the given result set into a Row object.
+     *
+     * @param rs the result set to read the current row from
+     * @return the row containing all values of the current row
+     * @throws SQLException in case of a database error
+     * @deprecated the column header is now computed once per result set and shared by all rows. Therefore this
+     * computes the header for each call - overriding it has no effect, as the query uses
+     * {@link #loadIntoRow(ResultSet, RowHeader)}.
      */
+    @Deprecated
     protected Row loadIntoRow(ResultSet rs) throws SQLException {
-        Row row = new Row();
-        List<String> fetchedFieldNames = null;
-        if (fieldNames == null) {
-            fetchedFieldNames = new ArrayList<>(rs.getMetaData().getColumnCount());
-        }
-        for (int col = 1; col <= rs.getMetaData().getColumnCount(); col++) {
-            String fieldName;
-            if (fieldNames != null) {
-                fieldName = fieldNames.get(col - 1);
-            } else {
-                fieldName = rs.getMetaData().getColumnLabel(col);
-                fetchedFieldNames.add(fieldName);
-            }
-            Object obj = rs.getObject(col);
+        return loadIntoRow(rs, RowHeader.of(rs));
+    }
+
+    /**
+     * Converts the current row of the given result set into a Row object.
+     *
+     * @param rs     the result set to read the current row from
+     * @param header the header which describes the columns of the result set
+     * @return the row containing all values of the current row
+     * @throws SQLException in case of a database error
+     */
+    protected Row loadIntoRow(ResultSet rs, RowHeader header) throws SQLException {
+        Object[] values = new Object[header.size()];
+        Row row = new Row(header, values);
+        for (int col = 0; col < values.length; col++) {
+            Object obj = rs.getObject(col + 1);
             if (obj instanceof Blob) {
-                writeBlobToParameter(fieldName, (Blob) obj);
+                writeBlobToParameter(header.getName(col), (Blob) obj);
+                row.markAbsent(col);
             } else {
-                row.fields.put(fieldName.toUpperCase(), Tuple.create(fieldName, obj));
+                values[col] = obj;
             }
         }
 
-        if (fieldNames == null) {
-            fieldNames = Collections.unmodifiableList(fetchedFieldNames);
-        }
-
         return row;
     }
 
@@ -58,7 +58,42 @@ public enum Capability {
     /**
      * Signales that the database supports DECIMAL fields.
      */
-    DECIMAL_TYPE;
+    DECIMAL_TYPE,
+
+    /**
+     * Signals that the driver can be configured to use (and cache) server side prepared statements.
+     */
+    SERVER_PREPARED_STATEMENTS,
+
+    /**
+     * Signals that the replication lag of a replica can be determined via <tt>SHOW SLAVE STATUS</tt>.
+     */
+    SLAVE_STATUS,
+
+    /**
+     * Signals that the replication lag of a replica can be determined via <tt>pg_last_xact_replay_timestamp()</tt>.
+     */
+    REPLAY_TIMESTAMP,
+
+    /**
+     * Signals that the database supports upserts via <tt>INSERT ... ON DUPLICATE KEY UPDATE</tt>.
+     */
+    ON_DUPLICATE_KEY_UPDATE,
+
+    /**
+     * Signals that the database supports upserts via <tt>INSERT ... ON CONFLICT (...) DO UPDATE</tt>.
+     */
+    ON_CONFLICT_DO_UPDATE,
+
+    /**
+     * Signals that the database can bulk load data via <tt>LOAD DATA LOCAL INFILE</tt>.
+     */
+    LOAD_DATA_LOCAL_INFILE,
+
+    /**
+     * Signals that the database can bulk load data which is streamed in the <tt>TabSeparated</tt> format.
+     */
+    TAB_SEPARATED_STREAMS;
 
     /**
      * Contains the default capabilities of unknown databases.
@@ -76,16 +111,25 @@ public enum Capability {
             LIMIT,
             GENERATED_KEYS,
             NULL_SAFE_OPERATOR,
-            DECIMAL_TYPE));
+            DECIMAL_TYPE,
+            SERVER_PREPARED_STATEMENTS,
+            SLAVE_STATUS,
+            ON_DUPLICATE_KEY_UPDATE,
+            LOAD_DATA_LOCAL_INFILE));
 
     /**
      * Contains the capabilities of a Postgres database
      */
     public static final Set<Capability> POSTGRES_CAPABILITIES =
-            Collections.unmodifiableSet(EnumSet.of(LIMIT, GENERATED_KEYS, DECIMAL_TYPE));
+            Collections.unmodifiableSet(EnumSet.of(LIMIT,
+                                                         GENERATED_KEYS,
+                                                         DECIMAL_TYPE,
+                                                         REPLAY_TIMESTAMP,
+                                                         ON_CONFLICT_DO_UPDATE));
 
     /**
      * Contains the capabilities of a Clickhouse database
      */
-    public static final Set<Capability> CLICKHOUSE_CAPABILITIES = Collections.unmodifiableSet(EnumSet.of(LIMIT, LISTS));
+    public static final Set<Capability> CLICKHOUSE_CAPABILITIES =
+            Collections.unmodifiableSet(EnumSet.of(LIMIT, LISTS, TAB_SEPARATED_STREAMS));
 }
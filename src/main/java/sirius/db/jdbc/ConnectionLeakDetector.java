@@ -0,0 +1,41 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.db.DB;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.timer.EveryTenSeconds;
+
+import java.time.Duration;
+
+/**
+ * Periodically reports connections which are held longer than <tt>jdbc.leakDetectionThreshold</tt>.
+ * <p>
+ * Each suspected leak is reported once to the <tt>db-slow</tt> log along with the stack trace of the code which
+ * borrowed the connection. Use the <tt>jdbc-pools</tt> console command to list all currently suspected leaks.
+ */
+@Register(classes = EveryTenSeconds.class)
+public class ConnectionLeakDetector implements EveryTenSeconds {
+
+    @Override
+    public void runTimer() throws Exception {
+        for (Database database : Databases.getActiveDatabases()) {
+            for (WrappedConnection connection : database.getSuspectedLeaks()) {
+                if (connection.markLeakReported()) {
+                    DB.SLOW_DB_LOG.WARN("A connection of %s is held for %s by thread %s and might have been leaked."
+                                        + " Borrowed at:\n%s",
+                                        database.getName(),
+                                        Duration.ofMillis(connection.getBorrowedMillis()),
+                                        connection.getThread(),
+                                        connection.getBorrowPoint());
+                }
+            }
+        }
+    }
+}
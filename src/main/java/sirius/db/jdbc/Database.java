@@ -8,18 +8,25 @@
 
 package sirius.db.jdbc;
 
+import sirius.db.jdbc.schema.DatabaseDialect;
 import sirius.kernel.Sirius;
+import sirius.kernel.async.CallContext;
 import sirius.kernel.async.Operation;
+import sirius.kernel.async.Tasks;
 import sirius.kernel.commons.Context;
 import sirius.kernel.commons.Explain;
 import sirius.kernel.commons.Strings;
 import sirius.kernel.commons.Tuple;
+import sirius.kernel.commons.Value;
+import sirius.kernel.di.GlobalContext;
 import sirius.kernel.di.std.Part;
+import sirius.kernel.health.Counter;
 import sirius.kernel.health.Exceptions;
 import sirius.kernel.nls.Formatter;
 import sirius.kernel.settings.Extension;
 import sirius.kernel.settings.PortMapper;
 
+import javax.annotation.Nullable;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -29,11 +36,19 @@ import java.sql.Statement;
 import java.sql.Types;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Represents a database connection obtained via {@link Databases#get(String)}.
@@ -46,6 +61,25 @@ public class Database {
     @Part
     private static Databases dbs;
 
+    @Part
+    private static GlobalContext globalContext;
+
+    @Part
+    private static Tasks tasks;
+
+    private static final String ASYNC_EXECUTOR_PREFIX = "jdbc-async-";
+
+    /**
+     * Contains the size of the connection pool used if <tt>maxActive</tt> is 0.
+     */
+    static final int DEFAULT_MAX_ACTIVE = 20;
+
+    /**
+     * Contains the number of concurrent asynchronous queries permitted if the size of the connection pool is
+     * unlimited or not specified.
+     */
+    private static final int DEFAULT_ASYNC_LIMIT = 10;
+
     private static final String KEY_DRIVER = "driver";
     private static final String KEY_URL = "url";
     private static final String KEY_HOST_URL = "hostUrl";
@@ -56,6 +90,11 @@ public class Database {
     private static final String KEY_MAX_ACTIVE = "maxActive";
     private static final String KEY_MAX_IDLE = "maxIdle";
     private static final String KEY_VALIDATION_QUERY = "validationQuery";
+    private static final String KEY_POOL_PREPARED_STATEMENTS = "poolPreparedStatements";
+    private static final String KEY_MAX_OPEN_PREPARED_STATEMENTS = "maxOpenPreparedStatements";
+    private static final String KEY_SERVER_PREPARED_STATEMENTS = "serverPreparedStatements";
+    private static final String KEY_MAX_WAIT_MILLIS = "maxWaitMillis";
+    private static final String KEY_DIALECT = "dialect";
     protected final String name;
     private final String service;
     private String driver;
@@ -68,11 +107,24 @@ public class Database {
     private int maxIdle;
     private boolean testOnBorrow;
     private String validationQuery;
+    private boolean poolPreparedStatements;
+    private int maxOpenPreparedStatements;
+    private boolean serverPreparedStatements;
+    private int maxWaitMillis;
+    private String dialectName;
+    private DatabaseDialect dialect;
+    private Semaphore asyncPermits;
     private MonitoredDataSource ds;
     private Set<Capability> capabilities;
     private static final Pattern SANE_COLUMN_NAME = Pattern.compile("[a-zA-Z0-9_]+");
     private static final Pattern HOST_AND_PORT_PATTERN = Pattern.compile("//([^:]+):(\\d+)");
 
+    protected final Counter numPreparedStatements = new Counter();
+    protected final Counter numPhysicalPreparedStatements = new Counter();
+    protected final Counter numBorrowTimeouts = new Counter();
+    protected final LatencyHistogram connectionWaitTimes = new LatencyHistogram();
+    protected final Set<WrappedConnection> openConnections = ConcurrentHashMap.newKeySet();
+
     /*
      * Use the get(name) method to create a new object.
      */
@@ -119,6 +171,35 @@ public class Database {
                                Formatter.create(profile.get(KEY_VALIDATION_QUERY).asString()).setDirect(ctx).format() :
                                ext.get(KEY_VALIDATION_QUERY).asString();
         this.testOnBorrow = Strings.isFilled(validationQuery);
+        this.poolPreparedStatements = ext.get(KEY_POOL_PREPARED_STATEMENTS).isFilled() ?
+                                      ext.get(KEY_POOL_PREPARED_STATEMENTS).asBoolean() :
+                                      profile.get(KEY_POOL_PREPARED_STATEMENTS).asBoolean();
+        this.maxOpenPreparedStatements = ext.get(KEY_MAX_OPEN_PREPARED_STATEMENTS).isFilled() ?
+                                         ext.get(KEY_MAX_OPEN_PREPARED_STATEMENTS).asInt(-1) :
+                                         profile.get(KEY_MAX_OPEN_PREPARED_STATEMENTS).asInt(-1);
+        this.serverPreparedStatements = ext.get(KEY_SERVER_PREPARED_STATEMENTS).isFilled() ?
+                                        ext.get(KEY_SERVER_PREPARED_STATEMENTS).asBoolean() :
+                                        profile.get(KEY_SERVER_PREPARED_STATEMENTS).asBoolean();
+        this.maxWaitMillis = ext.get(KEY_MAX_WAIT_MILLIS).isFilled() ?
+                             ext.get(KEY_MAX_WAIT_MILLIS).asInt(1000) :
+                             profile.get(KEY_MAX_WAIT_MILLIS).asInt(1000);
+        this.dialectName = ext.get(KEY_DIALECT).isFilled() ?
+                           ext.get(KEY_DIALECT).asString() :
+                           profile.get(KEY_DIALECT).asString();
+        this.asyncPermits = new Semaphore(computeAsyncLimit());
+    }
+
+    /*
+     * Permits half of the connection pool to be used by asynchronous queries, so that synchronous requests still
+     * get a connection. Note that a maxActive of 0 results in the default pool size of DBCP and a negative value
+     * means that the pool is unlimited.
+     */
+    private int computeAsyncLimit() {
+        if (maxActive <= 0) {
+            return DEFAULT_ASYNC_LIMIT;
+        }
+
+        return Math.max(1, maxActive / 2);
     }
 
     private void applyPortMapping() {
@@ -145,6 +226,15 @@ public class Database {
         }
     }
 
+    /**
+     * Returns the name of the database configuration.
+     *
+     * @return the name used to declare this database in <tt>jdbc.database</tt>
+     */
+    public String getName() {
+        return name;
+    }
+
     /**
      * Provides access to the underlying {@link DataSource} representing the connection pool.
      * <p>
@@ -157,7 +247,7 @@ public class Database {
      */
     public DataSource getDatasource() {
         if (ds == null) {
-            ds = new MonitoredDataSource();
+            ds = new MonitoredDataSource(this);
             initialize();
         }
         return ds;
@@ -203,6 +293,24 @@ public class Database {
         }
     }
 
+    /**
+     * Creates a new connection which is used to stream the results of a query to a handler.
+     * <p>
+     * Such a connection is held as long as the handler processes the results (for
+     * {@link SmartQuery#iterateBlockwise(java.util.function.Predicate)} up to its iterate timeout) and is always
+     * closed by the query itself. Therefore, it is not reported as suspected leak.
+     *
+     * @return a new {@link Connection} to the database
+     * @throws SQLException in case of a database error
+     */
+    @SuppressWarnings("squid:S2095")
+    @Explain("We return this method - therefore properly calling close is the responsibility of the caller.")
+    Connection getStreamingConnection() throws SQLException {
+        try (Operation op = createOperation("getStreamingConnection()")) {
+            return new WrappedConnection(getDatasource().getConnection(), this).markAsStreaming();
+        }
+    }
+
     /**
      * Tries to obtain a host connection which is not bound to a specific database or schema.
      * <p>
@@ -273,12 +381,24 @@ public class Database {
     @SuppressWarnings("squid:S2077")
     @Explain("perpareValues verifies the field names and converts all values into parameters for the prepared statement")
     public Row insertRow(String table, Context ctx) throws SQLException {
+        StringBuilder fields = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        List<Object> valueList = new ArrayList<>();
+        prepareValues(ctx, fields, values, valueList);
+        String sql = "INSERT INTO " + table + " (" + fields + ") VALUES(" + values + ")";
+        return executeInsert(sql, valueList);
+    }
+
+    /**
+     * Executes the given (pre-built) INSERT statement using the given parameter values.
+     *
+     * @param sql       the INSERT statement to execute
+     * @param valueList the parameter values (already converted by {@link Databases#convertValue(Object)})
+     * @return a Row containing all generated keys
+     * @throws SQLException in case of a database error
+     */
+    protected Row executeInsert(String sql, List<Object> valueList) throws SQLException {
         try (Connection c = getConnection()) {
-            StringBuilder fields = new StringBuilder();
-            StringBuilder values = new StringBuilder();
-            List<Object> valueList = new ArrayList<>();
-            prepareValues(ctx, fields, values, valueList);
-            String sql = "INSERT INTO " + table + " (" + fields + ") VALUES(" + values + ")";
             try (PreparedStatement stmt = hasCapability(Capability.GENERATED_KEYS) ?
                                           c.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) :
                                           c.prepareStatement(sql)) {
@@ -289,6 +409,53 @@ public class Database {
         }
     }
 
+    /**
+     * Executes the given (pre-built) INSERT statement once per given parameter list as JDBC batch.
+     *
+     * @param sql  the INSERT statement to execute
+     * @param rows the parameter values per row (already converted by {@link Databases#convertValue(Object)})
+     * @return the generated keys per inserted row. Note that this might be empty if the database doesn't support
+     * generated keys
+     * @throws SQLException in case of a database error
+     */
+    protected List<Row> executeBatchInsert(String sql, List<List<Object>> rows) throws SQLException {
+        try (Connection c = getConnection()) {
+            try (PreparedStatement stmt = hasCapability(Capability.GENERATED_KEYS) ?
+                                          c.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) :
+                                          c.prepareStatement(sql)) {
+                for (List<Object> row : rows) {
+                    fillValues(row, sql, stmt);
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+                if (!hasCapability(Capability.GENERATED_KEYS)) {
+                    return Collections.emptyList();
+                }
+                return dbs.fetchAllGeneratedKeys(stmt);
+            }
+        }
+    }
+
+    /**
+     * Executes the given (pre-built) statement once per given parameter list as JDBC batch.
+     *
+     * @param sql  the statement to execute
+     * @param rows the parameter values per execution
+     * @return the update counts as reported by {@link PreparedStatement#executeBatch()}
+     * @throws SQLException in case of a database error
+     */
+    protected int[] executeBatchUpdate(String sql, List<List<Object>> rows) throws SQLException {
+        try (Connection c = getConnection()) {
+            try (PreparedStatement stmt = c.prepareStatement(sql)) {
+                for (List<Object> row : rows) {
+                    fillValues(row, sql, stmt);
+                    stmt.addBatch();
+                }
+                return stmt.executeBatch();
+            }
+        }
+    }
+
     protected void fillValues(List<Object> valueList, String sql, PreparedStatement stmt) {
         int index = 0;
         for (Object o : valueList) {
@@ -349,11 +516,20 @@ public class Database {
             ds.setUsername(username);
             ds.setPassword(password);
             ds.setInitialSize(initialSize);
-            ds.setMaxTotal(maxActive == 0 ? 20 : maxActive);
+            ds.setMaxTotal(maxActive == 0 ? DEFAULT_MAX_ACTIVE : maxActive);
             ds.setMaxIdle(maxIdle);
             ds.setTestOnBorrow(testOnBorrow);
             ds.setValidationQuery(validationQuery);
-            ds.setMaxWaitMillis(1000);
+            ds.setMaxWaitMillis(maxWaitMillis);
+            ds.setPoolPreparedStatements(poolPreparedStatements);
+            ds.setMaxOpenPreparedStatements(maxOpenPreparedStatements);
+            if (serverPreparedStatements && hasCapability(Capability.SERVER_PREPARED_STATEMENTS)) {
+                ds.addConnectionProperty("useServerPrepStmts", "true");
+                ds.addConnectionProperty("cachePrepStmts", "true");
+                if (maxOpenPreparedStatements > 0) {
+                    ds.addConnectionProperty("prepStmtCacheSize", String.valueOf(maxOpenPreparedStatements));
+                }
+            }
         }
     }
 
@@ -386,6 +562,9 @@ public class Database {
 
     /**
      * Returns the maximal number of concurrent connections
+     * <p>
+     * Note that this is the configured value of <tt>maxActive</tt>: 0 results in a pool of
+     * {@link #DEFAULT_MAX_ACTIVE} connections and a negative value means that the pool size is unlimited.
      *
      * @return the maximal number of concurrent connections
      */
@@ -393,6 +572,100 @@ public class Database {
         return maxActive;
     }
 
+    /**
+     * Executes the given query asynchronously.
+     * <p>
+     * Each database uses its own executor named <tt>jdbc-async-[name]</tt> (which can be configured in
+     * <tt>async.executor</tt>), so that a slow database cannot starve the asynchronous queries of other databases.
+     * Also, at most half of the connection pool ({@link #getSize()}) is used by asynchronous queries at a time. The
+     * current {@link CallContext} (and therefore the {@link sirius.kernel.async.TaskContext}) is forked and passed on
+     * to the executing thread. If the limit is reached or the executor is overloaded, the query is executed within the
+     * calling thread, so that the system slows down instead of piling up more and more work.
+     *
+     * @param query the query to execute
+     * @param <T>   the type of the query result
+     * @return a future which is fulfilled with the result of the query or completed exceptionally if the query fails
+     */
+    public <T> CompletableFuture<T> executeAsync(Callable<T> query) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        if (!asyncPermits.tryAcquire()) {
+            completeWith(result, query);
+            return result;
+        }
+
+        tasks.executor(ASYNC_EXECUTOR_PREFIX + name)
+             .dropOnOverload(() -> completeAndRelease(result, query))
+             .start(() -> completeAndRelease(result, query));
+
+        return result;
+    }
+
+    private <T> void completeAndRelease(CompletableFuture<T> future, Callable<T> query) {
+        try {
+            completeWith(future, query);
+        } finally {
+            asyncPermits.release();
+        }
+    }
+
+    private <T> void completeWith(CompletableFuture<T> future, Callable<T> query) {
+        try {
+            future.complete(query.call());
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Returns the SQL dialect spoken by this database.
+     * <p>
+     * Note that this is only used for diagnostic purposes (e.g. to explain slow queries). The schema is
+     * still managed using the dialect configured in <tt>mixing.jdbc</tt>.
+     *
+     * @return the dialect configured for this database or <tt>null</tt> if none is known
+     */
+    @Nullable
+    public DatabaseDialect getDialect() {
+        if (dialect == null && Strings.isFilled(dialectName)) {
+            dialect = globalContext.getPart(dialectName, DatabaseDialect.class);
+        }
+
+        return dialect;
+    }
+
+    /**
+     * Determines if prepared statements are pooled per connection.
+     *
+     * @return <tt>true</tt> if the connection pool also keeps prepared statements, <tt>false</tt> otherwise
+     */
+    public boolean isPoolingPreparedStatements() {
+        return poolPreparedStatements;
+    }
+
+    /**
+     * Returns the number of prepared statements which were requested for this database.
+     *
+     * @return the total number of requested prepared statements
+     */
+    public long getNumPreparedStatements() {
+        return numPreparedStatements.getCount();
+    }
+
+    /**
+     * Returns the number of prepared statements which were served from the statement pool.
+     * <p>
+     * Note that this is only tracked if {@link #isPoolingPreparedStatements() statement pooling} is enabled.
+     *
+     * @return the total number of prepared statements which didn't need to be prepared by the database
+     */
+    public long getNumPooledPreparedStatements() {
+        if (!poolPreparedStatements) {
+            return 0;
+        }
+
+        return Math.max(0, numPreparedStatements.getCount() - numPhysicalPreparedStatements.getCount());
+    }
+
     /**
      * Return the number of idle connections
      *
@@ -417,6 +690,114 @@ public class Database {
         return ds.getNumActive();
     }
 
+    /**
+     * Returns the number of idle connections in the pool.
+     *
+     * @return the number of connections which are currently idle
+     */
+    public int getNumIdle() {
+        if (ds == null) {
+            return 0;
+        }
+        return ds.getNumIdle();
+    }
+
+    /**
+     * Returns the number of attempts to borrow a connection which failed as no connection became available in time.
+     *
+     * @return the number of borrow timeouts
+     */
+    public long getNumBorrowTimeouts() {
+        return numBorrowTimeouts.getCount();
+    }
+
+    /**
+     * Returns the histogram of wait times when borrowing a connection from the pool.
+     *
+     * @return the wait time histogram of this database
+     */
+    public LatencyHistogram getConnectionWaitTimes() {
+        return connectionWaitTimes;
+    }
+
+    /**
+     * Returns all connections which are currently borrowed from the pool.
+     *
+     * @return all open connections of this database
+     */
+    Collection<WrappedConnection> getOpenConnections() {
+        return Collections.unmodifiableCollection(openConnections);
+    }
+
+    /**
+     * Returns all connections which are held longer than <tt>jdbc.leakDetectionThreshold</tt>.
+     * <p>
+     * Connections which are {@link #getLongRunningConnection() marked as long running} or which are used to
+     * {@link #getStreamingConnection() stream results} are not considered.
+     *
+     * @return all connections which are suspected to be leaked
+     */
+    List<WrappedConnection> getSuspectedLeaks() {
+        long threshold = Databases.getLeakDetectionThresholdMillis();
+        return openConnections.stream()
+                              .filter(connection -> !connection.isLongRunning() && !connection.isStreaming())
+                              .filter(connection -> connection.getBorrowedMillis() > threshold)
+                              .collect(Collectors.toList());
+    }
+
+    /**
+     * Returns the maximal time to wait for a connection before giving up.
+     *
+     * @return the maximal wait time in milliseconds
+     */
+    public int getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    /**
+     * Determines how far this database lags behind its primary database, if it is a replica.
+     * <p>
+     * This is determined via <tt>SHOW SLAVE STATUS</tt> for MySQL / MariaDB or via
+     * <tt>pg_last_xact_replay_timestamp()</tt> for Postgres.
+     *
+     * @return the replication lag or empty if the lag cannot be determined (e.g. as the replication is stopped, has
+     * never been set up or as the database doesn't support probing). Note that a Postgres database which isn't in
+     * recovery reports {@link Duration#ZERO}
+     * @throws SQLException in case of a database error
+     */
+    public Optional<Duration> determineReplicationLag() throws SQLException {
+        if (hasCapability(Capability.SLAVE_STATUS)) {
+            Row status = createQuery("SHOW SLAVE STATUS").queryFirst();
+            if (status == null) {
+                // The replication has never been set up or has been reset...
+                return Optional.empty();
+            }
+
+            // Newer versions of MySQL report "Seconds_Behind_Source" instead...
+            Value secondsBehind = status.hasValue("Seconds_Behind_Master") ?
+                                  status.getValue("Seconds_Behind_Master") :
+                                  status.getValue("Seconds_Behind_Source");
+            if (secondsBehind.isNull()) {
+                return Optional.empty();
+            }
+
+            return Optional.of(Duration.ofSeconds(secondsBehind.asLong(0)));
+        }
+
+        if (hasCapability(Capability.REPLAY_TIMESTAMP)) {
+            Row status = createQuery("SELECT CASE WHEN pg_is_in_recovery()"
+                                     + " THEN EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp())"
+                                     + " ELSE 0 END AS lag").queryFirst();
+            if (status == null || status.getValue("lag").isNull()) {
+                return Optional.empty();
+            }
+
+            return Optional.of(Duration.ofMillis(Math.round(status.getValue("lag").asDouble(0) * 1000)));
+        }
+
+        return Optional.empty();
+    }
+
     /**
      * Determines if the current driver has the requested capability.
      *
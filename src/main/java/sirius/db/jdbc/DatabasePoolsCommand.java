@@ -0,0 +1,71 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.console.Command;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+
+/**
+ * Reports the utilization, wait times and suspected leaks of all JDBC connection pools.
+ * <p>
+ * Use <tt>jdbc-pools leaks</tt> to also output the stack traces of all suspected leaks.
+ */
+@Register
+public class DatabasePoolsCommand implements Command {
+
+    @Override
+    public void execute(Output output, String... params) throws Exception {
+        boolean showStacks = params.length > 0 && "leaks".equals(params[0]);
+
+        for (Database database : Databases.getActiveDatabases()) {
+            LatencyHistogram waitTimes = database.getConnectionWaitTimes();
+            output.line(database.getName());
+            output.separator();
+            output.apply("%-40s %10s",
+                         "Active / Idle / Max",
+                         database.getNumActive() + " / " + database.getNumIdle() + " / " + database.getSize());
+            output.apply("%-40s %10s", "Borrowed connections", waitTimes.getTotalCount());
+            output.apply("%-40s %10s",
+                         "Borrow timeouts (max wait " + database.getMaxWaitMillis() + " ms)",
+                         database.getNumBorrowTimeouts());
+            output.apply("%-40s %10.2f", "Wait time avg (ms)", waitTimes.getAverageMillis());
+            output.apply("%-40s %10s", "Wait time p99 (ms)", waitTimes.getPercentileMillis(99));
+            output.apply("%-40s %10s", "Wait time max (ms)", waitTimes.getMaxMillis());
+            output.blankLine();
+            for (int bucket = 0; bucket < waitTimes.getNumberOfBuckets(); bucket++) {
+                output.apply("%-40s %10s", waitTimes.getBucketLabel(bucket), waitTimes.getCount(bucket));
+            }
+            output.blankLine();
+
+            for (WrappedConnection connection : database.getSuspectedLeaks()) {
+                output.apply("Suspected leak: held for %s by %s",
+                             Duration.ofMillis(connection.getBorrowedMillis()),
+                             connection.getThread());
+                if (showStacks) {
+                    output.line(connection.getBorrowPoint().toString());
+                }
+            }
+            output.blankLine();
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Reports utilization, wait times and suspected leaks of all JDBC connection pools";
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return "jdbc-pools";
+    }
+}
@@ -13,7 +13,6 @@ import sirius.db.mixing.types.BaseEntityRef;
 import sirius.kernel.Sirius;
 import sirius.kernel.commons.Amount;
 import sirius.kernel.commons.Strings;
-import sirius.kernel.commons.Tuple;
 import sirius.kernel.di.Initializable;
 import sirius.kernel.di.std.ConfigValue;
 import sirius.kernel.di.std.Register;
@@ -38,6 +37,9 @@ import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -68,11 +70,20 @@ public class Databases implements Initializable {
     private static Duration logConnectionThreshold;
     private static long logConnectionThresholdMillis = -1;
 
+    @ConfigValue("jdbc.leakDetectionThreshold")
+    private static Duration leakDetectionThreshold;
+
     protected static Counter numUses = new Counter();
     protected static Counter numConnects = new Counter();
     protected static Counter numQueries = new Counter();
     protected static Counter numSlowQueries = new Counter();
     protected static Average queryDuration = new Average();
+    protected static Counter numTemplateCacheHits = new Counter();
+    protected static Counter numTemplateCacheMisses = new Counter();
+    protected static Counter numQueryCacheHits = new Counter();
+    protected static Counter numQueryCacheMisses = new Counter();
+    protected static Counter numBorrowTimeouts = new Counter();
+    protected static Average connectionWaitDuration = new Average();
 
     private static final long SECOND_SHIFT = 1;
     private static final long MINUTE_SHIFT = SECOND_SHIFT * 100;
@@ -105,6 +116,22 @@ public class Databases implements Initializable {
                                  highestUtilization,
                                  "%");
 
+                collector.metric("jdbc_connection_wait",
+                                 "db-connection-wait",
+                                 "JDBC Connection Wait Time",
+                                 connectionWaitDuration.getAndClear(),
+                                 "ms");
+                collector.differentialMetric("jdbc_borrow_timeouts",
+                                             "db-borrow-timeouts",
+                                             "JDBC Connection Borrow Timeouts",
+                                             numBorrowTimeouts.getCount(),
+                                             "/min");
+                collector.metric("jdbc_suspected_leaks",
+                                 "db-suspected-leaks",
+                                 "JDBC Suspected Connection Leaks",
+                                 countSuspectedLeaks(),
+                                 "connections");
+
                 collector.differentialMetric("jdbc_queries",
                                              "db-queries",
                                              "JDBC Queries",
@@ -120,9 +147,70 @@ public class Databases implements Initializable {
                                  "JDBC Query Duration",
                                  queryDuration.getAndClear(),
                                  "ms");
+                collector.differentialMetric("jdbc_statement_template_hits",
+                                             "db-statement-template-hits",
+                                             "JDBC Statement Template Cache Hits",
+                                             numTemplateCacheHits.getCount(),
+                                             "/min");
+                collector.differentialMetric("jdbc_statement_template_misses",
+                                             "db-statement-template-misses",
+                                             "JDBC Statement Template Cache Misses",
+                                             numTemplateCacheMisses.getCount(),
+                                             "/min");
+                collector.differentialMetric("jdbc_query_cache_hits",
+                                             "db-query-cache-hits",
+                                             "JDBC Query Cache Hits",
+                                             numQueryCacheHits.getCount(),
+                                             "/min");
+                collector.differentialMetric("jdbc_query_cache_misses",
+                                             "db-query-cache-misses",
+                                             "JDBC Query Cache Misses",
+                                             numQueryCacheMisses.getCount(),
+                                             "/min");
+                collector.metric("jdbc_query_cache_size",
+                                 "db-query-cache-size",
+                                 "JDBC Query Cache Entries",
+                                 QueryCache.size(),
+                                 "entries");
+                collector.metric("jdbc_query_fingerprints",
+                                 "db-query-fingerprints",
+                                 "JDBC Query Fingerprints",
+                                 QueryStatistics.getNumberOfFingerprints(),
+                                 "fingerprints");
+                collector.metric("jdbc_top_query_share",
+                                 "db-top-query-share",
+                                 "JDBC Share of Top Query",
+                                 QueryStatistics.getTopEntryShare(),
+                                 "%");
+                gatherPreparedStatementMetrics(collector);
+            }
+        }
+
+        protected void gatherPreparedStatementMetrics(MetricsCollector collector) {
+            for (Database db : datasources.values()) {
+                if (db.isPoolingPreparedStatements()) {
+                    collector.differentialMetric("jdbc_" + db.name + "_prepared_statements",
+                                                 "db-prepared-statements",
+                                                 "JDBC Prepared Statements (" + db.name + ")",
+                                                 db.getNumPreparedStatements(),
+                                                 "/min");
+                    collector.differentialMetric("jdbc_" + db.name + "_pooled_prepared_statements",
+                                                 "db-pooled-prepared-statements",
+                                                 "JDBC Pooled Prepared Statements (" + db.name + ")",
+                                                 db.getNumPooledPreparedStatements(),
+                                                 "/min");
+                }
             }
         }
 
+        protected int countSuspectedLeaks() {
+            int result = 0;
+            for (Database db : datasources.values()) {
+                result += db.getSuspectedLeaks().size();
+            }
+            return result;
+        }
+
         protected int determineHighestUtilization() {
             int highestUtilization = 0;
             for (Database db : datasources.values()) {
@@ -209,6 +297,24 @@ public class Databases implements Initializable {
         return logConnectionThresholdMillis;
     }
 
+    /**
+     * Returns the threshold after which a borrowed connection is considered to be leaked.
+     *
+     * @return the threshold for suspected connection leaks in milliseconds
+     */
+    protected static long getLeakDetectionThresholdMillis() {
+        return leakDetectionThreshold.toMillis();
+    }
+
+    /**
+     * Returns all databases which have been accessed so far.
+     *
+     * @return all databases which are currently in use
+     */
+    protected static Collection<Database> getActiveDatabases() {
+        return Collections.unmodifiableCollection(datasources.values());
+    }
+
     /**
      * Encodes a <tt>LocalDateTime</tt> as a long.
      * <p>
@@ -330,14 +436,43 @@ public class Databases implements Initializable {
      */
     public Row fetchGeneratedKeys(PreparedStatement stmt) throws SQLException {
         try (ResultSet rs = stmt.getGeneratedKeys()) {
-            Row row = new Row();
-            if (rs != null && rs.next()) {
-                for (int col = 1; col <= rs.getMetaData().getColumnCount(); col++) {
-                    row.fields.put(rs.getMetaData().getColumnLabel(col).toUpperCase(),
-                                   Tuple.create(rs.getMetaData().getColumnLabel(col), rs.getObject(col)));
+            if (rs == null || !rs.next()) {
+                return new Row();
+            }
+
+            RowHeader header = RowHeader.of(rs);
+            Object[] values = new Object[header.size()];
+            for (int col = 0; col < values.length; col++) {
+                values[col] = rs.getObject(col + 1);
+            }
+            return new Row(header, values);
+        }
+    }
+
+    /**
+     * Fetches all generated keys (e.g. of a batch insert) from the given statement.
+     *
+     * @param stmt the statement to fetch the keys from
+     * @return one row per generated key in the order of the executed inserts
+     * @throws SQLException in case of a database error
+     */
+    public List<Row> fetchAllGeneratedKeys(PreparedStatement stmt) throws SQLException {
+        List<Row> result = new ArrayList<>();
+        try (ResultSet rs = stmt.getGeneratedKeys()) {
+            if (rs == null) {
+                return result;
+            }
+
+            RowHeader header = RowHeader.of(rs);
+            while (rs.next()) {
+                Object[] values = new Object[header.size()];
+                for (int col = 0; col < values.length; col++) {
+                    values[col] = rs.getObject(col + 1);
                 }
+                result.add(new Row(header, values));
             }
-            return row;
         }
+
+        return result;
     }
 }
@@ -0,0 +1,116 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.db.mixing.BaseMapper;
+import sirius.db.mixing.EntityDescriptor;
+import sirius.db.mixing.Property;
+import sirius.kernel.cache.Cache;
+import sirius.kernel.cache.CacheManager;
+import sirius.kernel.commons.Value;
+import sirius.kernel.health.Exceptions;
+
+import javax.annotation.Nullable;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes how to materialize entities of a given type from a result set of a given shape.
+ * <p>
+ * Each property of the entity is mapped onto the index of the column which provides its value once. Therefore
+ * reading a row only requires to fetch the values by index, without resolving or converting column names. As
+ * the same queries are executed again and again, plans are cached per descriptor, alias and list of columns.
+ */
+class EntityFetchPlan {
+
+    private static Cache<String, EntityFetchPlan> plans = CacheManager.createLocalCache("jdbc-entity-fetch-plans");
+
+    private final EntityDescriptor descriptor;
+    private final List<Property> properties;
+    private final int[] columnIndices;
+    private final int versionIndex;
+
+    private EntityFetchPlan(EntityDescriptor descriptor, @Nullable String alias, RowHeader header) {
+        this.descriptor = descriptor;
+        List<Property> effectiveProperties = new ArrayList<>();
+        List<Integer> effectiveIndices = new ArrayList<>();
+        for (Property property : descriptor.getProperties()) {
+            String columnName =
+                    (alias == null) ? property.getPropertyName() : alias + "_" + property.getPropertyName();
+            int index = header.indexOf(columnName);
+            if (index >= 0) {
+                effectiveProperties.add(property);
+                effectiveIndices.add(index + 1);
+            }
+        }
+
+        this.properties = Collections.unmodifiableList(effectiveProperties);
+        this.columnIndices = effectiveIndices.stream().mapToInt(Integer::intValue).toArray();
+        String versionColumn = (alias == null) ? BaseMapper.VERSION : alias + "_" + BaseMapper.VERSION;
+        this.versionIndex = descriptor.isVersioned() ? header.indexOf(versionColumn) + 1 : 0;
+    }
+
+    /**
+     * Returns the plan for the given entity type, alias and result shape.
+     *
+     * @param descriptor the descriptor of the entities to materialize
+     * @param alias      the alias which is prepended to all column names (used by JOIN FETCHes) or <tt>null</tt>
+     * @param header     the header which describes the columns of the result set
+     * @return a plan which can be used to materialize entities from rows of the result set
+     */
+    static EntityFetchPlan of(EntityDescriptor descriptor, @Nullable String alias, RowHeader header) {
+        String cacheKey = computeCacheKey(descriptor, alias, header);
+        EntityFetchPlan plan = plans.get(cacheKey);
+        if (plan == null) {
+            plan = new EntityFetchPlan(descriptor, alias, header);
+            plans.put(cacheKey, plan);
+        }
+
+        return plan;
+    }
+
+    private static String computeCacheKey(EntityDescriptor descriptor, @Nullable String alias, RowHeader header) {
+        StringBuilder sb = new StringBuilder(descriptor.getType().getName());
+        sb.append("|");
+        if (alias != null) {
+            sb.append(alias);
+        }
+        for (int i = 0; i < header.size(); i++) {
+            sb.append("|").append(header.getName(i));
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Creates an entity from the current row of the given result set.
+     *
+     * @param rs the result set to read from
+     * @return the entity filled with the values of the current row
+     * @throws Exception in case of a database error or if the entity cannot be created
+     */
+    SQLEntity make(ResultSet rs) throws Exception {
+        SQLEntity result = (SQLEntity) descriptor.make(OMA.class, properties, index -> {
+            try {
+                return Value.of(rs.getObject(columnIndices[index]));
+            } catch (SQLException e) {
+                throw Exceptions.handle(OMA.LOG, e);
+            }
+        });
+
+        if (versionIndex > 0) {
+            result.setVersion(rs.getInt(versionIndex));
+        }
+
+        return result;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.db.mixing.BaseMapper;
+import sirius.db.mixing.EntityDescriptor;
+import sirius.db.mixing.Property;
+import sirius.kernel.commons.Monoflop;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Generates and caches the INSERT and UPDATE statements used by {@link OMA} for a given entity type.
+ * <p>
+ * All columns (except the ID) are numbered in the order of the properties of the descriptor. An INSERT omits all
+ * columns which are <tt>null</tt> (so that the database can apply its default values) and an UPDATE only contains
+ * the changed columns. Both are therefore identified by a bit mask over all columns, which is used to cache the
+ * generated SQL. As the number of combinations which actually occur is rather small in practice, the number of
+ * cached statements per type is limited by {@link #MAX_CACHED_STATEMENTS} as a safety net.
+ */
+class EntityStatements {
+
+    /**
+     * Limits the number of cached statements (per kind) for a single entity type.
+     */
+    private static final int MAX_CACHED_STATEMENTS = 256;
+
+    private final EntityDescriptor descriptor;
+    private final List<Property> columns;
+    private final Map<BitSet, String> insertStatements = new ConcurrentHashMap<>();
+    private final Map<BitSet, String> updateStatements = new ConcurrentHashMap<>();
+
+    EntityStatements(EntityDescriptor descriptor) {
+        this.descriptor = descriptor;
+        List<Property> effectiveColumns = new ArrayList<>();
+        for (Property property : descriptor.getProperties()) {
+            if (!SQLEntity.ID.getName().equals(property.getName())) {
+                effectiveColumns.add(property);
+            }
+        }
+        this.columns = Collections.unmodifiableList(effectiveColumns);
+    }
+
+    /**
+     * Returns all columns (except the ID) in the order used by the bit masks.
+     *
+     * @return the list of properties which are written into the database
+     */
+    List<Property> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Returns the INSERT statement for the given set of (non-null) columns.
+     * <p>
+     * If the entity is versioned, the <tt>version</tt> column is appended as last parameter.
+     *
+     * @param filledColumns the indices of the columns to insert
+     * @return the INSERT statement which expects the values of the given columns in their natural order
+     */
+    String getInsertStatement(BitSet filledColumns) {
+        String sql = insertStatements.get(filledColumns);
+        if (sql == null) {
+            sql = buildInsertStatement(filledColumns);
+            if (insertStatements.size() < MAX_CACHED_STATEMENTS) {
+                insertStatements.put(filledColumns, sql);
+            }
+        }
+
+        return sql;
+    }
+
+    private String buildInsertStatement(BitSet filledColumns) {
+        StringBuilder fields = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        Monoflop mf = Monoflop.create();
+        for (int i = filledColumns.nextSetBit(0); i >= 0; i = filledColumns.nextSetBit(i + 1)) {
+            if (mf.successiveCall()) {
+                fields.append(", ");
+                values.append(", ");
+            }
+            fields.append(columns.get(i).getPropertyName());
+            values.append("?");
+        }
+        if (descriptor.isVersioned()) {
+            if (mf.successiveCall()) {
+                fields.append(", ");
+                values.append(", ");
+            }
+            fields.append(BaseMapper.VERSION);
+            values.append("?");
+        }
+
+        return "INSERT INTO " + descriptor.getRelationName() + " (" + fields + ") VALUES(" + values + ")";
+    }
+
+    /**
+     * Returns the UPDATE statement for the given set of changed columns.
+     * <p>
+     * The statement expects the values of the changed columns, followed by the new version (if versioned), the ID
+     * and the expected version (if versioned and not forced).
+     *
+     * @param changedColumns the indices of the columns to update
+     * @param force          <tt>true</tt> if the version of the entity should not be checked
+     * @return the UPDATE statement for the given columns
+     */
+    String getUpdateStatement(BitSet changedColumns, boolean force) {
+        BitSet key = changedColumns;
+        if (force) {
+            key = (BitSet) changedColumns.clone();
+            key.set(columns.size());
+        }
+
+        String sql = updateStatements.get(key);
+        if (sql == null) {
+            sql = buildUpdateStatement(changedColumns, force);
+            if (updateStatements.size() < MAX_CACHED_STATEMENTS) {
+                updateStatements.put(key, sql);
+            }
+        }
+
+        return sql;
+    }
+
+    private String buildUpdateStatement(BitSet changedColumns, boolean force) {
+        StringBuilder sql = new StringBuilder("UPDATE ");
+        sql.append(descriptor.getRelationName());
+        sql.append(" SET ");
+        Monoflop mf = Monoflop.create();
+        for (int i = changedColumns.nextSetBit(0); i >= 0; i = changedColumns.nextSetBit(i + 1)) {
+            if (mf.successiveCall()) {
+                sql.append(", ");
+            }
+            sql.append(columns.get(i).getPropertyName());
+            sql.append(" = ? ");
+        }
+
+        if (descriptor.isVersioned()) {
+            sql.append(",");
+            sql.append("version = ? ");
+        }
+
+        sql.append(" WHERE id = ?");
+        if (descriptor.isVersioned() && !force) {
+            sql.append(" AND version = ?");
+        }
+
+        return sql.toString();
+    }
+}
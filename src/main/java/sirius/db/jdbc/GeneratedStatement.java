@@ -8,14 +8,21 @@
 
 package sirius.db.jdbc;
 
+import sirius.db.mixing.EntityCache;
 import sirius.db.mixing.EntityDescriptor;
 import sirius.db.mixing.Mapping;
+import sirius.kernel.async.TaskContext;
 import sirius.kernel.commons.Monoflop;
+import sirius.kernel.commons.Wait;
 import sirius.kernel.commons.Watch;
+import sirius.kernel.di.std.Part;
 
+import javax.annotation.Nullable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,6 +33,9 @@ import java.util.List;
  */
 abstract class GeneratedStatement<S extends GeneratedStatement<S>> {
 
+    @Part
+    private static EntityCache entityCache;
+
     /**
      * Contains the descriptor of the entities being modified.
      */
@@ -51,6 +61,19 @@ abstract class GeneratedStatement<S extends GeneratedStatement<S>> {
      */
     protected final List<Object> parameters = new ArrayList<>();
 
+    /**
+     * Contains the position in the {@link #queryBuilder} at which the first constraint of the WHERE part starts.
+     */
+    private int whereClauseStart = -1;
+
+    /**
+     * Contains the index of the first parameter which belongs to the WHERE part.
+     */
+    private int whereParameterStart;
+
+    private int chunkSize;
+    private Duration pauseBetweenChunks;
+
     /**
      * Creates a new instance for the given descriptor and database.
      *
@@ -143,6 +166,8 @@ abstract class GeneratedStatement<S extends GeneratedStatement<S>> {
     protected void prepareWhere() {
         if (wherePartStarted.firstCall()) {
             beginWHERE();
+            whereClauseStart = queryBuilder.length();
+            whereParameterStart = parameters.size();
         } else {
             append(" AND ");
         }
@@ -182,6 +207,45 @@ abstract class GeneratedStatement<S extends GeneratedStatement<S>> {
         return whereIf(field, value, value != null);
     }
 
+    /**
+     * Executes the statement in chunks of the given size instead of as a single statement.
+     * <p>
+     * In chunked mode, the ids of the matching rows are determined in ascending order and the statement is executed
+     * for one range of ids after another. As each chunk is executed (and therefore committed) on its own, only the
+     * rows of the current chunk are locked. This permits to run large updates or deletes (e.g. maintenance jobs) on a
+     * live system without stalling other transactions or the replication.
+     * <p>
+     * Note that the statement as a whole is therefore not atomic. Also, the processing stops once the current
+     * {@link TaskContext} is no longer active.
+     *
+     * @param chunkSize the maximal number of rows to process per chunk
+     * @return the statement itself for fluent method calls
+     */
+    public S withChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive.");
+        }
+        if (!db.hasCapability(Capability.LIMIT)) {
+            throw new UnsupportedOperationException("Chunked statements require a database which supports LIMIT.");
+        }
+
+        this.chunkSize = chunkSize;
+        return self();
+    }
+
+    /**
+     * Specifies a pause to wait between two chunks when executed via {@link #withChunkSize(int)}.
+     * <p>
+     * This leaves room for other transactions and lets replicas catch up.
+     *
+     * @param pauseBetweenChunks the duration to wait after each chunk
+     * @return the statement itself for fluent method calls
+     */
+    public S withPauseBetweenChunks(@Nullable Duration pauseBetweenChunks) {
+        this.pauseBetweenChunks = pauseBetweenChunks;
+        return self();
+    }
+
     /**
      * Executes the statement against the database.
      *
@@ -192,20 +256,100 @@ abstract class GeneratedStatement<S extends GeneratedStatement<S>> {
         String sql = queryBuilder.toString();
         queryBuilder = null;
 
+        if (chunkSize > 0) {
+            return executeChunked(sql);
+        }
+
         Watch watch = Watch.start();
         try (Connection c = db.getConnection()) {
             try (PreparedStatement stmt = c.prepareStatement(sql)) {
-                for (int i = 0; i < parameters.size(); i++) {
-                    stmt.setObject(i + 1, Databases.convertValue(parameters.get(i)));
-                }
-
+                fillParameters(stmt, parameters, 0);
                 return stmt.executeUpdate();
             }
         } finally {
+            QueryCache.invalidate(descriptor.getRelationName());
+            entityCache.invalidate(descriptor);
             watch.submitMicroTiming(microtimingKey(), sql);
         }
     }
 
+    private int fillParameters(PreparedStatement stmt, List<Object> parametersToFill, int offset) throws SQLException {
+        for (int i = 0; i < parametersToFill.size(); i++) {
+            stmt.setObject(offset + i + 1, Databases.convertValue(parametersToFill.get(i)));
+        }
+
+        return offset + parametersToFill.size();
+    }
+
+    private int executeChunked(String sql) throws SQLException {
+        String idColumn = determineEffectiveColumnName(SQLEntity.ID);
+        boolean hasConstraints = whereClauseStart >= 0;
+        List<Object> whereParameters =
+                hasConstraints ? parameters.subList(whereParameterStart, parameters.size()) : new ArrayList<>();
+
+        String chunkSql = sql + (hasConstraints ? " AND " : " WHERE ") + idColumn + " > ? AND " + idColumn + " <= ?";
+        String selectSql = "SELECT "
+                           + idColumn
+                           + " FROM "
+                           + descriptor.getRelationName()
+                           + " WHERE "
+                           + (hasConstraints ? sql.substring(whereClauseStart) + " AND " : "")
+                           + idColumn
+                           + " > ? ORDER BY "
+                           + idColumn
+                           + " LIMIT "
+                           + chunkSize;
+
+        int totalRows = 0;
+        long lowerBound = Long.MIN_VALUE;
+        try {
+            while (TaskContext.get().isActive()) {
+                Watch watch = Watch.start();
+                int rowsInChunk = 0;
+                long upperBound = lowerBound;
+                try (Connection c = db.getConnection()) {
+                    try (PreparedStatement stmt = c.prepareStatement(selectSql)) {
+                        int index = fillParameters(stmt, whereParameters, 0);
+                        stmt.setLong(index + 1, lowerBound);
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            while (rs.next()) {
+                                upperBound = rs.getLong(1);
+                                rowsInChunk++;
+                            }
+                        }
+                    }
+
+                    if (rowsInChunk == 0) {
+                        return totalRows;
+                    }
+
+                    try (PreparedStatement stmt = c.prepareStatement(chunkSql)) {
+                        int index = fillParameters(stmt, parameters, 0);
+                        stmt.setLong(index + 1, lowerBound);
+                        stmt.setLong(index + 2, upperBound);
+                        totalRows += stmt.executeUpdate();
+                    }
+                } finally {
+                    watch.submitMicroTiming(microtimingKey(), chunkSql);
+                }
+
+                if (rowsInChunk < chunkSize) {
+                    return totalRows;
+                }
+
+                lowerBound = upperBound;
+                if (pauseBetweenChunks != null && !pauseBetweenChunks.isZero()) {
+                    Wait.millis((int) pauseBetweenChunks.toMillis());
+                }
+            }
+
+            return totalRows;
+        } finally {
+            QueryCache.invalidate(descriptor.getRelationName());
+            entityCache.invalidate(descriptor);
+        }
+    }
+
     /**
      * Returns the {@link sirius.kernel.health.Microtiming} key to used for this statement type.
      *
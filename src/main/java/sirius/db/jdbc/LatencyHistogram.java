@@ -0,0 +1,153 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records latencies like the time to borrow a connection from a {@link MonitoredDataSource} or the duration of
+ * a query.
+ * <p>
+ * The latencies are sorted into a fixed set of buckets so that recording is lock free and cheap enough to be
+ * performed for each borrowed connection or executed statement.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Contains the upper bounds (inclusive, in milliseconds) of all buckets except the last one, which collects all
+     * higher latencies.
+     */
+    private static final long[] BUCKET_LIMITS = {1, 5, 10, 50, 100, 250, 500, 1000, 5000};
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_LIMITS.length + 1);
+    private final AtomicLong totalMillis = new AtomicLong();
+    private final AtomicLong maxMillis = new AtomicLong();
+
+    /**
+     * Records a latency.
+     *
+     * @param millis the latency in milliseconds
+     */
+    public void record(long millis) {
+        buckets.incrementAndGet(determineBucket(millis));
+        totalMillis.addAndGet(millis);
+        maxMillis.accumulateAndGet(millis, Math::max);
+    }
+
+    private int determineBucket(long millis) {
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            if (millis <= BUCKET_LIMITS[i]) {
+                return i;
+            }
+        }
+
+        return BUCKET_LIMITS.length;
+    }
+
+    /**
+     * Returns the number of buckets.
+     *
+     * @return the number of buckets
+     */
+    public int getNumberOfBuckets() {
+        return buckets.length();
+    }
+
+    /**
+     * Returns a label which describes the range of the given bucket.
+     *
+     * @param bucket the index of the bucket
+     * @return a label like "&lt;= 10 ms" or "&gt; 5000 ms" for the last bucket
+     */
+    public String getBucketLabel(int bucket) {
+        if (bucket < BUCKET_LIMITS.length) {
+            return "<= " + BUCKET_LIMITS[bucket] + " ms";
+        }
+
+        return "> " + BUCKET_LIMITS[BUCKET_LIMITS.length - 1] + " ms";
+    }
+
+    /**
+     * Returns the number of recorded latencies within the given bucket.
+     *
+     * @param bucket the index of the bucket
+     * @return the number of latencies which fell into the given bucket
+     */
+    public long getCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * Returns the total number of recorded latencies.
+     *
+     * @return the number of recorded latencies
+     */
+    public long getTotalCount() {
+        long result = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            result += buckets.get(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the sum of all recorded latencies.
+     *
+     * @return the total of all latencies in milliseconds
+     */
+    public long getTotalMillis() {
+        return totalMillis.get();
+    }
+
+    /**
+     * Returns the average latency.
+     *
+     * @return the average latency in milliseconds
+     */
+    public double getAverageMillis() {
+        long count = getTotalCount();
+        return count == 0 ? 0d : (double) totalMillis.get() / count;
+    }
+
+    /**
+     * Returns the longest recorded latency.
+     *
+     * @return the longest latency in milliseconds
+     */
+    public long getMaxMillis() {
+        return maxMillis.get();
+    }
+
+    /**
+     * Estimates the given percentile based on the upper bounds of the buckets.
+     *
+     * @param percentile the percentile to compute (e.g. 99)
+     * @return the upper bound of the bucket which contains the given percentile in milliseconds or the longest
+     * recorded latency, if the percentile falls into the last bucket
+     */
+    public long getPercentileMillis(int percentile) {
+        long count = getTotalCount();
+        if (count == 0) {
+            return 0;
+        }
+
+        long threshold = (long) Math.ceil(count * percentile / 100d);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_LIMITS.length; i++) {
+            seen += buckets.get(i);
+            if (seen >= threshold) {
+                return Math.min(BUCKET_LIMITS[i], getMaxMillis());
+            }
+        }
+
+        return getMaxMillis();
+    }
+}
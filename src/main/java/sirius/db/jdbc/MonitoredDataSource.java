@@ -12,7 +12,10 @@ import org.apache.commons.dbcp2.BasicDataSource;
 import org.apache.commons.dbcp2.ConnectionFactory;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tracks how many connections are actually created.
@@ -20,9 +23,40 @@ import java.sql.SQLException;
  * Even if connections are short-lived and not concurrently created, they could still drain the pool of local TCP ports
  * of the OS. Therefore we track the number of total created connections and warn if there are too many - this is
  * a strong indication that the connection pool is misconfigured and not working as expected anyway.
+ * <p>
+ * If prepared statements are pooled, we also track how many statements are actually prepared by the driver. As
+ * {@link WrappedConnection} counts how many statements were requested, this can be used to compute the
+ * effectiveness of the statement pool.
+ * <p>
+ * Also we record how long it takes to borrow a connection from the pool and how often this fails as no connection
+ * became available in time. This is essential to properly size the pool.
  */
 class MonitoredDataSource extends BasicDataSource {
 
+    private final Database database;
+
+    MonitoredDataSource(Database database) {
+        this.database = database;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return super.getConnection();
+        } catch (SQLException e) {
+            if (e.getCause() instanceof NoSuchElementException) {
+                database.numBorrowTimeouts.inc();
+                Databases.numBorrowTimeouts.inc();
+            }
+            throw e;
+        } finally {
+            long waitMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            database.connectionWaitTimes.record(waitMillis);
+            Databases.connectionWaitDuration.addValue(waitMillis);
+        }
+    }
+
     @Override
     protected ConnectionFactory createConnectionFactory() throws SQLException {
         ConnectionFactory actualFactory = super.createConnectionFactory();
@@ -31,8 +65,67 @@ class MonitoredDataSource extends BasicDataSource {
             @Override
             public Connection createConnection() throws SQLException {
                 Databases.numConnects.inc();
+                if (database.isPoolingPreparedStatements()) {
+                    return new PrepareCountingConnection(actualFactory.createConnection(), database);
+                }
+
                 return actualFactory.createConnection();
             }
         };
     }
+
+    /**
+     * Counts all statements which are actually prepared by the underlying driver connection.
+     * <p>
+     * This connection is wrapped by the statement pool of DBCP, therefore only cache misses will reach it.
+     */
+    private static class PrepareCountingConnection extends DelegatingConnection<Connection> {
+
+        private final Database database;
+
+        PrepareCountingConnection(Connection delegate, Database database) {
+            super(delegate);
+            this.database = database;
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql,
+                                                  int resultSetType,
+                                                  int resultSetConcurrency,
+                                                  int resultSetHoldability) throws SQLException {
+            database.numPhysicalPreparedStatements.inc();
+            return super.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+                throws SQLException {
+            database.numPhysicalPreparedStatements.inc();
+            return super.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+            database.numPhysicalPreparedStatements.inc();
+            return super.prepareStatement(sql, autoGeneratedKeys);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+            database.numPhysicalPreparedStatements.inc();
+            return super.prepareStatement(sql, columnIndexes);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+            database.numPhysicalPreparedStatements.inc();
+            return super.prepareStatement(sql, columnNames);
+        }
+
+        @Override
+        public PreparedStatement prepareStatement(String sql) throws SQLException {
+            database.numPhysicalPreparedStatements.inc();
+            return super.prepareStatement(sql);
+        }
+    }
 }
@@ -11,6 +11,7 @@ package sirius.db.jdbc;
 import sirius.db.jdbc.constraints.SQLConstraint;
 import sirius.db.jdbc.constraints.SQLFilterFactory;
 import sirius.db.jdbc.schema.Schema;
+import sirius.db.mixing.BaseEntity;
 import sirius.db.mixing.BaseMapper;
 import sirius.db.mixing.EntityDescriptor;
 import sirius.db.mixing.IntegrityConstraintFailedException;
@@ -19,7 +20,7 @@ import sirius.db.mixing.OptimisticLockException;
 import sirius.db.mixing.Property;
 import sirius.db.mixing.query.constraints.FilterFactory;
 import sirius.kernel.async.Future;
-import sirius.kernel.commons.Context;
+import sirius.kernel.commons.Explain;
 import sirius.kernel.commons.Strings;
 import sirius.kernel.commons.Tuple;
 import sirius.kernel.commons.Value;
@@ -34,10 +35,16 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 /**
@@ -59,14 +66,31 @@ public class OMA extends BaseMapper<SQLEntity, SQLConstraint, SmartQuery<? exten
     private static final String SQL_WHERE_ID = " WHERE id = ?";
     private static final String SQL_AND_VERSION = " AND version = ?";
 
+    /**
+     * Contains the maximal number of rows to send to the database within a single batch in {@link #updateAll}.
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
     @Part
     private Schema schema;
 
-    @Part
-    private Databases dbs;
+    private Map<EntityDescriptor, EntityStatements> statements = new ConcurrentHashMap<>();
 
     private Boolean ready;
 
+    /**
+     * Represents an entity along with its parameter values which is about to be written by {@link #updateAll}.
+     */
+    private static class PendingWrite {
+        private final SQLEntity entity;
+        private final List<Object> data;
+
+        PendingWrite(SQLEntity entity, List<Object> data) {
+            this.entity = entity;
+            this.data = data;
+        }
+    }
+
     /**
      * Provides the underlying database instance used to perform the actual statements.
      * <p>
@@ -135,6 +159,17 @@ public class OMA extends BaseMapper<SQLEntity, SQLConstraint, SmartQuery<? exten
         return getSecondaryDatabase(mixing.getDescriptor(entityType).getRealm());
     }
 
+    /**
+     * Provides the replica set (the main database along with its read replicas) for the given realm.
+     *
+     * @param realm the realm to determine the replicas for
+     * @return the replica set of the realm or <tt>null</tt> if no database is configured for the realm
+     */
+    @Nullable
+    public ReplicaSet getReplicaSet(String realm) {
+        return schema.getReplicaSet(realm).orElse(null);
+    }
+
     /**
      * Provides a {@link Future} which is fullfilled once the framework is ready.
      *
@@ -191,26 +226,61 @@ public class OMA extends BaseMapper<SQLEntity, SQLConstraint, SmartQuery<? exten
 
     @Override
     protected void createEntity(SQLEntity entity, EntityDescriptor ed) throws Exception {
-        Context insertData = Context.create();
-        for (Property p : ed.getProperties()) {
-            if (!SQLEntity.ID.getName().equals(p.getName())) {
-                insertData.set(p.getPropertyName(), p.getValueForDatasource(OMA.class, entity));
-            }
-        }
-
-        if (ed.isVersioned()) {
-            insertData.set(VERSION, 1);
-        }
+        EntityStatements statements = getStatements(ed);
+        List<Object> data = new ArrayList<>(statements.getColumns().size() + 1);
+        BitSet filledColumns = collectInsertData(entity, ed, statements, data);
 
         try {
-            Row keys = getDatabase(ed.getRealm()).insertRow(ed.getRelationName(), insertData);
+            Row keys = getDatabase(ed.getRealm()).executeInsert(statements.getInsertStatement(filledColumns), data);
             loadCreatedId(entity, keys);
             entity.setVersion(1);
         } catch (SQLIntegrityConstraintViolationException e) {
             throw new IntegrityConstraintFailedException(e);
+        } finally {
+            QueryCache.invalidate(ed.getRelationName());
         }
     }
 
+    /**
+     * Collects the parameters for the INSERT of the given entity.
+     *
+     * @param entity     the entity to insert
+     * @param ed         the descriptor of the entity
+     * @param statements the statements of the entity type
+     * @param data       the list to add the parameter values to
+     * @return the set of columns which are present in the INSERT
+     */
+    private BitSet collectInsertData(SQLEntity entity,
+                                     EntityDescriptor ed,
+                                     EntityStatements statements,
+                                     List<Object> data) {
+        List<Property> columns = statements.getColumns();
+        BitSet filledColumns = new BitSet(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            Object value = columns.get(i).getValueForDatasource(OMA.class, entity);
+            if (value != null) {
+                filledColumns.set(i);
+                data.add(Databases.convertValue(value));
+            }
+        }
+
+        if (ed.isVersioned()) {
+            data.add(1);
+        }
+
+        return filledColumns;
+    }
+
+    /**
+     * Returns the cached INSERT and UPDATE statements for the given entity type.
+     *
+     * @param ed the descriptor of the entity type
+     * @return the statements for the given type
+     */
+    EntityStatements getStatements(EntityDescriptor ed) {
+        return statements.computeIfAbsent(ed, EntityStatements::new);
+    }
+
     /**
      * Loads an auto generated id from the given row.
      *
@@ -232,47 +302,262 @@ public class OMA extends BaseMapper<SQLEntity, SQLConstraint, SmartQuery<? exten
 
     @Override
     protected void updateEntity(SQLEntity entity, boolean force, EntityDescriptor ed) throws Exception {
-        StringBuilder sql = new StringBuilder("UPDATE ");
-        sql.append(ed.getRelationName());
-        sql.append(" SET ");
-        List<Object> data = buildUpdateStatement(entity, ed, sql);
-
+        EntityStatements statements = getStatements(ed);
+        List<Object> data = new ArrayList<>();
+        BitSet changedColumns = collectUpdateData(entity, ed, statements, data);
         if (data.isEmpty()) {
             return;
         }
 
-        if (ed.isVersioned()) {
-            if (!data.isEmpty()) {
-                sql.append(",");
+        executeUPDATE(entity, ed, force, statements.getUpdateStatement(changedColumns, force), data);
+    }
+
+    /**
+     * Collects the values of all changed columns of the given entity.
+     *
+     * @param entity     the entity to update
+     * @param ed         the descriptor of the entity
+     * @param statements the statements of the entity type
+     * @param data       the list to add the values of the changed columns to
+     * @return the set of changed columns
+     */
+    private BitSet collectUpdateData(SQLEntity entity,
+                                     EntityDescriptor ed,
+                                     EntityStatements statements,
+                                     List<Object> data) {
+        if (ed.isChanged(entity, ed.getProperty(SQLEntity.ID))) {
+            throw new IllegalStateException("The id column of an entity must not be modified manually!");
+        }
+
+        List<Property> columns = statements.getColumns();
+        BitSet changedColumns = new BitSet(columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            Property property = columns.get(i);
+            if (ed.isChanged(entity, property)) {
+                changedColumns.set(i);
+                data.add(property.getValueForDatasource(OMA.class, entity));
             }
-            sql.append("version = ? ");
         }
 
-        sql.append(SQL_WHERE_ID);
-        if (ed.isVersioned() && !force) {
-            sql.append(SQL_AND_VERSION);
+        return changedColumns;
+    }
+
+    /**
+     * Writes all given entities into the database using as few round-trips as possible.
+     * <p>
+     * This behaves like calling {@link #update(BaseEntity)} for each entity, but first runs all before save
+     * handlers (and therefore all validations) for all entities. Afterwards all new entities are inserted and all
+     * modified entities are updated using JDBC batches, grouped by entity type and the set of affected columns.
+     * Generated IDs are assigned to the new entities and the after save handlers are invoked once all entities
+     * have been written.
+     * <p>
+     * Note that the batches are not executed within a single transaction. Therefore, if one of the batches fails,
+     * the entities written by previous batches remain in the database. If an entity was concurrently modified, all
+     * other entities of the same batch are still written (and their versions are updated) before the
+     * {@link OptimisticLockException} is reported. Also note that inserting a batch fails if the database reports
+     * fewer generated keys than entities were inserted.
+     *
+     * @param entities the entities to write to the database
+     * @param <E>      the generic type of the entities
+     */
+    public <E extends SQLEntity> void updateAll(Collection<E> entities) {
+        try {
+            performUpdateAll(entities, false);
+        } catch (OptimisticLockException | IntegrityConstraintFailedException e) {
+            throw Exceptions.handle(e);
         }
-        executeUPDATE(entity, ed, force, sql.toString(), data);
     }
 
-    private List<Object> buildUpdateStatement(SQLEntity entity, EntityDescriptor ed, StringBuilder sql) {
-        List<Object> data = new ArrayList<>();
-        for (Property p : ed.getProperties()) {
-            if (ed.isChanged(entity, p)) {
-                if (SQLEntity.ID.getName().equals(p.getName())) {
-                    throw new IllegalStateException("The id column of an entity must not be modified manually!");
+    /**
+     * Tries to perform an {@link #updateAll(Collection)} of the given entities.
+     *
+     * @param entities the entities to write to the database
+     * @param <E>      the generic type of the entities
+     * @throws OptimisticLockException            in case of a concurrent modification of one of the entities
+     * @throws IntegrityConstraintFailedException in case of a failed integrity constraint as signaled by the database
+     */
+    @SuppressWarnings("squid:S1160")
+    @Explain("In this case we want to throw two distinct exceptions to differentiate between our optimistic locking "
+             + "and database supported OL")
+    public <E extends SQLEntity> void tryUpdateAll(Collection<E> entities)
+            throws OptimisticLockException, IntegrityConstraintFailedException {
+        performUpdateAll(entities, false);
+    }
+
+    /**
+     * Performs an {@link #updateAll(Collection)} of the given entities, without checking for concurrent
+     * modifications.
+     *
+     * @param entities the entities to write to the database
+     * @param <E>      the generic type of the entities
+     */
+    public <E extends SQLEntity> void overrideAll(Collection<E> entities) {
+        try {
+            performUpdateAll(entities, true);
+        } catch (OptimisticLockException | IntegrityConstraintFailedException e) {
+            throw Exceptions.handle(e);
+        }
+    }
+
+    @SuppressWarnings("squid:RedundantThrowsDeclarationCheck")
+    @Explain("false positive - both exceptions can be thrown")
+    protected <E extends SQLEntity> void performUpdateAll(Collection<E> entities, boolean force)
+            throws OptimisticLockException, IntegrityConstraintFailedException {
+        Map<EntityDescriptor, Map<BitSet, List<PendingWrite>>> inserts = new LinkedHashMap<>();
+        Map<EntityDescriptor, Map<BitSet, List<PendingWrite>>> updates = new LinkedHashMap<>();
+        List<SQLEntity> writtenEntities = new ArrayList<>(entities.size());
+        for (SQLEntity entity : entities) {
+            if (entity != null) {
+                EntityDescriptor ed = entity.getDescriptor();
+                ed.beforeSave(entity);
+                collectPendingWrite(entity, ed, inserts, updates);
+                writtenEntities.add(entity);
+            }
+        }
+
+        try {
+            for (Map.Entry<EntityDescriptor, Map<BitSet, List<PendingWrite>>> entry : inserts.entrySet()) {
+                for (Map.Entry<BitSet, List<PendingWrite>> group : entry.getValue().entrySet()) {
+                    executeBatchInsert(entry.getKey(), group.getKey(), group.getValue());
                 }
-                if (!data.isEmpty()) {
-                    sql.append(", ");
+            }
+            for (Map.Entry<EntityDescriptor, Map<BitSet, List<PendingWrite>>> entry : updates.entrySet()) {
+                for (Map.Entry<BitSet, List<PendingWrite>> group : entry.getValue().entrySet()) {
+                    executeBatchUpdate(entry.getKey(), group.getKey(), force, group.getValue());
                 }
+            }
+        } catch (OptimisticLockException e) {
+            throw e;
+        } catch (SQLException e) {
+            if (isIntegrityConstraintViolation(e)) {
+                throw new IntegrityConstraintFailedException(e);
+            }
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Unable to UPDATE %s entities: %s (%s)", writtenEntities.size())
+                            .handle();
+        } finally {
+            inserts.keySet().forEach(this::invalidateCaches);
+            updates.keySet().forEach(this::invalidateCaches);
+        }
+
+        for (SQLEntity entity : writtenEntities) {
+            entity.getDescriptor().afterSave(entity);
+        }
+    }
+
+    private void collectPendingWrite(SQLEntity entity,
+                                     EntityDescriptor ed,
+                                     Map<EntityDescriptor, Map<BitSet, List<PendingWrite>>> inserts,
+                                     Map<EntityDescriptor, Map<BitSet, List<PendingWrite>>> updates) {
+        EntityStatements statements = getStatements(ed);
+        List<Object> data = new ArrayList<>(statements.getColumns().size() + 1);
+        if (entity.isNew()) {
+            BitSet filledColumns = collectInsertData(entity, ed, statements, data);
+            inserts.computeIfAbsent(ed, ignored -> new HashMap<>())
+                   .computeIfAbsent(filledColumns, ignored -> new ArrayList<>())
+                   .add(new PendingWrite(entity, data));
+        } else {
+            BitSet changedColumns = collectUpdateData(entity, ed, statements, data);
+            if (!data.isEmpty()) {
+                updates.computeIfAbsent(ed, ignored -> new HashMap<>())
+                       .computeIfAbsent(changedColumns, ignored -> new ArrayList<>())
+                       .add(new PendingWrite(entity, data));
+            }
+        }
+    }
 
-                sql.append(p.getPropertyName());
-                sql.append(" = ? ");
-                data.add(p.getValueForDatasource(OMA.class, entity));
+    private boolean isIntegrityConstraintViolation(SQLException e) {
+        Throwable cause = e;
+        while (cause != null) {
+            if (cause instanceof SQLIntegrityConstraintViolationException) {
+                return true;
+            }
+            if (cause instanceof SQLException && ((SQLException) cause).getNextException() != null) {
+                cause = ((SQLException) cause).getNextException();
+            } else {
+                cause = cause.getCause();
             }
         }
 
-        return data;
+        return false;
+    }
+
+    private void executeBatchInsert(EntityDescriptor ed, BitSet filledColumns, List<PendingWrite> writes)
+            throws SQLException {
+        Database db = getDatabase(ed.getRealm());
+        String sql = getStatements(ed).getInsertStatement(filledColumns);
+        for (int start = 0; start < writes.size(); start += MAX_BATCH_SIZE) {
+            List<PendingWrite> chunk = writes.subList(start, Math.min(start + MAX_BATCH_SIZE, writes.size()));
+            List<List<Object>> rows = new ArrayList<>(chunk.size());
+            chunk.forEach(write -> rows.add(write.data));
+
+            List<Row> keys = db.executeBatchInsert(sql, rows);
+            if (db.hasCapability(Capability.GENERATED_KEYS) && keys.size() != chunk.size()) {
+                throw Exceptions.handle()
+                                .to(OMA.LOG)
+                                .withSystemErrorMessage(
+                                        "Inserted %s entities of type %s but received %s generated keys.",
+                                        chunk.size(),
+                                        ed.getType().getName(),
+                                        keys.size())
+                                .handle();
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                SQLEntity entity = chunk.get(i).entity;
+                if (i < keys.size()) {
+                    loadCreatedId(entity, keys.get(i));
+                }
+                entity.setVersion(1);
+            }
+        }
+    }
+
+    private void executeBatchUpdate(EntityDescriptor ed,
+                                    BitSet changedColumns,
+                                    boolean force,
+                                    List<PendingWrite> writes) throws SQLException, OptimisticLockException {
+        Database db = getDatabase(ed.getRealm());
+        String sql = getStatements(ed).getUpdateStatement(changedColumns, force);
+        for (int start = 0; start < writes.size(); start += MAX_BATCH_SIZE) {
+            List<PendingWrite> chunk = writes.subList(start, Math.min(start + MAX_BATCH_SIZE, writes.size()));
+            List<List<Object>> rows = new ArrayList<>(chunk.size());
+            for (PendingWrite write : chunk) {
+                List<Object> parameters = new ArrayList<>(write.data);
+                if (ed.isVersioned()) {
+                    parameters.add(write.entity.getVersion() + 1);
+                }
+                parameters.add(write.entity.getId());
+                if (ed.isVersioned() && !force) {
+                    parameters.add(write.entity.getVersion());
+                }
+                rows.add(parameters);
+            }
+
+            int[] updatedRows = db.executeBatchUpdate(sql, rows);
+            OptimisticLockException lockFailure = null;
+            for (int i = 0; i < chunk.size(); i++) {
+                SQLEntity entity = chunk.get(i).entity;
+                try {
+                    if (i < updatedRows.length && updatedRows[i] != Statement.SUCCESS_NO_INFO) {
+                        enforceUpdate(entity, force, updatedRows[i]);
+                    }
+                    if (ed.isVersioned()) {
+                        entity.setVersion(entity.getVersion() + 1);
+                    }
+                } catch (OptimisticLockException e) {
+                    // The other rows of the chunk have been written anyway, so we still have to update their
+                    // versions before reporting the first conflict...
+                    if (lockFailure == null) {
+                        lockFailure = e;
+                    }
+                }
+            }
+            if (lockFailure != null) {
+                throw lockFailure;
+            }
+        }
     }
 
     private void executeUPDATE(SQLEntity entity, EntityDescriptor ed, boolean force, String sql, List<Object> data)
@@ -299,6 +584,8 @@ public class OMA extends BaseMapper<SQLEntity, SQLConstraint, SmartQuery<? exten
             }
         } catch (SQLIntegrityConstraintViolationException e) {
             throw new IntegrityConstraintFailedException(e);
+        } finally {
+            QueryCache.invalidate(ed.getRelationName());
         }
     }
 
@@ -306,7 +593,7 @@ public class OMA extends BaseMapper<SQLEntity, SQLConstraint, SmartQuery<? exten
         if (force || updatedRows > 0) {
             return;
         }
-        if (find(entity.getClass(), entity.getId()).isPresent()) {
+        if (findUncached(entity.getClass(), entity.getId()).isPresent()) {
             throw new OptimisticLockException();
         } else {
             throw Exceptions.handle()
@@ -336,10 +623,12 @@ public class OMA extends BaseMapper<SQLEntity, SQLConstraint, SmartQuery<? exten
                     stmt.setInt(2, entity.getVersion());
                 }
                 int updatedRows = stmt.executeUpdate();
-                if (updatedRows == 0 && find(entity.getClass(), entity.getId()).isPresent()) {
+                if (updatedRows == 0 && findUncached(entity.getClass(), entity.getId()).isPresent()) {
                     throw new OptimisticLockException();
                 }
             }
+        } finally {
+            QueryCache.invalidate(ed.getRelationName());
         }
     }
 
@@ -430,33 +719,48 @@ public class OMA extends BaseMapper<SQLEntity, SQLConstraint, SmartQuery<? exten
                     return Optional.empty();
                 }
 
-                Set<String> columns = dbs.readColumns(rs);
-                E entity = (E) ed.make(OMA.class, null, key -> {
-                    String effeciveKey = key.toUpperCase();
-                    if (!columns.contains(effeciveKey)) {
-                        return null;
-                    }
+                return Optional.of((E) EntityFetchPlan.of(ed, null, RowHeader.of(rs)).make(rs));
+            }
+        }
+    }
 
-                    try {
-                        return Value.of(rs.getObject(effeciveKey));
-                    } catch (SQLException e) {
-                        throw Exceptions.handle(OMA.LOG, e);
-                    }
-                });
+    /**
+     * Invalidates all cached query results and all cached entities of the given type.
+     * <p>
+     * This is performed automatically for all changes made via this mapper, via generated statements and via
+     * {@link sirius.db.jdbc.batch.BatchContext batch queries}. Code which modifies the table of an entity by executing
+     * plain SQL (e.g. {@link SQLQuery#executeUpdate()}) has to invoke this manually.
+     *
+     * @param ed the descriptor of the entity type which has been modified
+     */
+    public void invalidateCaches(EntityDescriptor ed) {
+        QueryCache.invalidate(ed.getRelationName());
+        entityCache.invalidate(ed);
+    }
 
-                if (ed.isVersioned()) {
-                    entity.setVersion(rs.getInt(BaseMapper.VERSION.toUpperCase()));
-                }
+    /**
+     * Invalidates all cached query results which depend on the given table.
+     * <p>
+     * This can be used for tables which aren't backed by an entity. Use {@link #invalidateCaches(EntityDescriptor)}
+     * for entity tables, so that the entity cache is also flushed.
+     *
+     * @param relation the name of the table which has been modified
+     */
+    public void invalidateCachedQueries(String relation) {
+        QueryCache.invalidate(relation);
+    }
 
-                return Optional.of(entity);
-            }
-        }
+    @Override
+    protected <E extends SQLEntity> E copyEntity(E entity) throws Exception {
+        E copy = super.copyEntity(entity);
+        copy.setVersion(entity.getVersion());
+        return copy;
     }
 
     @SuppressWarnings("unchecked")
     @Override
     protected <E extends SQLEntity> Optional<E> findEntity(E entity) {
-        return find((Class<E>) entity.getClass(), entity.getId());
+        return findUncached((Class<E>) entity.getClass(), entity.getId());
     }
 
     @Override
@@ -477,6 +781,21 @@ public class OMA extends BaseMapper<SQLEntity, SQLConstraint, SmartQuery<? exten
                            .orElse(Value.EMPTY);
     }
 
+    @Override
+    protected void fetchFieldsBlock(Class<? extends SQLEntity> type,
+                                    List<Object> ids,
+                                    Mapping field,
+                                    Map<String, Value> result) throws Exception {
+        Property property = mixing.getDescriptor(type).getProperty(field);
+        select(type).fields(SQLEntity.ID, field)
+                    .where(FILTERS.oneInField(SQLEntity.ID, ids).build())
+                    .asSQLQuery()
+                    .iterateAll(row -> {
+                        Object value = property.transformFromDatasource(getClass(), row.getValue(field.toString()));
+                        result.put(row.getValue(SQLEntity.ID.toString()).asString(), Value.of(value));
+                    }, null);
+    }
+
     @Override
     protected int determineRetryTimeoutFactor() {
         return 50;
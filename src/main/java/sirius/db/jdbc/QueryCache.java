@@ -0,0 +1,128 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.kernel.cache.Cache;
+import sirius.kernel.cache.CacheManager;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caches the materialized results of {@link SmartQuery#cached(Duration) cached queries}.
+ * <p>
+ * Each result is keyed by the compiled SQL along with its parameters and the database which served the query. To
+ * invalidate all results which depend on a relation (table) in O(1), we keep a generation counter per relation,
+ * which is incremented by each write (see {@link #invalidate(String)}). Each cache entry remembers the generations
+ * of all relations it depends on and is considered stale as soon as one of them changed.
+ * <p>
+ * Writes performed by executing plain SQL are not detected and have to be reported via
+ * {@link OMA#invalidateCaches(sirius.db.mixing.EntityDescriptor)} or {@link OMA#invalidateCachedQueries(String)}.
+ */
+class QueryCache {
+
+    /**
+     * Represents a cached result along with its dependencies.
+     */
+    private static class Entry {
+        private final Object result;
+        private final long expires;
+        private final Map<String, Long> generations;
+
+        Entry(Object result, long expires, Map<String, Long> generations) {
+            this.result = result;
+            this.expires = expires;
+            this.generations = generations;
+        }
+
+        boolean isValid() {
+            if (System.currentTimeMillis() > expires) {
+                return false;
+            }
+
+            for (Map.Entry<String, Long> generation : generations.entrySet()) {
+                if (currentGeneration(generation.getKey()) != generation.getValue()) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    private static final Cache<List<Object>, Entry> results = CacheManager.createLocalCache("jdbc-query-results");
+    private static final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    private QueryCache() {
+    }
+
+    /**
+     * Returns the cached result for the given key or computes (and caches) it.
+     *
+     * @param key       the key of the query (the SQL along with each of its parameters as separate element)
+     * @param relations the relations (tables) the query depends on
+     * @param ttl       the maximal time to keep the result
+     * @param supplier  used to compute the result if it isn't present in the cache
+     * @param <T>       the type of the result
+     * @return the cached or computed result
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T get(List<Object> key, Collection<String> relations, Duration ttl, Supplier<T> supplier) {
+        Entry entry = results.get(key);
+        if (entry != null && entry.isValid()) {
+            Databases.numQueryCacheHits.inc();
+            return (T) entry.result;
+        }
+
+        Databases.numQueryCacheMisses.inc();
+
+        // Determine the generations before executing the query, so that concurrent writes invalidate the result...
+        Map<String, Long> dependencies = new HashMap<>();
+        for (String relation : relations) {
+            dependencies.put(relation, currentGeneration(relation));
+        }
+
+        T result = supplier.get();
+        results.put(key, new Entry(result, System.currentTimeMillis() + ttl.toMillis(), dependencies));
+
+        return result;
+    }
+
+    private static long currentGeneration(String relation) {
+        AtomicLong generation = generations.get(relation);
+        return generation == null ? 0 : generation.get();
+    }
+
+    /**
+     * Invalidates all cached results which depend on the given relation.
+     *
+     * @param relation the relation (table) which was modified
+     */
+    static void invalidate(@Nullable String relation) {
+        if (relation != null) {
+            generations.computeIfAbsent(relation, ignored -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the number of cached results.
+     *
+     * @return the number of entries in the cache
+     */
+    static int size() {
+        return results.getSize();
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.kernel.di.std.ConfigValue;
+
+import javax.annotation.Nullable;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps execution statistics per SQL fingerprint.
+ * <p>
+ * A fingerprint is the SQL statement with all literals replaced by <tt>?</tt> and all lists of parameters
+ * (like <tt>IN (?, ?, ?)</tt> or multiple <tt>VALUES</tt> tuples) collapsed. Therefore all executions of the same
+ * query (with different parameters) are aggregated into a single entry, which permits to find the queries which
+ * dominate the database time.
+ * <p>
+ * To bound the memory consumption, at most <tt>jdbc.maxQueryFingerprints</tt> fingerprints are tracked. All
+ * further statements are aggregated in a single entry for "other statements". The statistics can be viewed and
+ * reset via the <tt>jdbc-queries</tt> console command.
+ */
+public class QueryStatistics {
+
+    /**
+     * Contains the fingerprint used to aggregate all statements once the maximal number of fingerprints is reached.
+     */
+    public static final String OTHER_STATEMENTS = "(other statements)";
+
+    private static final Pattern PARAMETER_LIST = Pattern.compile("\\(\\s*\\?(\\s*,\\s*\\?)*\\s*\\)");
+    private static final Pattern TUPLE_LIST = Pattern.compile("\\(\\?\\+\\)(\\s*,\\s*\\(\\?\\+\\))+");
+
+    @ConfigValue("jdbc.maxQueryFingerprints")
+    private static int maxFingerprints;
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * Contains the statistics of a single fingerprint.
+     */
+    public static class Entry {
+
+        private final String fingerprint;
+        private final LatencyHistogram durations = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+        private volatile String plan;
+
+        private Entry(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        /**
+         * Returns the fingerprint of the statements aggregated in this entry.
+         *
+         * @return the normalized SQL statement
+         */
+        public String getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * Returns the durations of all executions.
+         *
+         * @return the histogram of all execution durations
+         */
+        public LatencyHistogram getDurations() {
+            return durations;
+        }
+
+        /**
+         * Returns the number of executions.
+         *
+         * @return the number of times a statement with this fingerprint was executed
+         */
+        public long getCalls() {
+            return durations.getTotalCount();
+        }
+
+        /**
+         * Returns the total number of rows read or modified.
+         *
+         * @return the number of rows returned by queries or modified by updates with this fingerprint
+         */
+        public long getRows() {
+            return rows.sum();
+        }
+
+        /**
+         * Returns the execution plan which was captured when a statement with this fingerprint was slow.
+         *
+         * @return the execution plan or <tt>null</tt> if none was captured
+         */
+        @Nullable
+        public String getPlan() {
+            return plan;
+        }
+    }
+
+    private QueryStatistics() {
+    }
+
+    /**
+     * Computes the fingerprint of the given SQL statement.
+     *
+     * @param sql the statement to compute the fingerprint for
+     * @return the statement with all literals replaced by <tt>?</tt> and all lists of parameters collapsed
+     */
+    public static String fingerprint(String sql) {
+        StringBuilder result = new StringBuilder(sql.length());
+        int index = 0;
+        while (index < sql.length()) {
+            char current = sql.charAt(index);
+            if (current == '\'') {
+                index = skipQuotedLiteral(sql, index, current);
+                result.append('?');
+            } else if (Character.isDigit(current) && isTokenStart(sql, index)) {
+                while (index < sql.length() && (Character.isLetterOrDigit(sql.charAt(index))
+                                                || sql.charAt(index) == '.')) {
+                    index++;
+                }
+                result.append('?');
+            } else if (Character.isWhitespace(current)) {
+                while (index < sql.length() && Character.isWhitespace(sql.charAt(index))) {
+                    index++;
+                }
+                result.append(' ');
+            } else {
+                result.append(current);
+                index++;
+            }
+        }
+
+        String normalized = PARAMETER_LIST.matcher(result.toString().trim()).replaceAll("(?+)");
+        return TUPLE_LIST.matcher(normalized).replaceAll("(?+), ...");
+    }
+
+    private static boolean isTokenStart(String sql, int index) {
+        if (index == 0) {
+            return true;
+        }
+
+        char previous = sql.charAt(index - 1);
+        return !Character.isLetterOrDigit(previous) && previous != '_' && previous != '.';
+    }
+
+    /*
+     * Returns the index after the closing quote of the literal starting at the given index.
+     */
+    private static int skipQuotedLiteral(String sql, int start, char quote) {
+        int index = start + 1;
+        while (index < sql.length()) {
+            char current = sql.charAt(index);
+            if (current == '\\') {
+                index += 2;
+            } else if (current == quote) {
+                if (index + 1 < sql.length() && sql.charAt(index + 1) == quote) {
+                    index += 2;
+                } else {
+                    return index + 1;
+                }
+            } else {
+                index++;
+            }
+        }
+
+        return sql.length();
+    }
+
+    private static Entry getEntry(String fingerprint) {
+        Entry entry = entries.get(fingerprint);
+        if (entry != null) {
+            return entry;
+        }
+
+        if (entries.size() >= maxFingerprints) {
+            return entries.computeIfAbsent(OTHER_STATEMENTS, Entry::new);
+        }
+
+        return entries.computeIfAbsent(fingerprint, Entry::new);
+    }
+
+    /**
+     * Records the execution of a statement.
+     *
+     * @param fingerprint the fingerprint of the statement as computed by {@link #fingerprint(String)}
+     * @param millis      the duration of the execution in milliseconds
+     */
+    protected static void recordExecution(String fingerprint, long millis) {
+        getEntry(fingerprint).durations.record(millis);
+    }
+
+    /**
+     * Records the number of rows which were read or modified by a statement.
+     *
+     * @param fingerprint the fingerprint of the statement as computed by {@link #fingerprint(String)}
+     * @param rows        the number of rows read or modified
+     */
+    protected static void recordRows(String fingerprint, long rows) {
+        if (rows > 0) {
+            getEntry(fingerprint).rows.add(rows);
+        }
+    }
+
+    /**
+     * Stores the execution plan of a statement.
+     *
+     * @param fingerprint the fingerprint of the statement as computed by {@link #fingerprint(String)}
+     * @param plan        the execution plan as reported by the database
+     */
+    protected static void recordPlan(String fingerprint, String plan) {
+        getEntry(fingerprint).plan = plan;
+    }
+
+    /**
+     * Determines if an execution plan has already been captured for the given fingerprint.
+     *
+     * @param fingerprint the fingerprint of the statement as computed by {@link #fingerprint(String)}
+     * @return <tt>true</tt> if a plan is present, <tt>false</tt> otherwise
+     */
+    protected static boolean hasPlan(String fingerprint) {
+        Entry entry = entries.get(fingerprint);
+        return entry != null && entry.plan != null;
+    }
+
+    /**
+     * Records the number of rows which were read from the result of the given statement.
+     *
+     * @param statement the statement which was executed. Note that only statements created by our own connection
+     *                  wrappers are tracked
+     * @param rows      the number of rows read
+     */
+    protected static void recordRows(Statement statement, long rows) {
+        if (statement instanceof WrappedPreparedStatement) {
+            ((WrappedPreparedStatement) statement).recordRows(rows);
+        }
+    }
+
+    /**
+     * Returns the entries with the highest total execution time.
+     *
+     * @param limit the maximal number of entries to return
+     * @return the top entries ordered by their total execution time (descending)
+     */
+    public static List<Entry> getTopEntries(int limit) {
+        List<Entry> result = new ArrayList<>(entries.values());
+        result.sort(Comparator.comparingLong((Entry entry) -> entry.durations.getTotalMillis()).reversed());
+        return result.size() > limit ? new ArrayList<>(result.subList(0, limit)) : result;
+    }
+
+    /**
+     * Returns the share of the most expensive fingerprint in the total execution time of all statements.
+     *
+     * @return the total execution time of the top entry in percent of the total execution time of all entries
+     */
+    public static int getTopEntryShare() {
+        long total = 0;
+        long top = 0;
+        for (Entry entry : entries.values()) {
+            long millis = entry.durations.getTotalMillis();
+            total += millis;
+            top = Math.max(top, millis);
+        }
+
+        return total == 0 ? 0 : (int) (top * 100 / total);
+    }
+
+    /**
+     * Returns the number of tracked fingerprints.
+     *
+     * @return the number of fingerprints for which statistics are kept
+     */
+    public static int getNumberOfFingerprints() {
+        return entries.size();
+    }
+
+    /**
+     * Discards all statistics.
+     */
+    public static void reset() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.console.Command;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Reports the SQL statements which consume the most database time.
+ * <p>
+ * Use <tt>jdbc-queries reset</tt> to discard all statistics collected so far or <tt>jdbc-queries plans</tt> to
+ * also output the execution plans captured for slow queries (see {@link SlowQueryExplainer}).
+ */
+@Register
+public class QueryStatisticsCommand implements Command {
+
+    private static final int NUMBER_OF_ENTRIES = 25;
+
+    @Override
+    public void execute(Output output, String... params) throws Exception {
+        if (params.length > 0 && "reset".equals(params[0])) {
+            QueryStatistics.reset();
+            output.line("Query statistics have been reset...");
+            return;
+        }
+
+        output.apply("%10s %12s %10s %10s %12s  %s", "CALLS", "TOTAL (ms)", "AVG (ms)", "P99 (ms)", "ROWS", "QUERY");
+        output.separator();
+        for (QueryStatistics.Entry entry : QueryStatistics.getTopEntries(NUMBER_OF_ENTRIES)) {
+            LatencyHistogram durations = entry.getDurations();
+            output.apply("%10s %12s %10.2f %10s %12s  %s",
+                         entry.getCalls(),
+                         durations.getTotalMillis(),
+                         durations.getAverageMillis(),
+                         durations.getPercentileMillis(99),
+                         entry.getRows(),
+                         entry.getFingerprint());
+        }
+        output.separator();
+        output.apply("%s fingerprints tracked", QueryStatistics.getNumberOfFingerprints());
+
+        if (params.length > 0 && "plans".equals(params[0])) {
+            for (QueryStatistics.Entry entry : QueryStatistics.getTopEntries(NUMBER_OF_ENTRIES)) {
+                if (entry.getPlan() != null) {
+                    output.blankLine();
+                    output.line(entry.getFingerprint());
+                    output.line(entry.getPlan());
+                }
+            }
+        }
+    }
+
+    @Override
+    public String getDescription() {
+        return "Reports the SQL statements which consume the most database time (supports 'reset' and 'plans')";
+    }
+
+    @Nonnull
+    @Override
+    public String getName() {
+        return "jdbc-queries";
+    }
+}
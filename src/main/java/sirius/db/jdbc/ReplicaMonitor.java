@@ -0,0 +1,31 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.db.jdbc.schema.Schema;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.timer.EveryTenSeconds;
+
+/**
+ * Periodically probes the health and replication lag of all replicas known to the {@link Schema}.
+ *
+ * @see ReplicaSet
+ */
+@Register(classes = EveryTenSeconds.class)
+public class ReplicaMonitor implements EveryTenSeconds {
+
+    @Part
+    private Schema schema;
+
+    @Override
+    public void runTimer() throws Exception {
+        schema.getReplicaSets().forEach(ReplicaSet::probe);
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.kernel.commons.Strings;
+import sirius.kernel.health.Exceptions;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Represents the primary database of a realm along with its read replicas.
+ * <p>
+ * The replicas are configured per realm in <tt>mixing.jdbc.[realm].replicas</tt>. Each replica has a weight which
+ * determines its share of the reads. The health and the replication lag of all replicas is periodically probed by
+ * the {@link ReplicaMonitor}. Reads which accept a certain staleness are then distributed across all healthy
+ * replicas which are not lagging behind too far. If no such replica is available, the primary database is used.
+ */
+public class ReplicaSet {
+
+    /**
+     * Represents a single replica along with its last known state.
+     */
+    public static class Replica {
+
+        private final Database database;
+        private final int weight;
+        private volatile boolean probed;
+        private volatile boolean healthy;
+        private volatile Duration lag = Duration.ZERO;
+
+        /**
+         * Creates a new replica.
+         * <p>
+         * Note that a replica is considered unhealthy (and therefore not used) until it has been probed successfully.
+         *
+         * @param database the database which represents the replica
+         * @param weight   the relative share of reads to send to this replica
+         */
+        public Replica(Database database, int weight) {
+            this.database = database;
+            this.weight = weight;
+        }
+
+        /**
+         * Returns the underlying database.
+         *
+         * @return the database which represents this replica
+         */
+        public Database getDatabase() {
+            return database;
+        }
+
+        /**
+         * Returns the weight used when distributing reads.
+         *
+         * @return the relative weight of this replica
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * Determines if the last probe of this replica was successful.
+         *
+         * @return <tt>true</tt> if the replica is considered healthy, <tt>false</tt> otherwise
+         */
+        public boolean isHealthy() {
+            return healthy;
+        }
+
+        /**
+         * Returns the replication lag determined by the last probe.
+         *
+         * @return the last known replication lag
+         */
+        public Duration getLag() {
+            return lag;
+        }
+
+        protected void probe() {
+            try {
+                Optional<Duration> currentLag = database.determineReplicationLag();
+                if (currentLag.isPresent()) {
+                    updateState(true, currentLag.get());
+                } else {
+                    // The lag cannot be determined - we at least verify that the replica is reachable...
+                    database.createQuery("SELECT 1").queryFirst();
+                    updateState(!database.hasCapability(Capability.SLAVE_STATUS)
+                                && !database.hasCapability(Capability.REPLAY_TIMESTAMP), Duration.ZERO);
+                }
+            } catch (Exception e) {
+                Exceptions.ignore(e);
+                if (healthy || !probed) {
+                    Databases.LOG.WARN("Replica %s is not available and will not be used: %s",
+                                       database.getName(),
+                                       e.getMessage());
+                }
+                updateState(false, lag);
+            }
+        }
+
+        /**
+         * Records the outcome of a probe.
+         *
+         * @param healthy <tt>true</tt> if the replica can be used, <tt>false</tt> otherwise
+         * @param lag     the replication lag of the replica
+         */
+        void updateState(boolean healthy, Duration lag) {
+            this.lag = lag;
+            this.healthy = healthy;
+            this.probed = true;
+        }
+
+        @Override
+        public String toString() {
+            return Strings.apply("%s (weight: %s, healthy: %s, lag: %s ms)",
+                                 database.getName(),
+                                 weight,
+                                 healthy,
+                                 lag.toMillis());
+        }
+    }
+
+    private final Database primary;
+    private final List<Replica> replicas;
+    private final Duration defaultMaxStaleness;
+    private final Duration maxReplicationLag;
+
+    /**
+     * Creates a new replica set.
+     *
+     * @param primary             the primary database of the realm
+     * @param replicas            the replicas of the primary database
+     * @param defaultMaxStaleness the staleness accepted by queries which don't specify a consistency hint
+     * @param maxReplicationLag   the maximal lag of a replica before it is no longer used at all
+     */
+    public ReplicaSet(Database primary,
+                      List<Replica> replicas,
+                      Duration defaultMaxStaleness,
+                      Duration maxReplicationLag) {
+        this.primary = primary;
+        this.replicas = Collections.unmodifiableList(new ArrayList<>(replicas));
+        this.defaultMaxStaleness = defaultMaxStaleness;
+        this.maxReplicationLag = maxReplicationLag;
+    }
+
+    /**
+     * Selects the database to use for a read which accepts the given staleness.
+     *
+     * @param maxStaleness the maximal replication lag accepted by the read. If <tt>null</tt> is given, the default
+     *                     staleness of the realm is used. {@link Duration#ZERO} enforces the primary database.
+     * @return a randomly chosen (weighted) replica which is healthy and not lagging behind too far or the primary
+     * database if no such replica is available
+     */
+    public Database selectDatabase(@Nullable Duration maxStaleness) {
+        Duration effectiveStaleness = maxStaleness != null ? maxStaleness : defaultMaxStaleness;
+        if (replicas.isEmpty() || effectiveStaleness.isZero() || effectiveStaleness.isNegative()) {
+            return primary;
+        }
+
+        int totalWeight = 0;
+        for (Replica replica : replicas) {
+            if (isUsable(replica, effectiveStaleness)) {
+                totalWeight += replica.weight;
+            }
+        }
+        if (totalWeight <= 0) {
+            return primary;
+        }
+
+        int choice = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (Replica replica : replicas) {
+            if (isUsable(replica, effectiveStaleness)) {
+                choice -= replica.weight;
+                if (choice < 0) {
+                    return replica.database;
+                }
+            }
+        }
+
+        return primary;
+    }
+
+    private boolean isUsable(Replica replica, Duration maxStaleness) {
+        return replica.healthy
+               && replica.lag.compareTo(maxStaleness) <= 0
+               && replica.lag.compareTo(maxReplicationLag) <= 0;
+    }
+
+    /**
+     * Probes the health and replication lag of all replicas.
+     */
+    public void probe() {
+        replicas.forEach(Replica::probe);
+    }
+
+    /**
+     * Returns the primary database.
+     *
+     * @return the primary database of the realm
+     */
+    public Database getPrimary() {
+        return primary;
+    }
+
+    /**
+     * Returns all replicas of the realm.
+     *
+     * @return the list of replicas
+     */
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * Returns the staleness accepted by queries which don't specify a consistency hint.
+     *
+     * @return the default staleness of the realm
+     */
+    public Duration getDefaultMaxStaleness() {
+        return defaultMaxStaleness;
+    }
+}
@@ -13,6 +13,7 @@ import sirius.kernel.commons.Tuple;
 import sirius.kernel.commons.Value;
 
 import javax.annotation.Nonnull;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedHashMap;
@@ -21,19 +22,90 @@ import java.util.Map;
 
 /**
  * A small wrapper class to represent a result row.
+ * <p>
+ * The values of a row are stored in a flat array. The column names are kept in a {@link RowHeader} which is shared
+ * by all rows of the same result set.
  */
 public class Row {
 
-    protected Map<String, Tuple<String, Object>> fields = new LinkedHashMap<>();
+    /**
+     * Marks a column for which no value is present (e.g. a blob which has been written into an output stream).
+     */
+    private static final Object ABSENT = new Object();
+
+    protected final RowHeader header;
+    protected final Object[] values;
+
+    /**
+     * Contains all values which were added via {@link #setValue(String, Object)} and which are not part of the
+     * header. This is created on demand as most rows never contain such values.
+     */
+    protected Map<String, Tuple<String, Object>> additionalFields;
+
+    /**
+     * Creates a new and empty row.
+     */
+    public Row() {
+        this(RowHeader.EMPTY, new Object[0]);
+    }
+
+    /**
+     * Creates a new row for the given header and values.
+     *
+     * @param header the header which describes the columns of the row
+     * @param values the values of the row in the order given by the header
+     */
+    Row(RowHeader header, Object[] values) {
+        this.header = header;
+        this.values = values;
+    }
+
+    /**
+     * Marks the column at the given index as absent so that it is neither reported nor accessible.
+     *
+     * @param index the index of the column to mark
+     */
+    void markAbsent(int index) {
+        values[index] = ABSENT;
+    }
 
     /**
      * Returns all stored fields as map.
      *
-     * @return the underlying map, containing all fields and values. Modifying this map will modify the row
+     * @return a map containing all fields and values, keyed by the upper case column name
+     * @deprecated the fields are no longer stored as map. Therefore this returns an unmodifiable copy of the fields.
+     * Use {@link #getFieldsList()}, {@link #getValue(Object)} or {@link #setValue(String, Object)}
+     * instead.
+     */
+    @Deprecated
+    @Nonnull
+    protected Map<String, Tuple<String, Object>> getFields() {
+        Map<String, Tuple<String, Object>> result = new LinkedHashMap<>();
+        for (Tuple<String, Object> field : getFieldsList()) {
+            result.put(field.getFirst().toUpperCase(), field);
+        }
+
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Returns all stored fields as list of tuples containing the column name and its value.
+     *
+     * @return a list containing all fields and values
      */
     @Nonnull
     public Collection<Tuple<String, Object>> getFieldsList() {
-        return fields.values();
+        List<Tuple<String, Object>> result = new ArrayList<>(values.length);
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != ABSENT && header.isVisible(i)) {
+                result.add(Tuple.create(header.getName(i), values[i]));
+            }
+        }
+        if (additionalFields != null) {
+            result.addAll(additionalFields.values());
+        }
+
+        return result;
     }
 
     /**
@@ -44,7 +116,12 @@ public class Row {
      * <tt>false</tt> otherwise
      */
     public boolean hasValue(@Nonnull String key) {
-        return fields.containsKey(key.toUpperCase());
+        int index = header.indexOf(key);
+        if (index >= 0 && values[index] != ABSENT) {
+            return true;
+        }
+
+        return additionalFields != null && additionalFields.containsKey(key.toUpperCase());
     }
 
     /**
@@ -56,11 +133,19 @@ public class Row {
      */
     @Nonnull
     public Value getValue(@Nonnull Object key) {
-        String upperCaseKey = key.toString().toUpperCase();
-        if (!fields.containsKey(upperCaseKey)) {
-            throw new IllegalArgumentException(Strings.apply("Unknown column: %s in %s", upperCaseKey, this));
+        String name = key.toString();
+        int index = header.indexOf(name);
+        if (index >= 0 && values[index] != ABSENT) {
+            return Value.of(values[index]);
         }
-        return Value.of(fields.get(upperCaseKey).getSecond());
+
+        Tuple<String, Object> additionalField =
+                additionalFields == null ? null : additionalFields.get(name.toUpperCase());
+        if (additionalField == null) {
+            throw new IllegalArgumentException(Strings.apply("Unknown column: %s in %s", name.toUpperCase(), this));
+        }
+
+        return Value.of(additionalField.getSecond());
     }
 
     /**
@@ -87,11 +172,30 @@ public class Row {
      * @param value the value to be stored
      */
     public void setValue(@Nonnull String key, Object value) {
-        fields.put(key.toUpperCase(), Tuple.create(key, value));
+        int index = header.indexOf(key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+
+        if (additionalFields == null) {
+            additionalFields = new LinkedHashMap<>();
+        }
+        additionalFields.put(key.toUpperCase(), Tuple.create(key, value));
     }
 
     @Override
     public String toString() {
-        return "Row [" + fields + "]";
+        StringBuilder sb = new StringBuilder("Row [{");
+        boolean first = true;
+        for (Tuple<String, Object> field : getFieldsList()) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(field.getFirst().toUpperCase()).append("=").append(field);
+        }
+
+        return sb.append("}]").toString();
     }
 }
@@ -0,0 +1,126 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import javax.annotation.Nonnull;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Describes the columns of a result set and is shared by all {@link Row rows} read from it.
+ * <p>
+ * The header is computed once per {@link ResultSet} so that each row only has to store its values in a flat array.
+ * Name lookups are resolved via the header - first using the name as reported by the database and then using its
+ * upper case variant, so that most lookups don't need to convert the given key at all.
+ * <p>
+ * Note that this class is only visible so that it can be passed on by subclasses of {@link BaseSQLQuery}. All of
+ * its methods are internal.
+ */
+public final class RowHeader {
+
+    /**
+     * Represents an empty header used by rows which are not created from a result set.
+     */
+    static final RowHeader EMPTY = new RowHeader(new String[0]);
+
+    private final String[] names;
+    private final Map<String, Integer> indices;
+    private final Map<String, Integer> upperCaseIndices;
+
+    private RowHeader(String[] names) {
+        this.names = names;
+        this.indices = new HashMap<>(names.length * 2);
+        this.upperCaseIndices = new HashMap<>(names.length * 2);
+        // If a column name is used several times (case insensitive), the last one wins...
+        for (int i = 0; i < names.length; i++) {
+            upperCaseIndices.put(names[i].toUpperCase(), i);
+        }
+        for (String name : names) {
+            indices.put(name, upperCaseIndices.get(name.toUpperCase()));
+        }
+    }
+
+    /**
+     * Creates a header for the columns of the given result set.
+     *
+     * @param rs the result set to read the column labels from
+     * @return the header which describes the columns of the result set
+     * @throws SQLException in case of a database error
+     */
+    static RowHeader of(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        int columnCount = metaData.getColumnCount();
+        String[] names = new String[columnCount];
+        for (int col = 1; col <= columnCount; col++) {
+            names[col - 1] = metaData.getColumnLabel(col);
+        }
+
+        return new RowHeader(names);
+    }
+
+    /**
+     * Returns the number of columns.
+     *
+     * @return the number of columns described by this header
+     */
+    int size() {
+        return names.length;
+    }
+
+    /**
+     * Returns the name of the column at the given (zero based) index.
+     *
+     * @param index the index of the column
+     * @return the column label as reported by the database
+     */
+    String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Returns all column names in the order of the result set.
+     *
+     * @return the list of column labels
+     */
+    List<String> getNames() {
+        return Arrays.asList(names);
+    }
+
+    /**
+     * Resolves the given column name (case insensitive) into its index.
+     *
+     * @param name the name of the column to resolve
+     * @return the zero based index of the column or -1 if the column is unknown
+     */
+    int indexOf(@Nonnull String name) {
+        Integer index = indices.get(name);
+        if (index == null) {
+            index = upperCaseIndices.get(name.toUpperCase());
+        }
+
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * Determines if the given index is the effective index of its column name.
+     * <p>
+     * This is <tt>false</tt> for columns which are shadowed by a later column with the same name.
+     *
+     * @param index the index to check
+     * @return <tt>true</tt> if the column at the given index is visible by name, <tt>false</tt> otherwise
+     */
+    boolean isVisible(int index) {
+        return upperCaseIndices.get(names[index].toUpperCase()) == index;
+    }
+}
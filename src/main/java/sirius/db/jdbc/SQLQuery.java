@@ -23,7 +23,11 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Predicate;
 
 /**
@@ -105,7 +109,6 @@ public class SQLQuery extends BaseSQLQuery {
     @Override
     public void iterate(Predicate<Row> handler, @Nullable Limit limit) throws SQLException {
         Watch w = Watch.start();
-        fieldNames = null;
         try (Connection c = longRunning ? ds.getLongRunningConnection() : ds.getConnection()) {
             try (PreparedStatement stmt = createPreparedStatement(c)) {
                 if (stmt == null) {
@@ -118,7 +121,7 @@ public class SQLQuery extends BaseSQLQuery {
                 try (ResultSet rs = stmt.executeQuery()) {
                     w.submitMicroTiming(MICROTIMING_KEY, sql);
                     TaskContext tc = TaskContext.get();
-                    processResultSet(handler, effectiveLimit, rs, tc);
+                    QueryStatistics.recordRows(stmt, processResultSet(handler, effectiveLimit, rs, tc));
                 }
             }
         }
@@ -209,6 +212,30 @@ public class SQLQuery extends BaseSQLQuery {
         }
     }
 
+    /**
+     * Asynchronously executes the query returning the result as list.
+     * <p>
+     * Note that the query must not be modified once this method has been called.
+     *
+     * @return a future which is fulfilled with the list of {@link Row}s or with the error of the query
+     * @see Database#executeAsync(Callable)
+     */
+    public CompletableFuture<List<Row>> queryListAsync() {
+        return ds.executeAsync(this::queryList);
+    }
+
+    /**
+     * Asynchronously executes the query returning the first matching row.
+     * <p>
+     * Note that the query must not be modified once this method has been called.
+     *
+     * @return a future which is fulfilled with the first row (if present) or with the error of the query
+     * @see Database#executeAsync(Callable)
+     */
+    public CompletableFuture<Optional<Row>> firstAsync() {
+        return ds.executeAsync(this::first);
+    }
+
     @Override
     public String toString() {
         return "SQLQuery [" + sql + "]";
@@ -0,0 +1,157 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.db.DB;
+import sirius.db.jdbc.schema.DatabaseDialect;
+import sirius.kernel.async.Tasks;
+import sirius.kernel.di.std.ConfigValue;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.health.Exceptions;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Determines the execution plan of slow queries.
+ * <p>
+ * If enabled via <tt>jdbc.explainSlowQueries</tt>, the plan of a slow query is determined using the
+ * {@link DatabaseDialect} of its database. This happens in a separate thread and on a separate connection. The
+ * plan is then logged to <tt>db-slow</tt> and stored in the {@link QueryStatistics}.
+ * <p>
+ * As a slow query most probably indicates a database which is already busy, at most one query is explained per
+ * <tt>jdbc.explainInterval</tt> and each fingerprint is only explained once.
+ */
+class SlowQueryExplainer {
+
+    private static final String EXPLAIN_EXECUTOR = "jdbc-explain";
+
+    @ConfigValue("jdbc.explainSlowQueries")
+    private static boolean enabled;
+
+    @ConfigValue("jdbc.explainInterval")
+    private static Duration explainInterval;
+
+    @Part
+    private static Tasks tasks;
+
+    private static final AtomicLong lastExplain = new AtomicLong();
+
+    private SlowQueryExplainer() {
+    }
+
+    /**
+     * Determines if slow queries are explained at all.
+     *
+     * @return <tt>true</tt> if slow queries are explained, <tt>false</tt> otherwise
+     */
+    protected static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Schedules the given query to be explained unless the rate limit is reached or a plan is already present.
+     *
+     * @param database    the database on which the query was executed
+     * @param sql         the query to explain
+     * @param fingerprint the fingerprint of the query
+     * @param parameters  the parameters which were bound to the query
+     */
+    protected static void explain(Database database, String sql, String fingerprint, List<Object> parameters) {
+        if (!enabled || database == null || QueryStatistics.hasPlan(fingerprint)) {
+            return;
+        }
+
+        DatabaseDialect dialect = database.getDialect();
+        String explainSql = dialect == null ? null : dialect.generateExplain(sql);
+        if (explainSql == null) {
+            return;
+        }
+
+        if (!tryAcquirePermit(lastExplain, System.currentTimeMillis(), explainInterval)) {
+            return;
+        }
+
+        List<Object> boundParameters = new ArrayList<>(parameters);
+        tasks.executor(EXPLAIN_EXECUTOR)
+             .dropOnOverload(() -> Databases.LOG.FINE("Skipping EXPLAIN of a slow query as the system is busy."))
+             .start(() -> executeExplain(database, sql, explainSql, fingerprint, boundParameters));
+    }
+
+    /**
+     * Determines if another query may be explained.
+     * <p>
+     * A permit is granted if the last one was granted at least one interval ago. If several threads compete, only
+     * one of them is granted a permit.
+     *
+     * @param lastPermit contains the timestamp of the last granted permit and is updated if a permit is granted
+     * @param now        the current timestamp in milliseconds
+     * @param interval   the minimal interval between two permits
+     * @return <tt>true</tt> if a query may be explained, <tt>false</tt> otherwise
+     */
+    static boolean tryAcquirePermit(AtomicLong lastPermit, long now, Duration interval) {
+        long last = lastPermit.get();
+        return now - last >= interval.toMillis() && lastPermit.compareAndSet(last, now);
+    }
+
+    private static void executeExplain(Database database,
+                                       String sql,
+                                       String explainSql,
+                                       String fingerprint,
+                                       List<Object> parameters) {
+        try (Connection connection = database.getLongRunningConnection();
+             PreparedStatement stmt = connection.prepareStatement(explainSql)) {
+            for (int index = 0; index < parameters.size(); index++) {
+                if (parameters.get(index) == null) {
+                    stmt.setNull(index + 1, Types.NULL);
+                } else {
+                    stmt.setObject(index + 1, parameters.get(index));
+                }
+            }
+
+            String plan = readPlan(stmt);
+            QueryStatistics.recordPlan(fingerprint, plan);
+            DB.SLOW_DB_LOG.INFO("Execution plan of a slow JDBC query: %s\n%s", sql, plan);
+        } catch (SQLException e) {
+            Exceptions.handle()
+                      .to(Databases.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to explain the slow query '%s' on %s: %s (%s)",
+                                              sql,
+                                              database.getName())
+                      .handle();
+        }
+    }
+
+    private static String readPlan(PreparedStatement stmt) throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (ResultSet rs = stmt.executeQuery()) {
+            ResultSetMetaData metaData = rs.getMetaData();
+            while (rs.next()) {
+                for (int column = 1; column <= metaData.getColumnCount(); column++) {
+                    if (column > 1) {
+                        plan.append(", ");
+                    }
+                    plan.append(metaData.getColumnLabel(column)).append(": ").append(rs.getString(column));
+                }
+                plan.append("\n");
+            }
+        }
+
+        return plan.toString();
+    }
+}
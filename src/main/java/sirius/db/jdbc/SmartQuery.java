@@ -9,19 +9,20 @@
 package sirius.db.jdbc;
 
 import sirius.db.jdbc.constraints.SQLConstraint;
-import sirius.db.mixing.BaseMapper;
+import sirius.db.mixing.EntityCache;
 import sirius.db.mixing.EntityDescriptor;
 import sirius.db.mixing.Mapping;
+import sirius.db.mixing.Property;
 import sirius.db.mixing.properties.SQLEntityRefProperty;
 import sirius.db.mixing.query.Query;
 import sirius.db.mixing.query.constraints.FilterFactory;
 import sirius.kernel.async.TaskContext;
+import sirius.kernel.async.Tasks;
 import sirius.kernel.commons.Explain;
 import sirius.kernel.commons.Limit;
 import sirius.kernel.commons.Monoflop;
 import sirius.kernel.commons.Timeout;
 import sirius.kernel.commons.Tuple;
-import sirius.kernel.commons.Value;
 import sirius.kernel.commons.Watch;
 import sirius.kernel.di.std.Part;
 import sirius.kernel.health.Exceptions;
@@ -37,13 +38,18 @@ import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 
@@ -55,18 +61,28 @@ import java.util.function.Predicate;
 public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQLConstraint> {
 
     private static final Duration QUERY_ITERATE_TIMEOUT = Duration.ofMinutes(15);
+    private static final String PARALLEL_ITERATE_EXECUTOR = "jdbc-parallel-iterate";
+    private static final int SET_BASED_DELETE_CHUNK_SIZE = 1000;
 
     @Part
     private static OMA oma;
 
     @Part
-    private static Databases dbs;
+    private static Tasks tasks;
+
+    @Part
+    private static EntityCache entityCache;
 
     protected List<Mapping> fields = Collections.emptyList();
     protected boolean distinct;
     protected List<Tuple<Mapping, Boolean>> orderBys = new ArrayList<>();
     protected List<SQLConstraint> constaints = new ArrayList<>();
     protected Database db;
+    protected Duration maxStaleness;
+    protected boolean readAfterWrite;
+    protected Duration iterateTimeout = QUERY_ITERATE_TIMEOUT;
+    protected int deleteChunkSize = SET_BASED_DELETE_CHUNK_SIZE;
+    protected Duration cacheTtl;
 
     /**
      * Creates a new query instance.
@@ -90,6 +106,75 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         return descriptor;
     }
 
+    /**
+     * Marks the query as cacheable, so that its results are kept in memory for up to the given duration.
+     * <p>
+     * This is intended for small results which are queried over and over again with the same parameters (e.g.
+     * configuration or small reference tables). The results are cached based on the generated SQL (along with its
+     * parameters) and are automatically invalidated once an entity of the queried (or joined) tables is created,
+     * updated or deleted via {@link OMA} or modified by an {@link UpdateStatement} or {@link DeleteStatement} on
+     * this node. Note that changes performed by plain SQL or by other nodes are only visible once the given TTL
+     * has expired.
+     * <p>
+     * <b>Note that cached entities are shared across all callers and must therefore not be modified.</b> For the
+     * same reason, a cached query can not {@link #prefetch(Mapping) prefetch} references, as this would populate
+     * the shared entities (and the referenced entities would not be invalidated along with the cached result).
+     *
+     * @param ttl the maximal duration to keep the results
+     * @return the query itself for fluent method calls
+     */
+    public SmartQuery<E> cached(Duration ttl) {
+        this.cacheTtl = ttl;
+        return this;
+    }
+
+    /**
+     * Permits to read the results from a replica which lags behind the main database by at most the given duration.
+     * <p>
+     * If replicas are configured for the realm of the entity (see <tt>mixing.jdbc.[realm].replicas</tt>), the
+     * query is executed on a healthy replica which is up to date enough. Otherwise, the main database is used.
+     * Note that this is only a hint and that {@link #readAfterWrite()} takes precedence.
+     *
+     * @param maxStaleness the maximal replication lag which is acceptable for this query
+     * @return the query itself for fluent method calls
+     */
+    public SmartQuery<E> maxStaleness(Duration maxStaleness) {
+        this.maxStaleness = maxStaleness;
+        return this;
+    }
+
+    /**
+     * Enforces that the query is executed on the main database.
+     * <p>
+     * This should be used for reads which need to see all previous writes (e.g. of the current request), if
+     * a <tt>defaultMaxStaleness</tt> is configured for the realm.
+     *
+     * @return the query itself for fluent method calls
+     */
+    public SmartQuery<E> readAfterWrite() {
+        this.readAfterWrite = true;
+        return this;
+    }
+
+    /**
+     * Determines the database to read from, based on the given consistency hints.
+     *
+     * @return the database to execute read operations on
+     */
+    protected Database getReadDatabase() {
+        if (readAfterWrite) {
+            return db;
+        }
+
+        ReplicaSet replicaSet = oma.getReplicaSet(descriptor.getRealm());
+        if (replicaSet == null || replicaSet.getPrimary() != db) {
+            // Either no replicas are known or a specific database (e.g. the secondary) has been selected...
+            return db;
+        }
+
+        return replicaSet.selectDatabase(maxStaleness);
+    }
+
     @Override
     public SmartQuery<E> where(SQLConstraint constraint) {
         if (constraint != null) {
@@ -146,10 +231,22 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         if (forceFail) {
             return 0;
         }
-        Watch w = Watch.start();
         Compiler compiler = compileCOUNT();
+        Database readDatabase = getReadDatabase();
+        if (cacheTtl != null) {
+            return QueryCache.get(computeCacheKey("COUNT", compiler, readDatabase),
+                                  compiler.getRelations(),
+                                  cacheTtl,
+                                  () -> count(compiler, readDatabase));
+        }
+
+        return count(compiler, readDatabase);
+    }
+
+    private long count(Compiler compiler, Database readDatabase) {
+        Watch w = Watch.start();
         try {
-            try (Connection c = db.getConnection()) {
+            try (Connection c = readDatabase.getConnection()) {
                 return execCount(compiler, c);
             } finally {
                 if (Microtiming.isEnabled()) {
@@ -191,6 +288,43 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         return copy().fields(SQLEntity.ID).first().isPresent();
     }
 
+    /**
+     * Asynchronously executes the query and returns all matching entities.
+     * <p>
+     * This can be used to execute several independent queries in parallel. Note that the query must not be
+     * modified once this method has been called.
+     *
+     * @return a future which is fulfilled with the list of matching entities or with the error of the query
+     * @see Database#executeAsync(java.util.concurrent.Callable)
+     */
+    public CompletableFuture<List<E>> queryListAsync() {
+        return db.executeAsync(this::queryList);
+    }
+
+    /**
+     * Asynchronously counts the number of matching entities.
+     * <p>
+     * Note that the query must not be modified once this method has been called.
+     *
+     * @return a future which is fulfilled with the number of matching entities or with the error of the query
+     * @see Database#executeAsync(java.util.concurrent.Callable)
+     */
+    public CompletableFuture<Long> countAsync() {
+        return db.executeAsync(this::count);
+    }
+
+    /**
+     * Asynchronously executes the query and returns the first matching entity.
+     * <p>
+     * Note that the query must not be modified once this method has been called.
+     *
+     * @return a future which is fulfilled with the first matching entity (if present) or with the error of the query
+     * @see Database#executeAsync(java.util.concurrent.Callable)
+     */
+    public CompletableFuture<Optional<E>> firstAsync() {
+        return db.executeAsync(this::first);
+    }
+
     /**
      * Deletes all matches using the {@link OMA#delete(SQLEntity)}.
      * <p>
@@ -198,6 +332,12 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
      * the results until the timeout ({@link #QUERY_ITERATE_TIMEOUT} is reached). In this case, we abort the
      * iteration, execute the query again and continue deleting until all entities are gone.
      *
+     * <p>
+     * If no callback is given and the entities neither have delete handlers (see
+     * {@link EntityDescriptor#hasDeleteHandlers()}) nor are versioned, the entities aren't loaded at all. Instead,
+     * the IDs of the matching entities are selected in chunks which are then removed by a single DELETE statement
+     * each.
+     *
      * @param entityCallback a callback to be invoked for each entity to be deleted
      */
     @Override
@@ -205,11 +345,18 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         if (forceFail) {
             return;
         }
+        if (entityCallback == null && canDeleteSetBased()) {
+            deleteSetBased();
+            return;
+        }
+        // Deleting requires up to date entities (especially for versioned ones)...
+        readAfterWrite = true;
+        cacheTtl = null;
         AtomicBoolean continueDeleting = new AtomicBoolean(true);
         TaskContext context = TaskContext.get();
         while (continueDeleting.get() && context.isActive()) {
             continueDeleting.set(false);
-            Timeout timeout = new Timeout(QUERY_ITERATE_TIMEOUT);
+            Timeout timeout = new Timeout(iterateTimeout);
             iterate(entity -> {
                 if (entityCallback != null) {
                     entityCallback.accept(entity);
@@ -228,6 +375,131 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         }
     }
 
+    private boolean canDeleteSetBased() {
+        return skip == 0
+               && limit == 0
+               && !descriptor.isVersioned()
+               && !descriptor.hasDeleteHandlers()
+               && db.hasCapability(Capability.LIMIT);
+    }
+
+    /**
+     * Deletes all matches chunk by chunk without loading the entities.
+     * <p>
+     * Each chunk selects the next IDs (in ascending order) and removes them via a single statement. Therefore each
+     * chunk is committed on its own and only locks a limited number of rows.
+     */
+    private void deleteSetBased() {
+        SmartQuery<E> idQuery = copy().fields(SQLEntity.ID);
+        idQuery.orderBys.clear();
+        idQuery.orderAsc(SQLEntity.ID);
+        idQuery.readAfterWrite = true;
+        idQuery.cacheTtl = null;
+
+        TaskContext context = TaskContext.get();
+        long lastId = Long.MIN_VALUE;
+        try {
+            while (context.isActive()) {
+                SmartQuery<E> chunkQuery = idQuery.copy().where(OMA.FILTERS.gt(SQLEntity.ID, lastId));
+                chunkQuery.limit(deleteChunkSize);
+                List<Long> ids = chunkQuery.queryIds();
+                if (ids.isEmpty()) {
+                    return;
+                }
+
+                deleteIds(ids);
+                if (ids.size() < deleteChunkSize) {
+                    return;
+                }
+                lastId = ids.get(ids.size() - 1);
+            }
+        } finally {
+            QueryCache.invalidate(descriptor.getRelationName());
+            entityCache.invalidate(descriptor);
+        }
+    }
+
+    private List<Long> queryIds() {
+        Compiler compiler = compileSELECT();
+        List<Long> ids = new ArrayList<>(deleteChunkSize);
+        Watch w = Watch.start();
+        try (Connection c = db.getConnection(); PreparedStatement stmt = compiler.prepareStatement(c)) {
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    ids.add(rs.getLong(1));
+                }
+            }
+            QueryStatistics.recordRows(stmt, ids.size());
+            return ids;
+        } catch (Exception e) {
+            throw queryError(compiler, e);
+        } finally {
+            if (Microtiming.isEnabled()) {
+                w.submitMicroTiming("OMA", compiler.toString());
+            }
+        }
+    }
+
+    private void deleteIds(List<Long> ids) {
+        StringBuilder sql = new StringBuilder("DELETE FROM ");
+        sql.append(descriptor.getRelationName());
+        sql.append(" WHERE ");
+        sql.append(descriptor.getProperty(SQLEntity.ID).getPropertyName());
+        sql.append(" IN (");
+        for (int i = 0; i < ids.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+
+        Watch w = Watch.start();
+        try (Connection c = db.getConnection(); PreparedStatement stmt = c.prepareStatement(sql.toString())) {
+            for (int i = 0; i < ids.size(); i++) {
+                stmt.setLong(i + 1, ids.get(i));
+            }
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Failed to delete %s entities of type '%s': %s (%s)",
+                                                    ids.size(),
+                                                    descriptor.getType().getName())
+                            .handle();
+        } finally {
+            if (Microtiming.isEnabled()) {
+                w.submitMicroTiming("OMA", sql.toString());
+            }
+        }
+    }
+
+    /**
+     * Specifies the duration after which {@link #iterateBlockwise(Predicate)} and {@link #delete()} discard the
+     * current result set and continue with a fresh query.
+     * <p>
+     * This is mainly intended for tests which need to cross block boundaries.
+     *
+     * @param iterateTimeout the maximal duration of a single block
+     * @return the query itself for fluent method calls
+     */
+    SmartQuery<E> withIterateTimeout(Duration iterateTimeout) {
+        this.iterateTimeout = iterateTimeout;
+        return this;
+    }
+
+    /**
+     * Specifies the number of entities which are removed per statement if {@link #delete()} doesn't need to load
+     * the entities.
+     * <p>
+     * This is mainly intended for tests which need to cross chunk boundaries.
+     *
+     * @param deleteChunkSize the maximal number of IDs to delete at once
+     * @return the query itself for fluent method calls
+     */
+    SmartQuery<E> withDeleteChunkSize(int deleteChunkSize) {
+        this.deleteChunkSize = deleteChunkSize;
+        return this;
+    }
+
     /**
      * Calls the given function on all items in the result, as long as it returns <tt>true</tt>.
      * <p>
@@ -237,9 +509,12 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
      * processing. If a timeout ({@link #QUERY_ITERATE_TIMEOUT} is reached, we stop iterating, discard the result set
      * and emit another query which starts just where the previous query stopped.
      * <p>
-     * Note however, as we either do this by ID or by setting an appropriate LIMIT range, there is a possibility,
-     * that we either miss an entity or even process an entity twice if a concurrent modification happens, which
-     * then changes the result set of this query.
+     * If no ORDER BY clauses are present, we continue after the ID of the last processed entity. Otherwise we
+     * remember the values of the sort columns (plus the ID as tie-breaker) of the last processed entity and
+     * continue right after these (keyset pagination). Only if the sort columns cannot be used for this (e.g. as
+     * they are joined or not selected), we fall back to setting an appropriate LIMIT range. Note that in this case
+     * there is a possibility, that we either miss an entity or even process an entity twice if a concurrent
+     * modification happens, which then changes the result set of this query.
      *
      * @param handler the handler to be invoked for each item in the result. Should return <tt>true</tt>
      *                to continue processing or <tt>false</tt> to abort processing of the result set.
@@ -250,6 +525,8 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         }
         if (orderBys.isEmpty()) {
             iterateBlockwiseById(handler);
+        } else if (canIterateBlockwiseByKeyset()) {
+            iterateBlockwiseByKeyset(handler);
         } else {
             iterateBlockwiseByPaging(handler);
         }
@@ -268,6 +545,128 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         });
     }
 
+    /**
+     * Calls the given function on all items in the result by splitting the result into several partitions, which
+     * are processed in parallel.
+     * <p>
+     * The range of IDs of all matching entities is determined and split into (at most) the given number of equally
+     * sized partitions. Each partition is then streamed via {@link #iterateBlockwise(Predicate)} using its own
+     * connection and worker thread. The number of partitions is limited by the size of the connection pool, so that
+     * one connection remains available for other requests. Therefore, a pool with a single connection processes all
+     * entities in one partition. If the pool size is unlimited (<tt>maxActive</tt> is negative), the given number of
+     * partitions is used.
+     * <p>
+     * Note that ORDER BY clauses are ignored, as there is no defined order in which entities are processed. Also note
+     * that the given handler has to be thread-safe as it is invoked concurrently. Processing is aborted if the
+     * current {@link TaskContext} is cancelled or if one of the partitions fails. In the latter case, the error is
+     * thrown once all partitions have stopped. If the calling thread is interrupted, all partitions are stopped as
+     * well and this method returns once they have completed (with the interrupted flag of the thread being set).
+     * <p>
+     * As partitions are processed independently, a query with a limit or skip value cannot be iterated in parallel.
+     *
+     * @param partitions the maximal number of partitions to process in parallel
+     * @param handler    the handler to be invoked for each item in the result
+     * @throws IllegalStateException if a limit or skip value is present for this query
+     */
+    public void iterateParallel(int partitions, Consumer<E> handler) {
+        if (limit > 0 || skip > 0) {
+            throw new IllegalStateException("A query with a limit or skip value can not be iterated in parallel.");
+        }
+        if (forceFail) {
+            return;
+        }
+
+        SmartQuery<E> boundsQuery = copy().fields(SQLEntity.ID);
+        boundsQuery.orderBys.clear();
+        Long minId = boundsQuery.copy().orderAsc(SQLEntity.ID).first().map(SQLEntity::getId).orElse(null);
+        Long maxId = boundsQuery.copy().orderDesc(SQLEntity.ID).first().map(SQLEntity::getId).orElse(null);
+        if (minId == null || maxId == null) {
+            return;
+        }
+
+        int effectivePartitions = computeEffectivePartitions(partitions);
+        long partitionSize = (maxId - minId) / effectivePartitions + 1;
+
+        TaskContext context = TaskContext.get();
+        AtomicReference<Exception> error = new AtomicReference<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<SmartQuery<E>> partitionQueries = new ArrayList<>(effectivePartitions);
+        for (long lowerBound = minId; lowerBound <= maxId; lowerBound += partitionSize) {
+            SmartQuery<E> partitionQuery = copy();
+            partitionQuery.orderBys.clear();
+            partitionQuery.where(OMA.FILTERS.gte(SQLEntity.ID, lowerBound))
+                          .where(OMA.FILTERS.lte(SQLEntity.ID, Math.min(maxId, lowerBound + partitionSize - 1)));
+            partitionQueries.add(partitionQuery);
+        }
+
+        CountDownLatch latch = new CountDownLatch(partitionQueries.size());
+        for (SmartQuery<E> partitionQuery : partitionQueries) {
+            tasks.executor(PARALLEL_ITERATE_EXECUTOR).start(() -> {
+                try {
+                    partitionQuery.iterateBlockwise(entity -> {
+                        if (error.get() != null || cancelled.get() || !context.isActive()) {
+                            return false;
+                        }
+
+                        handler.accept(entity);
+                        return true;
+                    });
+                } catch (Exception e) {
+                    error.compareAndSet(null, e);
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+
+        awaitPartitions(latch, cancelled);
+
+        if (error.get() != null) {
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .error(error.get())
+                            .withSystemErrorMessage("Error while iterating over %s in parallel: %s (%s)",
+                                                    descriptor.getType().getName())
+                            .handle();
+        }
+    }
+
+    private int computeEffectivePartitions(int partitions) {
+        int poolSize = db.getSize();
+        if (poolSize < 0) {
+            return Math.max(1, partitions);
+        }
+        if (poolSize == 0) {
+            poolSize = Database.DEFAULT_MAX_ACTIVE;
+        }
+
+        return Math.max(1, Math.min(partitions, poolSize - 1));
+    }
+
+    /**
+     * Waits until all partitions have been processed.
+     * <p>
+     * If the calling thread is interrupted, all partitions are cancelled. We still wait until they have stopped, so
+     * that the handler is never invoked once this method has returned.
+     */
+    private void awaitPartitions(CountDownLatch latch, AtomicBoolean cancelled) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                Exceptions.ignore(e);
+                interrupted = true;
+                cancelled.set(true);
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     /**
      * Provides a blockwise strategy based on the {@link SQLEntity#ID} of the entities.
      * <p>
@@ -283,7 +682,7 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         TaskContext context = TaskContext.get();
         while (keepGoing.get() && context.isActive()) {
             keepGoing.set(false);
-            Timeout timeout = new Timeout(QUERY_ITERATE_TIMEOUT);
+            Timeout timeout = new Timeout(iterateTimeout);
 
             // Creates a copy and start processing results just after the results we have processed with the
             // previous query...
@@ -309,6 +708,139 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         }
     }
 
+    /**
+     * Determines if all ORDER BY clauses can be used to continue a query right after a given entity.
+     * <p>
+     * This is the case if all sort columns are plain columns of the queried entity (not joined) and are also
+     * selected along with the ID of the entity. Also, the sort columns must not be nullable, as the keyset
+     * constraint cannot express where <tt>NULL</tt> values are sorted (which differs between databases).
+     *
+     * @return <tt>true</tt> if a keyset strategy can be used, <tt>false</tt> otherwise
+     */
+    private boolean canIterateBlockwiseByKeyset() {
+        if (distinct) {
+            return false;
+        }
+
+        for (Tuple<Mapping, Boolean> orderBy : orderBys) {
+            if (orderBy.getFirst().getParent() != null || !isSelected(orderBy.getFirst())) {
+                return false;
+            }
+            Property property = descriptor.findProperty(orderBy.getFirst().getName());
+            if (property == null || property.isNullable()) {
+                return false;
+            }
+        }
+
+        return isSelected(SQLEntity.ID);
+    }
+
+    private boolean isSelected(Mapping field) {
+        return fields.isEmpty() || fields.stream().anyMatch(selectedField -> selectedField.equals(field));
+    }
+
+    /**
+     * Provides a blockwise strategy based on the values of the ORDER BY clauses.
+     * <p>
+     * The ID is added as last sort criterion so that the order is total. When the timeout is reached, we remember
+     * the sort values of the last processed entity and continue right after these.
+     *
+     * @param handler the handler to be invoked for each item in the result. Should return <tt>true</tt>
+     *                to continue processing or <tt>false</tt> to abort processing of the result set.
+     */
+    private void iterateBlockwiseByKeyset(Predicate<E> handler) {
+        List<Tuple<Mapping, Boolean>> keyset = new ArrayList<>(orderBys);
+        if (keyset.stream().noneMatch(orderBy -> SQLEntity.ID.equals(orderBy.getFirst()))) {
+            keyset.add(Tuple.create(SQLEntity.ID, true));
+        }
+
+        AtomicReference<E> lastEntity = new AtomicReference<>();
+        AtomicInteger processedCounter = new AtomicInteger(0);
+        AtomicBoolean keepGoing = new AtomicBoolean(true);
+        TaskContext context = TaskContext.get();
+        while (keepGoing.get() && context.isActive()) {
+            keepGoing.set(false);
+            Timeout timeout = new Timeout(iterateTimeout);
+            createKeysetQuery(keyset, lastEntity.get(), processedCounter.get()).iterate(entity -> {
+                if (!handler.test(entity)) {
+                    // As soon as the handler returns false, we're done and can abort entirely...
+                    return false;
+                }
+
+                processedCounter.incrementAndGet();
+
+                if (timeout.isReached()) {
+                    keepGoing.set(true);
+                    // Remember the last entity so that the next query starts right after it...
+                    lastEntity.set(entity);
+                    return false;
+                }
+
+                return true;
+            });
+        }
+    }
+
+    /**
+     * Creates a copy of this query which starts right after the given entity.
+     * <p>
+     * As only non-nullable sort columns are used (see {@link #canIterateBlockwiseByKeyset()}), the sort values
+     * should always be present. If one is still <tt>null</tt>, we cannot compare against it. In this case we skip
+     * over the number of already processed entities, as the order (including the tie-breaker) is stable.
+     *
+     * @param keyset           the effective sort order
+     * @param lastEntity       the last processed entity or <tt>null</tt> if no entity has been processed yet
+     * @param processedCounter the number of entities which have been processed so far
+     * @return the query to execute
+     */
+    private SmartQuery<E> createKeysetQuery(List<Tuple<Mapping, Boolean>> keyset,
+                                            @Nullable E lastEntity,
+                                            int processedCounter) {
+        SmartQuery<E> query = copy();
+        query.orderBys.clear();
+        query.orderBys.addAll(keyset);
+        if (lastEntity == null) {
+            return query;
+        }
+
+        List<Object> lastValues = new ArrayList<>(keyset.size());
+        for (Tuple<Mapping, Boolean> orderBy : keyset) {
+            Object value = descriptor.getProperty(orderBy.getFirst()).getValueForDatasource(OMA.class, lastEntity);
+            if (value == null) {
+                return query.skip(processedCounter);
+            }
+            lastValues.add(value);
+        }
+
+        return query.where(createKeysetConstraint(keyset, lastValues));
+    }
+
+    /**
+     * Creates a constraint which matches all entities which are sorted after the given values.
+     * <p>
+     * For an order of <tt>a ASC, b DESC, id ASC</tt> this yields:
+     * <tt>a &gt; x OR (a = x AND b &lt; y) OR (a = x AND b = y AND id &gt; z)</tt>.
+     */
+    private SQLConstraint createKeysetConstraint(List<Tuple<Mapping, Boolean>> keyset, List<Object> lastValues) {
+        List<SQLConstraint> alternatives = new ArrayList<>(keyset.size());
+        for (int i = 0; i < keyset.size(); i++) {
+            List<SQLConstraint> conditions = new ArrayList<>(i + 1);
+            for (int j = 0; j < i; j++) {
+                conditions.add(OMA.FILTERS.eq(keyset.get(j).getFirst(), lastValues.get(j)));
+            }
+
+            Mapping field = keyset.get(i).getFirst();
+            if (Boolean.TRUE.equals(keyset.get(i).getSecond())) {
+                conditions.add(OMA.FILTERS.gt(field, lastValues.get(i)));
+            } else {
+                conditions.add(OMA.FILTERS.lt(field, lastValues.get(i)));
+            }
+            alternatives.add(OMA.FILTERS.and(conditions));
+        }
+
+        return OMA.FILTERS.or(alternatives);
+    }
+
     /**
      * Provides a blockwise strategy based on the LIMIT range.
      * <p>
@@ -325,7 +857,7 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         TaskContext context = TaskContext.get();
         while (keepGoing.get() && context.isActive()) {
             keepGoing.set(false);
-            Timeout timeout = new Timeout(QUERY_ITERATE_TIMEOUT);
+            Timeout timeout = new Timeout(iterateTimeout);
             // Create a copy of the query an install an appropriate skip value...
             copy().skip(skipCounter.get()).iterate(entity -> {
                 if (!handler.test(entity)) {
@@ -382,24 +914,78 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         copy.fields = new ArrayList<>(fields);
         copy.orderBys.addAll(orderBys);
         copy.constaints.addAll(constaints);
+        copy.maxStaleness = maxStaleness;
+        copy.readAfterWrite = readAfterWrite;
+        copy.iterateTimeout = iterateTimeout;
+        copy.deleteChunkSize = deleteChunkSize;
+        copy.cacheTtl = cacheTtl;
+        copy.prefetches.addAll(prefetches);
 
         return copy;
     }
 
     @Override
     public void iterate(Predicate<E> handler) {
+        if (cacheTtl != null && !prefetches.isEmpty()) {
+            throw new IllegalStateException("A cached query can not prefetch references.");
+        }
         if (forceFail) {
             return;
         }
+
+        iterateWithPrefetches(handler, this::iterateResults);
+    }
+
+    private void iterateResults(Predicate<E> handler) {
         Compiler compiler = compileSELECT();
+        Database readDatabase = getReadDatabase();
+        if (cacheTtl == null) {
+            iterate(handler, compiler, readDatabase);
+            return;
+        }
+
+        List<Object> key = computeCacheKey("SELECT", compiler, readDatabase);
+        List<E> result = QueryCache.get(key, compiler.getRelations(), cacheTtl, () -> {
+            List<E> entities = new ArrayList<>();
+            iterate(entities::add, compiler, readDatabase);
+            return Collections.unmodifiableList(entities);
+        });
+        for (E entity : result) {
+            if (!handler.test(entity)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Computes the key used to cache the result of the given query.
+     * <p>
+     * The parameters are kept as separate elements (instead of being rendered into a string), so that different
+     * parameter lists never yield the same key. Also, the database which serves the query is part of the key, as
+     * a replica might return a different (older) result than the primary database.
+     */
+    private List<Object> computeCacheKey(String type, Compiler compiler, Database readDatabase) {
+        List<Object> key = new ArrayList<>(compiler.parameters.size() + 6);
+        key.add(type);
+        key.add(descriptor.getType().getName());
+        key.add(readDatabase.getName());
+        key.add(skip);
+        key.add(limit);
+        key.add(compiler.getQuery());
+        key.addAll(compiler.parameters);
+        return key;
+    }
+
+    private void iterate(Predicate<E> handler, Compiler compiler, Database readDatabase) {
         try {
             Watch w = Watch.start();
-            try (Connection c = db.getConnection(); PreparedStatement stmt = compiler.prepareStatement(c)) {
+            try (Connection c = readDatabase.getStreamingConnection();
+                 PreparedStatement stmt = compiler.prepareStatement(c)) {
                 Limit limit = getLimit();
                 boolean nativeLimit = db.hasCapability(Capability.LIMIT);
                 tuneStatement(stmt, limit, nativeLimit);
                 try (ResultSet rs = stmt.executeQuery()) {
-                    execIterate(handler, compiler, limit, nativeLimit, rs);
+                    QueryStatistics.recordRows(stmt, execIterate(handler, compiler, limit, nativeLimit, rs));
                 }
             } finally {
                 if (Microtiming.isEnabled()) {
@@ -412,39 +998,27 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
     }
 
     @SuppressWarnings("unchecked")
-    protected void execIterate(Predicate<E> handler, Compiler compiler, Limit limit, boolean nativeLimit, ResultSet rs)
+    protected int execIterate(Predicate<E> handler, Compiler compiler, Limit limit, boolean nativeLimit, ResultSet rs)
             throws Exception {
         TaskContext tc = TaskContext.get();
-        Set<String> columns = dbs.readColumns(rs);
+        RowHeader header = RowHeader.of(rs);
+        EntityFetchPlan plan = EntityFetchPlan.of(descriptor, null, header);
+        int rows = 0;
         while (rs.next() && tc.isActive()) {
+            rows++;
             if (nativeLimit || limit.nextRow()) {
-                SQLEntity e = makeEntity(descriptor, null, columns, rs);
-                compiler.executeJoinFetches(e, columns, rs);
+                SQLEntity e = plan.make(rs);
+                compiler.executeJoinFetches(e, header, rs);
                 if (!handler.test((E) e)) {
-                    return;
+                    return rows;
                 }
             }
             if (!nativeLimit && !limit.shouldContinue()) {
-                return;
-            }
-        }
-    }
-
-    private static SQLEntity makeEntity(EntityDescriptor descriptor, String alias, Set<String> columns, ResultSet rs)
-            throws Exception {
-        SQLEntity result = (SQLEntity) descriptor.make(OMA.class, alias, key -> {
-            try {
-                return columns.contains(key.toUpperCase()) ? Value.of(rs.getObject(key)) : null;
-            } catch (SQLException e) {
-                throw Exceptions.handle(OMA.LOG, e);
+                return rows;
             }
-        });
-
-        if (descriptor.isVersioned() && columns.contains(BaseMapper.VERSION.toUpperCase())) {
-            result.setVersion(rs.getInt(BaseMapper.VERSION.toUpperCase()));
         }
 
-        return result;
+        return rows;
     }
 
     protected void tuneStatement(PreparedStatement stmt, Limit limit, boolean nativeLimit) throws SQLException {
@@ -468,6 +1042,7 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         private static class JoinFetch {
             String tableAlias;
             SQLEntityRefProperty property;
+            EntityFetchPlan plan;
             Map<String, JoinFetch> subFetches = new TreeMap<>();
         }
 
@@ -477,6 +1052,7 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
         protected StringBuilder postJoinQuery = new StringBuilder();
         protected List<Object> parameters = new ArrayList<>();
         protected Map<String, Tuple<String, EntityDescriptor>> joinTable = new TreeMap<>();
+        protected Set<String> relations = new HashSet<>();
         protected AtomicInteger aliasCounter = new AtomicInteger(1);
         protected String defaultAlias = "e";
         protected JoinFetch rootFetch = new JoinFetch();
@@ -489,6 +1065,18 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
          */
         public Compiler(@Nullable EntityDescriptor ed) {
             this.ed = ed;
+            if (ed != null) {
+                relations.add(ed.getRelationName());
+            }
+        }
+
+        /**
+         * Returns the names of all relations (tables) which are accessed by this query.
+         *
+         * @return the relations accessed by this query (including JOINs and sub queries)
+         */
+        public Set<String> getRelations() {
+            return Collections.unmodifiableSet(relations);
         }
 
         /**
@@ -537,6 +1125,9 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
 
             this.defaultAlias = newDefaultAlias;
             this.ed = newDefaultDescriptor;
+            if (newDefaultDescriptor != null) {
+                relations.add(newDefaultDescriptor.getRelationName());
+            }
             this.joins = new StringBuilder();
             this.joinTable = new TreeMap<>();
 
@@ -577,6 +1168,7 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
             SQLEntityRefProperty refProperty =
                     (SQLEntityRefProperty) parentAlias.getSecond().getProperty(parent.getName());
             EntityDescriptor other = refProperty.getReferencedDescriptor();
+            relations.add(other.getRelationName());
 
             String tableAlias = generateTableAlias();
             joins.append(" LEFT JOIN ")
@@ -640,19 +1232,22 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
             return fields.stream().anyMatch(field -> field.toString().equals(col.toString()));
         }
 
-        protected void executeJoinFetches(SQLEntity entity, Set<String> columns, ResultSet rs) {
-            executeJoinFetch(rootFetch, entity, columns, rs);
+        protected void executeJoinFetches(SQLEntity entity, RowHeader header, ResultSet rs) {
+            executeJoinFetch(rootFetch, entity, header, rs);
         }
 
-        private void executeJoinFetch(JoinFetch jf, SQLEntity parent, Set<String> columns, ResultSet rs) {
+        private void executeJoinFetch(JoinFetch jf, SQLEntity parent, RowHeader header, ResultSet rs) {
             try {
                 SQLEntity child = parent;
                 if (jf.property != null) {
-                    child = makeEntity(jf.property.getReferencedDescriptor(), jf.tableAlias, columns, rs);
+                    if (jf.plan == null) {
+                        jf.plan = EntityFetchPlan.of(jf.property.getReferencedDescriptor(), jf.tableAlias, header);
+                    }
+                    child = jf.plan.make(rs);
                     jf.property.setReferencedEntity(parent, child);
                 }
                 for (JoinFetch subFetch : jf.subFetches.values()) {
-                    executeJoinFetch(subFetch, child, columns, rs);
+                    executeJoinFetch(subFetch, child, header, rs);
                 }
             } catch (Exception e) {
                 throw Exceptions.handle()
@@ -661,7 +1256,7 @@ public class SmartQuery<E extends SQLEntity> extends Query<SmartQuery<E>, E, SQL
                                 .withSystemErrorMessage(
                                         "Error while trying to read join fetched values for %s (%s): %s (%s)",
                                         jf.property,
-                                        columns)
+                                        header.getNames())
                                 .handle();
             }
         }
@@ -8,13 +8,14 @@
 
 package sirius.db.jdbc;
 
+import sirius.kernel.cache.Cache;
+import sirius.kernel.cache.CacheManager;
 import sirius.kernel.commons.Context;
 import sirius.kernel.commons.Reflection;
 import sirius.kernel.commons.Strings;
 import sirius.kernel.commons.Tuple;
 import sirius.kernel.nls.NLS;
 
-import javax.annotation.Nullable;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -29,6 +30,12 @@ import java.util.List;
  */
 class StatementCompiler {
 
+    /**
+     * Contains the parsed templates per SQL query.
+     */
+    private static Cache<String, StatementTemplate> templates =
+            CacheManager.createLocalCache("jdbc-statement-templates");
+
     private PreparedStatement stmt;
     private List<Tuple<Integer, Object>> parameters = new ArrayList<>();
     private Connection c;
@@ -63,6 +70,9 @@ class StatementCompiler {
      * normal substitution and #{Param} for LIKE substitution) are replaced by
      * the given parameters. Blocks created with [ and ] are taken out if the
      * parameter referenced in between is null.
+     * <p>
+     * As parsing the query is independent of the given parameters, the parsed {@link StatementTemplate} is
+     * kept in a cache, so that only the values need to be bound, when the same query is executed again.
      *
      * @param query   the query to compile
      * @param context the context defining the parameters available
@@ -72,7 +82,7 @@ class StatementCompiler {
         if (query != null) {
             this.originalSQL = query;
             this.context = context;
-            parseSection(query);
+            bindTemplate(getTemplate(query));
         }
         int index = 0;
         for (Object param : params) {
@@ -89,102 +99,80 @@ class StatementCompiler {
     }
 
     /*
-     * Searches for an occurrence of a block [ .. ]. Everything before the [ is
-     * compiled and added to the result SQL. Everything between the brackets is
-     * compiled and if a parameter was found it is added to the result SQL. The
-     * part after the ] is parsed in a recursive call.
-     * <p/>
-     * If no [ was found, the complete string is compiled and added to the
-     * result SQL.
+     * Fetches the parsed template for the given query from the cache or parses and caches it if it isn't
+     * present yet.
      */
-    private void parseSection(String sql) throws SQLException {
-        int index = sql.indexOf('[');
-        if (index > -1) {
-            int nextClose = sql.indexOf(']', index + 1);
-            if (nextClose < 0) {
-                throw new SQLException(Strings.apply("Unbalanced [ at %d in: %s ", index, originalSQL));
-            }
-            int nextOpen = sql.indexOf('[', index + 1);
-            if ((nextOpen > -1) && (nextOpen < nextClose)) {
-                throw new SQLException(Strings.apply("Cannot nest blocks of angular brackets at %d in: %s ",
-                                                     index,
-                                                     originalSQL));
-            }
-            compileSection(false, sql.substring(0, index));
-            compileSection(true, sql.substring(index + 1, nextClose));
-            parseSection(sql.substring(nextClose + 1));
-        } else {
-            compileSection(false, sql);
+    private static StatementTemplate getTemplate(String query) throws SQLException {
+        StatementTemplate template = templates.get(query);
+        if (template != null) {
+            Databases.numTemplateCacheHits.inc();
+            return template;
         }
+
+        Databases.numTemplateCacheMisses.inc();
+        template = StatementTemplate.parse(query);
+        templates.put(query, template);
+
+        return template;
     }
 
     /*
-     * Replaces all occurrences of parameters ${..} or #{..} by parameters given
-     * in context.
+     * Binds the parameters of the context to the given template. Each section is bound and appended to the result
+     * SQL. Optional sections are only appended if at least one of their parameters is filled.
      */
-    private void compileSection(boolean ignoreIfParametersNull, String sql) throws SQLException {
-        List<Object> tempParams = new ArrayList<>();
-        StringBuilder sqlBuilder = new StringBuilder();
-
-        boolean appendToStatement = compileSectionPart(sql, tempParams, sqlBuilder, !ignoreIfParametersNull);
-
-        if (appendToStatement) {
-            sb.append(sqlBuilder.toString());
-            params.addAll(tempParams);
+    private void bindTemplate(StatementTemplate template) throws SQLException {
+        for (StatementTemplate.Section section : template.getSections()) {
+            bindSection(section);
         }
     }
 
-    private boolean compileSectionPart(String sql,
-                                       List<Object> tempParams,
-                                       StringBuilder sqlBuilder,
-                                       boolean appendToStatement) throws SQLException {
-        Tuple<Integer, Boolean> nextSubstitution = getNextRelevantIndex(sql);
-        if (nextSubstitution == null) {
-            if (appendToStatement) {
-                sqlBuilder.append(sql);
+    private void bindSection(StatementTemplate.Section section) throws SQLException {
+        List<StatementTemplate.Parameter> sectionParameters = section.getParameters();
+        List<String> fragments = section.getFragments();
+        if (sectionParameters.isEmpty()) {
+            if (!section.isOptional()) {
+                sb.append(fragments.get(0));
             }
-            return appendToStatement;
+            return;
         }
 
-        int endIndex = findClosingCurlyBracket(sql, nextSubstitution.getFirst());
-        String parameterName = sql.substring(nextSubstitution.getFirst() + 2, endIndex);
-        Object paramValue = computeEffectiveParameterValue(parameterName);
-
-        if (Boolean.TRUE.equals(nextSubstitution.getSecond()) || paramValue == null) {
-            tempParams.add(paramValue);
-        } else {
-            tempParams.add(addSQLWildcard(paramValue.toString().toLowerCase(), true));
-        }
-
-        sqlBuilder.append(sql, 0, nextSubstitution.getFirst());
+        List<Object> tempParams = new ArrayList<>(sectionParameters.size());
+        StringBuilder sqlBuilder = new StringBuilder();
+        boolean appendToStatement = !section.isOptional();
+        for (int i = 0; i < sectionParameters.size(); i++) {
+            StatementTemplate.Parameter parameter = sectionParameters.get(i);
+            Object paramValue = computeEffectiveParameterValue(parameter);
 
-        appendPlaceholdersToStatement(sqlBuilder, paramValue);
+            if (!parameter.isLike() || paramValue == null) {
+                tempParams.add(paramValue);
+            } else {
+                tempParams.add(addSQLWildcard(paramValue.toString().toLowerCase(), true));
+            }
 
-        return compileSectionPart(sql.substring(endIndex + 1),
-                                  tempParams,
-                                  sqlBuilder,
-                                  appendToStatement || isParameterFilled(paramValue));
-    }
+            sqlBuilder.append(fragments.get(i));
+            appendPlaceholdersToStatement(sqlBuilder, paramValue);
+            appendToStatement |= isParameterFilled(paramValue);
+        }
 
-    private Object computeEffectiveParameterValue(String fullParameterName) throws SQLException {
-        String accessPath = null;
-        String parameterName = fullParameterName;
-        if (fullParameterName.contains(".")) {
-            accessPath = parameterName.substring(parameterName.indexOf('.') + 1);
-            parameterName = parameterName.substring(0, parameterName.indexOf('.'));
+        if (appendToStatement) {
+            sqlBuilder.append(fragments.get(fragments.size() - 1));
+            sb.append(sqlBuilder);
+            params.addAll(tempParams);
         }
+    }
 
-        Object paramValue = context.get(parameterName);
-        if (accessPath == null || paramValue == null) {
+    private Object computeEffectiveParameterValue(StatementTemplate.Parameter parameter) throws SQLException {
+        Object paramValue = context.get(parameter.getName());
+        if (parameter.getAccessPath() == null || paramValue == null) {
             return paramValue;
         }
 
         try {
-            return Reflection.evalAccessPath(accessPath, paramValue);
+            return Reflection.evalAccessPath(parameter.getAccessPath(), paramValue);
         } catch (Exception e) {
             throw new SQLException(NLS.fmtr("StatementCompiler.cannotEvalAccessPath")
-                                      .set("name", parameterName)
-                                      .set("path", accessPath)
+                                      .set("name", parameter.getName())
+                                      .set("path", parameter.getAccessPath())
                                       .set("value", paramValue)
                                       .set("query", originalSQL)
                                       .format(), e);
@@ -220,34 +208,6 @@ class StatementCompiler {
         return true;
     }
 
-    private int findClosingCurlyBracket(String sql, int index) throws SQLException {
-        int endIndex = sql.indexOf('}', index);
-        if (endIndex < 0) {
-            throw new SQLException(NLS.fmtr("StatementCompiler.errorUnbalancedCurlyBracket")
-                                      .set("index", index)
-                                      .set("query", originalSQL)
-                                      .format());
-        }
-        return endIndex;
-    }
-
-    /*
-     * Returns the next index of ${ or #{ in the given string.
-     */
-    @Nullable
-    private Tuple<Integer, Boolean> getNextRelevantIndex(String sql) {
-        int index = sql.indexOf("${");
-        int sharpIndex = sql.indexOf("#{");
-        if ((sharpIndex > -1) && ((index < 0) || (sharpIndex < index))) {
-            return Tuple.create(sharpIndex, false);
-        }
-        if (index > -1) {
-            return Tuple.create(index, true);
-        } else {
-            return null;
-        }
-    }
-
     /**
      * Make <tt>searchString</tt> conform with SQL 92 syntax. Therefore all * are
      * converted to % and a final % is appended at the end of the string.
@@ -0,0 +1,196 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.kernel.commons.Strings;
+import sirius.kernel.nls.NLS;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Represents a pre-parsed SQL statement as accepted by the {@link StatementCompiler}.
+ * <p>
+ * A template consists of a list of sections, where each section is either mandatory or optional (surrounded by
+ * angular brackets). Each section consists of static SQL fragments, interleaved with the parameters (${name}
+ * or #{name}) to bind. As parsing a query is independent of the parameter values, a template can be computed
+ * once per SQL string and then be re-used to create any number of statements.
+ */
+class StatementTemplate {
+
+    /**
+     * Represents a parameter reference within a section.
+     */
+    static class Parameter {
+
+        private final String name;
+        private final String accessPath;
+        private final boolean like;
+
+        Parameter(String name, String accessPath, boolean like) {
+            this.name = name;
+            this.accessPath = accessPath;
+            this.like = like;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        String getAccessPath() {
+            return accessPath;
+        }
+
+        boolean isLike() {
+            return like;
+        }
+    }
+
+    /**
+     * Represents a section of the SQL statement.
+     * <p>
+     * A section has <tt>n</tt> parameters and <tt>n + 1</tt> static fragments, so that the effective SQL is
+     * <tt>fragment[0] param[0] fragment[1] ... param[n-1] fragment[n]</tt>.
+     */
+    static class Section {
+
+        private final boolean optional;
+        private final List<String> fragments;
+        private final List<Parameter> parameters;
+
+        Section(boolean optional, List<String> fragments, List<Parameter> parameters) {
+            this.optional = optional;
+            this.fragments = fragments;
+            this.parameters = parameters;
+        }
+
+        boolean isOptional() {
+            return optional;
+        }
+
+        List<String> getFragments() {
+            return fragments;
+        }
+
+        List<Parameter> getParameters() {
+            return parameters;
+        }
+    }
+
+    private final String sql;
+    private final List<Section> sections;
+
+    private StatementTemplate(String sql, List<Section> sections) {
+        this.sql = sql;
+        this.sections = Collections.unmodifiableList(sections);
+    }
+
+    /**
+     * Parses the given SQL into a template.
+     *
+     * @param sql the query to parse
+     * @return the parsed template
+     * @throws SQLException in case of an invalid query (unbalanced or nested brackets)
+     */
+    static StatementTemplate parse(String sql) throws SQLException {
+        List<Section> sections = new ArrayList<>();
+        int position = 0;
+        while (position <= sql.length()) {
+            int index = sql.indexOf('[', position);
+            if (index < 0) {
+                sections.add(parseSection(sql, position, sql.length(), false));
+                break;
+            }
+
+            int nextClose = sql.indexOf(']', index + 1);
+            if (nextClose < 0) {
+                throw new SQLException(Strings.apply("Unbalanced [ at %d in: %s ", index, sql));
+            }
+            int nextOpen = sql.indexOf('[', index + 1);
+            if ((nextOpen > -1) && (nextOpen < nextClose)) {
+                throw new SQLException(Strings.apply("Cannot nest blocks of angular brackets at %d in: %s ",
+                                                     index,
+                                                     sql));
+            }
+
+            sections.add(parseSection(sql, position, index, false));
+            sections.add(parseSection(sql, index + 1, nextClose, true));
+            position = nextClose + 1;
+        }
+
+        return new StatementTemplate(sql, sections);
+    }
+
+    private static Section parseSection(String sql, int start, int end, boolean optional) throws SQLException {
+        List<String> fragments = new ArrayList<>();
+        List<Parameter> parameters = new ArrayList<>();
+        int position = start;
+        int next = findNextParameter(sql, position, end);
+        while (next >= 0) {
+            int closingBracket = sql.indexOf('}', next);
+            if (closingBracket < 0 || closingBracket >= end) {
+                throw new SQLException(NLS.fmtr("StatementCompiler.errorUnbalancedCurlyBracket")
+                                          .set("index", next)
+                                          .set("query", sql)
+                                          .format());
+            }
+
+            fragments.add(sql.substring(position, next));
+            parameters.add(parseParameter(sql.substring(next + 2, closingBracket), sql.charAt(next) == '#'));
+            position = closingBracket + 1;
+            next = findNextParameter(sql, position, end);
+        }
+        fragments.add(sql.substring(position, end));
+
+        return new Section(optional, fragments, parameters);
+    }
+
+    private static Parameter parseParameter(String fullParameterName, boolean like) {
+        int dot = fullParameterName.indexOf('.');
+        if (dot < 0) {
+            return new Parameter(fullParameterName, null, like);
+        }
+
+        return new Parameter(fullParameterName.substring(0, dot), fullParameterName.substring(dot + 1), like);
+    }
+
+    /*
+     * Returns the next index of ${ or #{ within the given range or -1 if none is present.
+     */
+    private static int findNextParameter(String sql, int start, int end) {
+        for (int i = start; i < end - 1; i++) {
+            char ch = sql.charAt(i);
+            if ((ch == '$' || ch == '#') && sql.charAt(i + 1) == '{') {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the original SQL which was used to create this template.
+     *
+     * @return the original SQL query
+     */
+    String getSQL() {
+        return sql;
+    }
+
+    /**
+     * Returns all sections of this template in their order of appearance.
+     *
+     * @return the list of sections
+     */
+    List<Section> getSections() {
+        return sections;
+    }
+}
@@ -28,12 +28,16 @@ class WrappedConnection extends DelegatingConnection<Connection> {
     protected final Database database;
     private final Watch watch = Watch.start();
     private final ExecutionPoint connected = ExecutionPoint.fastSnapshot();
+    private final String thread = Thread.currentThread().getName();
     private boolean longRunning;
+    private boolean streaming;
+    private volatile boolean leakReported;
 
     WrappedConnection(Connection c, Database database) {
         super(c);
         this.database = database;
         Databases.numUses.inc();
+        database.openConnections.add(this);
     }
 
     @Override
@@ -53,6 +57,77 @@ class WrappedConnection extends DelegatingConnection<Connection> {
         return this;
     }
 
+    /**
+     * Marks this connection as used to stream the results of a query to a handler.
+     * <p>
+     * This exempts the connection from the leak detection, as it is held while the handler is running.
+     *
+     * @return the connection itself for fluent method calls
+     */
+    public WrappedConnection markAsStreaming() {
+        this.streaming = true;
+        return this;
+    }
+
+    /**
+     * Determines if this connection was marked as used for streaming.
+     *
+     * @return <tt>true</tt> if the connection was marked as streaming, <tt>false</tt> otherwise
+     */
+    protected boolean isStreaming() {
+        return streaming;
+    }
+
+    /**
+     * Determines if this connection was marked as long running.
+     *
+     * @return <tt>true</tt> if the connection was marked as long running, <tt>false</tt> otherwise
+     */
+    protected boolean isLongRunning() {
+        return longRunning;
+    }
+
+    /**
+     * Returns how long this connection has been borrowed from the pool.
+     *
+     * @return the number of milliseconds since this connection was borrowed
+     */
+    protected long getBorrowedMillis() {
+        return watch.elapsedMillis();
+    }
+
+    /**
+     * Returns the name of the thread which borrowed this connection.
+     *
+     * @return the name of the borrowing thread
+     */
+    protected String getThread() {
+        return thread;
+    }
+
+    /**
+     * Returns the stack trace of the code which borrowed this connection.
+     *
+     * @return the execution point where the connection was borrowed
+     */
+    protected ExecutionPoint getBorrowPoint() {
+        return connected;
+    }
+
+    /**
+     * Marks this connection as reported by the {@link ConnectionLeakDetector}.
+     *
+     * @return <tt>true</tt> if the connection was not reported before, <tt>false</tt> otherwise
+     */
+    protected boolean markLeakReported() {
+        if (leakReported) {
+            return false;
+        }
+
+        leakReported = true;
+        return true;
+    }
+
     @Override
     public void close() throws SQLException {
         try (Operation op = new Operation(() -> database.name + ".close()", Duration.ofSeconds(5))) {
@@ -66,6 +141,7 @@ class WrappedConnection extends DelegatingConnection<Connection> {
             Databases.LOG.INFO("Error closing connection");
             Databases.LOG.INFO(e);
         } finally {
+            database.openConnections.remove(this);
             watch.submitMicroTiming("SQL", "Connection Duration: " + database.name);
             if (!longRunning && watch.elapsedMillis() > Databases.getLogConnectionThresholdMillis()) {
                 DB.SLOW_DB_LOG.INFO("A long running connection was detected (%s): Opened:\n%s\n\nClosed:\n%s",
@@ -94,42 +170,46 @@ class WrappedConnection extends DelegatingConnection<Connection> {
         return new WrappedStatement(delegate.createStatement(resultSetType, resultSetConcurrency));
     }
 
+    private PreparedStatement wrap(PreparedStatement statement, String sql) {
+        database.numPreparedStatements.inc();
+        return new WrappedPreparedStatement(statement,
+                                            database,
+                                            longRunning,
+                                            sql,
+                                            database.isPoolingPreparedStatements());
+    }
+
     @Override
     public PreparedStatement prepareStatement(String sql,
                                               int resultSetType,
                                               int resultSetConcurrency,
                                               int resultSetHoldability) throws SQLException {
-        return new WrappedPreparedStatement(delegate.prepareStatement(sql,
-                                                                      resultSetType,
-                                                                      resultSetConcurrency,
-                                                                      resultSetHoldability), longRunning, sql);
+        return wrap(delegate.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
             throws SQLException {
-        return new WrappedPreparedStatement(delegate.prepareStatement(sql, resultSetType, resultSetConcurrency),
-                                            longRunning,
-                                            sql);
+        return wrap(delegate.prepareStatement(sql, resultSetType, resultSetConcurrency), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-        return new WrappedPreparedStatement(delegate.prepareStatement(sql, autoGeneratedKeys), longRunning, sql);
+        return wrap(delegate.prepareStatement(sql, autoGeneratedKeys), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
-        return new WrappedPreparedStatement(delegate.prepareStatement(sql, columnIndexes), longRunning, sql);
+        return wrap(delegate.prepareStatement(sql, columnIndexes), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
-        return new WrappedPreparedStatement(delegate.prepareStatement(sql, columnNames), longRunning, sql);
+        return wrap(delegate.prepareStatement(sql, columnNames), sql);
     }
 
     @Override
     public PreparedStatement prepareStatement(String sql) throws SQLException {
-        return new WrappedPreparedStatement(delegate.prepareStatement(sql), longRunning, sql);
+        return wrap(delegate.prepareStatement(sql), sql);
     }
 }
@@ -13,6 +13,7 @@ import sirius.kernel.async.ExecutionPoint;
 import sirius.kernel.async.Operation;
 import sirius.kernel.commons.Explain;
 import sirius.kernel.commons.Watch;
+import sirius.kernel.health.Exceptions;
 
 import java.io.InputStream;
 import java.io.Reader;
@@ -36,7 +37,10 @@ import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Wrapper for {@link PreparedStatement} to add microtiming.
@@ -47,18 +51,31 @@ class WrappedPreparedStatement implements PreparedStatement {
     private static final Duration QUERY_OPERATION = Duration.ofSeconds(30);
 
     private PreparedStatement delegate;
+    private final Database database;
     private final String preparedSQL;
     private boolean longRunning;
-
-    WrappedPreparedStatement(PreparedStatement preparedStatement, boolean longRunning, String preparedSQL) {
+    private final boolean pooled;
+    private boolean limitsChanged;
+    private String fingerprint;
+    private List<Object> parameters;
+    private boolean untrackedParameters;
+
+    WrappedPreparedStatement(PreparedStatement preparedStatement,
+                             Database database,
+                             boolean longRunning,
+                             String preparedSQL,
+                             boolean pooled) {
         this.delegate = preparedStatement;
+        this.database = database;
         this.longRunning = longRunning;
         this.preparedSQL = preparedSQL;
+        this.pooled = pooled;
     }
 
     protected void updateStatistics(String sql, Watch w) {
         w.submitMicroTiming("SQL", sql);
         Databases.numQueries.inc();
+        QueryStatistics.recordExecution(fingerprintOf(sql), w.elapsedMillis());
         if (!longRunning) {
             Databases.queryDuration.addValue(w.elapsedMillis());
             if (w.elapsedMillis() > Databases.getLogQueryThresholdMillis()) {
@@ -67,10 +84,65 @@ class WrappedPreparedStatement implements PreparedStatement {
                                     w.duration(),
                                     sql,
                                     ExecutionPoint.snapshot().toString());
+                if (!preparedSQL.equals(sql) || !untrackedParameters) {
+                    SlowQueryExplainer.explain(database,
+                                               sql,
+                                               fingerprintOf(sql),
+                                               preparedSQL.equals(sql) && parameters != null ?
+                                               parameters :
+                                               Collections.emptyList());
+                }
             }
         }
     }
 
+    /*
+     * Keeps the parameters around so that a slow query can be explained later.
+     * This is only done if explaining slow queries is enabled at all.
+     */
+    private void rememberParameter(int parameterIndex, Object value) {
+        if (!SlowQueryExplainer.isEnabled()) {
+            return;
+        }
+
+        if (parameters == null) {
+            parameters = new ArrayList<>();
+        }
+        while (parameters.size() < parameterIndex) {
+            parameters.add(null);
+        }
+        parameters.set(parameterIndex - 1, value);
+    }
+
+    /*
+     * Notes that a parameter was bound which cannot be re-bound for an EXPLAIN (e.g. a stream), so that a slow
+     * execution of this statement isn't explained at all.
+     */
+    private void rememberUntrackedParameter() {
+        untrackedParameters = true;
+    }
+
+    private String fingerprintOf(String sql) {
+        if (!preparedSQL.equals(sql)) {
+            return QueryStatistics.fingerprint(sql);
+        }
+
+        if (fingerprint == null) {
+            fingerprint = QueryStatistics.fingerprint(preparedSQL);
+        }
+
+        return fingerprint;
+    }
+
+    /**
+     * Records the number of rows which have been read from the result of this statement.
+     *
+     * @param rows the number of rows read
+     */
+    protected void recordRows(long rows) {
+        QueryStatistics.recordRows(fingerprintOf(preparedSQL), rows);
+    }
+
     @Override
     public ResultSet executeQuery(String sql) throws SQLException {
         if (Databases.LOG.isFINE()) {
@@ -113,7 +185,9 @@ class WrappedPreparedStatement implements PreparedStatement {
         }
         Watch w = Watch.start();
         try (Operation op = new Operation(() -> sql, determineOperationDuration())) {
-            return delegate.executeUpdate(sql);
+            int rows = delegate.executeUpdate(sql);
+            QueryStatistics.recordRows(fingerprintOf(sql), rows);
+            return rows;
         } finally {
             updateStatistics(sql, w);
         }
@@ -131,7 +205,9 @@ class WrappedPreparedStatement implements PreparedStatement {
         }
         Watch w = Watch.start();
         try (Operation op = new Operation(() -> preparedSQL, determineOperationDuration())) {
-            return delegate.executeUpdate();
+            int rows = delegate.executeUpdate();
+            recordRows(rows);
+            return rows;
         } finally {
             updateStatistics(preparedSQL, w);
         }
@@ -139,11 +215,29 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void close() throws SQLException {
+        if (pooled && limitsChanged) {
+            resetLimits();
+        }
         delegate.close();
     }
 
+    /*
+     * A pooled statement is handed out again for the same SQL. Therefore we have to reset all settings which
+     * would otherwise leak into the next usage of the statement.
+     */
+    private void resetLimits() {
+        try {
+            delegate.setMaxRows(0);
+            delegate.setFetchSize(0);
+            delegate.setQueryTimeout(0);
+        } catch (SQLException e) {
+            Exceptions.ignore(e);
+        }
+    }
+
     @Override
     public void setNull(int parameterIndex, int sqlType) throws SQLException {
+        rememberParameter(parameterIndex, null);
         delegate.setNull(parameterIndex, sqlType);
     }
 
@@ -154,6 +248,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setBoolean(parameterIndex, x);
     }
 
@@ -164,11 +259,13 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setByte(int parameterIndex, byte x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setByte(parameterIndex, x);
     }
 
     @Override
     public void setShort(int parameterIndex, short x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setShort(parameterIndex, x);
     }
 
@@ -179,16 +276,19 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setInt(int parameterIndex, int x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setInt(parameterIndex, x);
     }
 
     @Override
     public void setMaxRows(int max) throws SQLException {
+        limitsChanged = true;
         delegate.setMaxRows(max);
     }
 
     @Override
     public void setLong(int parameterIndex, long x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setLong(parameterIndex, x);
     }
 
@@ -199,6 +299,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setFloat(int parameterIndex, float x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setFloat(parameterIndex, x);
     }
 
@@ -209,16 +310,19 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setDouble(int parameterIndex, double x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setDouble(parameterIndex, x);
     }
 
     @Override
     public void setQueryTimeout(int seconds) throws SQLException {
+        limitsChanged = true;
         delegate.setQueryTimeout(seconds);
     }
 
     @Override
     public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setBigDecimal(parameterIndex, x);
     }
 
@@ -229,6 +333,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setString(int parameterIndex, String x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setString(parameterIndex, x);
     }
 
@@ -239,6 +344,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setBytes(parameterIndex, x);
     }
 
@@ -249,6 +355,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setDate(int parameterIndex, Date x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setDate(parameterIndex, x);
     }
 
@@ -259,11 +366,13 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setTime(int parameterIndex, Time x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setTime(parameterIndex, x);
     }
 
     @Override
     public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setTimestamp(parameterIndex, x);
     }
 
@@ -282,6 +391,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setAsciiStream(parameterIndex, x, length);
     }
 
@@ -321,6 +431,7 @@ class WrappedPreparedStatement implements PreparedStatement {
     @SuppressWarnings("squid:S1133")
     @Explain("We cannot change a Java core API")
     public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setUnicodeStream(parameterIndex, x, length);
     }
 
@@ -336,6 +447,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setBinaryStream(parameterIndex, x, length);
     }
 
@@ -346,6 +458,8 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void clearParameters() throws SQLException {
+        parameters = null;
+        untrackedParameters = false;
         delegate.clearParameters();
     }
 
@@ -356,11 +470,13 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setObject(parameterIndex, x, targetSqlType);
     }
 
     @Override
     public void setFetchSize(int rows) throws SQLException {
+        limitsChanged = true;
         delegate.setFetchSize(rows);
     }
 
@@ -371,6 +487,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setObject(int parameterIndex, Object x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setObject(parameterIndex, x);
     }
 
@@ -414,6 +531,8 @@ class WrappedPreparedStatement implements PreparedStatement {
             int[] result = delegate.executeBatch();
             w.submitMicroTiming("BATCH-SQL", preparedSQL);
             Databases.numQueries.inc();
+            QueryStatistics.recordExecution(fingerprintOf(preparedSQL), w.elapsedMillis());
+            recordRows(countUpdatedRows(result));
             if (!longRunning) {
                 Databases.queryDuration.addValue(w.elapsedMillis());
                 if (w.elapsedMillis() > Databases.getLogQueryThresholdMillis()) {
@@ -430,6 +549,21 @@ class WrappedPreparedStatement implements PreparedStatement {
         }
     }
 
+    /*
+     * Sums up the update counts of a batch. Note that drivers may report SUCCESS_NO_INFO or EXECUTE_FAILED
+     * (both negative) instead of an actual count, which are therefore skipped.
+     */
+    private long countUpdatedRows(int[] updateCounts) {
+        long rows = 0;
+        for (int updateCount : updateCounts) {
+            if (updateCount > 0) {
+                rows += updateCount;
+            }
+        }
+
+        return rows;
+    }
+
     @Override
     public void addBatch() throws SQLException {
         delegate.addBatch();
@@ -437,11 +571,13 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setCharacterStream(int parameterIndex, Reader reader, int length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setCharacterStream(parameterIndex, reader, length);
     }
 
     @Override
     public void setRef(int parameterIndex, Ref x) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setRef(parameterIndex, x);
     }
 
@@ -452,11 +588,13 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setBlob(int parameterIndex, Blob x) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setBlob(parameterIndex, x);
     }
 
     @Override
     public void setClob(int parameterIndex, Clob x) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setClob(parameterIndex, x);
     }
 
@@ -467,6 +605,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setArray(int parameterIndex, Array x) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setArray(parameterIndex, x);
     }
 
@@ -482,6 +621,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setDate(parameterIndex, x, cal);
     }
 
@@ -500,6 +640,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setTime(parameterIndex, x, cal);
     }
 
@@ -518,11 +659,13 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setTimestamp(parameterIndex, x, cal);
     }
 
     @Override
     public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+        rememberParameter(parameterIndex, null);
         delegate.setNull(parameterIndex, sqlType, typeName);
     }
 
@@ -554,6 +697,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setURL(int parameterIndex, URL x) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setURL(parameterIndex, x);
     }
 
@@ -564,6 +708,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setRowId(int parameterIndex, RowId x) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setRowId(parameterIndex, x);
     }
 
@@ -582,11 +727,13 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setNString(int parameterIndex, String value) throws SQLException {
+        rememberParameter(parameterIndex, value);
         delegate.setNString(parameterIndex, value);
     }
 
     @Override
     public void setNCharacterStream(int parameterIndex, Reader value, long length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setNCharacterStream(parameterIndex, value, length);
     }
 
@@ -605,11 +752,13 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setNClob(int parameterIndex, NClob value) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setNClob(parameterIndex, value);
     }
 
     @Override
     public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setClob(parameterIndex, reader, length);
     }
 
@@ -620,6 +769,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setBlob(int parameterIndex, InputStream inputStream, long length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setBlob(parameterIndex, inputStream, length);
     }
 
@@ -635,6 +785,7 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setNClob(parameterIndex, reader, length);
     }
 
@@ -655,61 +806,73 @@ class WrappedPreparedStatement implements PreparedStatement {
 
     @Override
     public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setSQLXML(parameterIndex, xmlObject);
     }
 
     @Override
     public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+        rememberParameter(parameterIndex, x);
         delegate.setObject(parameterIndex, x, targetSqlType, scaleOrLength);
     }
 
     @Override
     public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setAsciiStream(parameterIndex, x, length);
     }
 
     @Override
     public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setBinaryStream(parameterIndex, x, length);
     }
 
     @Override
     public void setCharacterStream(int parameterIndex, Reader reader, long length) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setCharacterStream(parameterIndex, reader, length);
     }
 
     @Override
     public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setAsciiStream(parameterIndex, x);
     }
 
     @Override
     public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setBinaryStream(parameterIndex, x);
     }
 
     @Override
     public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setCharacterStream(parameterIndex, reader);
     }
 
     @Override
     public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setNCharacterStream(parameterIndex, value);
     }
 
     @Override
     public void setClob(int parameterIndex, Reader reader) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setClob(parameterIndex, reader);
     }
 
     @Override
     public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setBlob(parameterIndex, inputStream);
     }
 
     @Override
     public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+        rememberUntrackedParameter();
         delegate.setNClob(parameterIndex, reader);
     }
 }
@@ -48,6 +48,7 @@ class WrappedStatement implements Statement {
     protected void updateStatistics(String sql, Watch w) {
         w.submitMicroTiming("SQL", sql);
         Databases.numQueries.inc();
+        QueryStatistics.recordExecution(QueryStatistics.fingerprint(sql), w.elapsedMillis());
         Databases.queryDuration.addValue(w.elapsedMillis());
         if (w.elapsedMillis() > Databases.getLogQueryThresholdMillis()) {
             Databases.numSlowQueries.inc();
@@ -70,7 +71,9 @@ class WrappedStatement implements Statement {
         }
         Watch w = Watch.start();
         try (Operation op = new Operation(() -> sql, Duration.ofSeconds(30))) {
-            return stmt.executeUpdate(sql);
+            int rows = stmt.executeUpdate(sql);
+            QueryStatistics.recordRows(QueryStatistics.fingerprint(sql), rows);
+            return rows;
         } finally {
             updateStatistics(sql, w);
         }
@@ -0,0 +1,164 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc.batch;
+
+import sirius.kernel.di.std.ConfigValue;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.time.Duration;
+
+/**
+ * Tunes the batch size of a query at runtime towards a target latency per executed batch.
+ * <p>
+ * The limit grows as long as the time per row decreases (larger batches amortize the round trips) and the target
+ * latency isn't exceeded. Once a batch takes longer than the target latency, the limit is reduced proportionally.
+ * If a batch fails due to a lock wait timeout or a deadlock, the limit is halved, as large batches hold their
+ * locks longer.
+ * <p>
+ * The defaults are controlled via <tt>jdbc.adaptiveBatchSize</tt>. This class is thread safe, as batches might
+ * be executed in the background (see {@link BatchContext#withAsyncFlushing()}).
+ */
+public class AdaptiveBatchLimit {
+
+    /**
+     * Only grow as long as the time per row doesn't increase by more than this factor, to compensate for noise.
+     */
+    private static final double PER_ROW_TOLERANCE = 1.1;
+
+    /**
+     * MySQL / MariaDB: "Lock wait timeout exceeded".
+     */
+    private static final int MYSQL_LOCK_WAIT_TIMEOUT = 1205;
+
+    /**
+     * MySQL / MariaDB: "Deadlock found when trying to get lock".
+     */
+    private static final int MYSQL_DEADLOCK = 1213;
+
+    /**
+     * SQL state class which signals a transaction rollback (e.g. due to a deadlock or serialization failure).
+     */
+    private static final String SQL_STATE_TRANSACTION_ROLLBACK = "40";
+
+    /**
+     * Postgres: "lock_not_available".
+     */
+    private static final String SQL_STATE_LOCK_NOT_AVAILABLE = "55P03";
+
+    @ConfigValue("jdbc.adaptiveBatchSize.targetLatency")
+    private static Duration defaultTargetLatency;
+
+    @ConfigValue("jdbc.adaptiveBatchSize.minSize")
+    private static int defaultMinLimit;
+
+    @ConfigValue("jdbc.adaptiveBatchSize.maxSize")
+    private static int defaultMaxLimit;
+
+    private final long targetMillis;
+    private final int minLimit;
+    private final int maxLimit;
+    private volatile int limit;
+    private double lastMillisPerRow = -1;
+
+    /**
+     * Creates a new instance which starts with the given limit and uses the given bounds and target latency.
+     *
+     * @param initialLimit  the limit to start with
+     * @param minLimit      the minimal limit to use
+     * @param maxLimit      the maximal limit to use
+     * @param targetLatency the desired duration of a single batch
+     */
+    public AdaptiveBatchLimit(int initialLimit, int minLimit, int maxLimit, Duration targetLatency) {
+        this.minLimit = Math.max(1, minLimit);
+        this.maxLimit = Math.max(this.minLimit, maxLimit);
+        this.targetMillis = Math.max(1, targetLatency.toMillis());
+        this.limit = Math.min(this.maxLimit, Math.max(this.minLimit, initialLimit));
+    }
+
+    /**
+     * Creates a new instance which starts with the given limit and uses the configured bounds and the given
+     * target latency.
+     *
+     * @param initialLimit  the limit to start with
+     * @param targetLatency the desired duration of a single batch or <tt>null</tt> to use the configured default
+     * @return the newly created instance
+     */
+    public static AdaptiveBatchLimit create(int initialLimit, Duration targetLatency) {
+        return new AdaptiveBatchLimit(initialLimit,
+                                      defaultMinLimit,
+                                      defaultMaxLimit,
+                                      targetLatency != null ? targetLatency : defaultTargetLatency);
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return the number of rows to add to a batch before it is executed
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Adapts the limit based on the given successful execution.
+     *
+     * @param rows   the number of rows in the executed batch
+     * @param millis the duration of the execution (including the commit)
+     */
+    public synchronized void recordExecution(int rows, long millis) {
+        if (rows <= 0) {
+            return;
+        }
+
+        double millisPerRow = Math.max(millis, 1) / (double) rows;
+        if (millis > targetMillis) {
+            limit = Math.max(minLimit, Math.max(limit / 2, (int) (limit * targetMillis / millis)));
+        } else if (rows < limit) {
+            // A partial batch (e.g. flushed by a commit) tells us nothing about larger batches...
+            return;
+        } else if (lastMillisPerRow < 0 || millisPerRow <= lastMillisPerRow * PER_ROW_TOLERANCE) {
+            int expectedLimitForTarget = (int) Math.min(Integer.MAX_VALUE, targetMillis / millisPerRow);
+            limit = Math.min(maxLimit, Math.max(limit, Math.min(limit + limit / 2, expectedLimitForTarget)));
+        }
+
+        lastMillisPerRow = millisPerRow;
+    }
+
+    /**
+     * Adapts the limit based on the given failed execution.
+     *
+     * @param error the error which occurred while executing a batch
+     */
+    public synchronized void recordFailure(SQLException error) {
+        if (isLockingProblem(error)) {
+            limit = Math.max(minLimit, limit / 2);
+            lastMillisPerRow = -1;
+        }
+    }
+
+    private boolean isLockingProblem(SQLException error) {
+        if (error instanceof SQLTimeoutException || error instanceof SQLTransactionRollbackException) {
+            return true;
+        }
+        if (error.getErrorCode() == MYSQL_LOCK_WAIT_TIMEOUT || error.getErrorCode() == MYSQL_DEADLOCK) {
+            return true;
+        }
+
+        String sqlState = error.getSQLState();
+        return sqlState != null && (sqlState.startsWith(SQL_STATE_TRANSACTION_ROLLBACK)
+                                    || SQL_STATE_LOCK_NOT_AVAILABLE.equals(sqlState));
+    }
+
+    @Override
+    public String toString() {
+        return "Adaptive: " + limit;
+    }
+}
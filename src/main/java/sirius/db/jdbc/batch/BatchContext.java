@@ -8,16 +8,23 @@
 
 package sirius.db.jdbc.batch;
 
+import sirius.db.jdbc.Database;
 import sirius.db.jdbc.OMA;
 import sirius.db.jdbc.Operator;
 import sirius.db.jdbc.SQLEntity;
+import sirius.db.mixing.BaseMapper;
+import sirius.db.mixing.EntityDescriptor;
 import sirius.db.mixing.Mapping;
+import sirius.db.mixing.Mixing;
+import sirius.db.mixing.Property;
 import sirius.kernel.async.Operation;
+import sirius.kernel.commons.Strings;
 import sirius.kernel.commons.Tuple;
 import sirius.kernel.di.std.Part;
 import sirius.kernel.health.Exceptions;
 import sirius.kernel.health.HandledException;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 import java.io.Closeable;
 import java.io.IOException;
@@ -45,9 +52,14 @@ public class BatchContext implements Closeable {
     @Part
     private static OMA oma;
 
+    @Part
+    private static Mixing mixing;
+
     private List<BatchQuery<?>> queries = new ArrayList<>();
+    private List<EntityBulkLoader<?>> loaders = new ArrayList<>();
     private Map<String, Connection> connectionsPerRealm = new HashMap<>();
     private Operation op;
+    private boolean asyncFlushing;
 
     /**
      * Creates a new context with the given debugging description and the expected runtime.
@@ -59,6 +71,34 @@ public class BatchContext implements Closeable {
         this.op = new Operation(description, expectedDuration);
     }
 
+    /**
+     * Enables asynchronous flushing of batches.
+     * <p>
+     * Once the backlog of a query is full, its batch is executed and committed in the background while the next
+     * batch is being filled. Therefore each query uses two statements on two separate connections. At most one
+     * batch per query is executed at a time - if the previous batch is still being executed, the caller has to
+     * wait for it. Errors which occur in the background are reported by the next call to the query (or when it is
+     * closed).
+     * <p>
+     * Note that the order of statements is only maintained within a query but not across several queries. Use
+     * {@link BatchQuery#commit()} to wait until all changes of a query have been written.
+     *
+     * @return the context itself for fluent method calls
+     */
+    public BatchContext withAsyncFlushing() {
+        this.asyncFlushing = true;
+        return this;
+    }
+
+    /**
+     * Determines if batches are executed in the background.
+     *
+     * @return <tt>true</tt> if {@link #withAsyncFlushing()} was called, <tt>false</tt> otherwise
+     */
+    public boolean isAsyncFlushing() {
+        return asyncFlushing;
+    }
+
     private <Q extends BatchQuery<?>> Q register(Q query) {
         if (queries == null) {
             reportIllegalState();
@@ -116,14 +156,43 @@ public class BatchContext implements Closeable {
     }
 
     protected void safeClose() {
+        HandledException failure = closeResources();
+        if (failure != null) {
+            Exceptions.ignore(failure);
+        }
+    }
+
+    /**
+     * Completes all loaders and queries and releases all resources.
+     * <p>
+     * All resources are released, even if writing the remaining data fails.
+     *
+     * @return the first error which occurred while writing the remaining data (e.g. a failed batch which was
+     * executed in the background) or <tt>null</tt> if all data has been written
+     */
+    @Nullable
+    private HandledException closeResources() {
+        HandledException failure = null;
+        if (loaders != null) {
+            for (EntityBulkLoader<?> loader : loaders) {
+                try {
+                    loader.close();
+                } catch (HandledException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+            loaders.clear();
+        }
+
         if (queries != null) {
             for (BatchQuery<?> query : queries) {
                 try {
                     query.tryCommit(false);
                 } catch (HandledException e) {
-                    Exceptions.ignore(e);
+                    failure = failure == null ? e : failure;
                 } catch (Exception e) {
-                    Exceptions.handle(OMA.LOG, e);
+                    HandledException handledException = Exceptions.handle(OMA.LOG, e);
+                    failure = failure == null ? handledException : failure;
                 }
 
                 query.safeClose();
@@ -134,9 +203,11 @@ public class BatchContext implements Closeable {
             connectionsPerRealm.values().forEach(this::safeCloseConnection);
             connectionsPerRealm.clear();
         }
+
+        return failure;
     }
 
-    private void safeCloseConnection(Connection connection) {
+    protected void safeCloseConnection(Connection connection) {
         try {
             changeAutoCommit(connection, true, true);
             connection.close();
@@ -278,6 +349,24 @@ public class BatchContext implements Closeable {
         return register(updateQuery);
     }
 
+    /**
+     * Creates a new {@link UpsertQuery upsert query}.
+     * <p>
+     * Use {@link UpsertQuery#withUpdatedMappings(Mapping...)} to specify which mappings to insert or update.
+     *
+     * @param type             the type of entities to insert or update
+     * @param conflictMappings the mappings which form the conflict key (a unique index over these is required)
+     * @param <E>              the generic type of the entities to insert or update
+     * @return the query used to insert or update entities in the database
+     */
+    public <E extends SQLEntity> UpsertQuery<E> upsertQuery(Class<E> type, Mapping... conflictMappings) {
+        if (conflictMappings.length == 0) {
+            throw new IllegalArgumentException("An UpsertQuery requires at least one conflict mapping.");
+        }
+
+        return register(new UpsertQuery<>(this, type, simplifyMappings(conflictMappings)));
+    }
+
     /**
      * Creates a new {@link DeleteQuery delete query}.
      *
@@ -303,6 +392,54 @@ public class BatchContext implements Closeable {
         return register(new DeleteQuery<>(this, type, simplifyMappings(filters)));
     }
 
+    /**
+     * Creates a {@link EntityBulkLoader bulk loader} which streams entities into their table using the native bulk
+     * load mechanism of the database.
+     * <p>
+     * Note that the loader has to be {@link EntityBulkLoader#close() closed} to complete the load. Otherwise this
+     * happens when the context is closed.
+     *
+     * @param type           the type of entities to load
+     * @param mappingsToLoad the mappings to fill. If empty, all properties but the id are loaded
+     * @param <E>            the generic type of the entities to load
+     * @return the loader used to stream entities into the database
+     * @see BulkLoader
+     */
+    public <E extends SQLEntity> EntityBulkLoader<E> bulkLoad(Class<E> type, Mapping... mappingsToLoad) {
+        if (loaders == null) {
+            reportIllegalState();
+        }
+
+        EntityDescriptor descriptor = mixing.getDescriptor(type);
+        Database database = oma.getDatabase(descriptor.getRealm());
+        if (!BulkLoader.isSupported(database)) {
+            throw new UnsupportedOperationException(Strings.apply("The database of realm '%s' doesn't support"
+                                                                  + " bulk loading.", descriptor.getRealm()));
+        }
+
+        List<Property> properties = mappingsToLoad.length == 0 ?
+                                    descriptor.getProperties()
+                                              .stream()
+                                              .filter(p -> !SQLEntity.ID.getName().equals(p.getName()))
+                                              .collect(Collectors.toList()) :
+                                    Arrays.stream(mappingsToLoad)
+                                          .map(Mapping::getName)
+                                          .map(descriptor::getProperty)
+                                          .collect(Collectors.toList());
+        List<String> columns = properties.stream().map(Property::getPropertyName).collect(Collectors.toList());
+        if (descriptor.isVersioned()) {
+            columns.add(BaseMapper.VERSION);
+        }
+
+        EntityBulkLoader<E> loader = new EntityBulkLoader<>(descriptor,
+                                                            properties,
+                                                            new BulkLoader(database,
+                                                                           descriptor.getRelationName(),
+                                                                           columns));
+        loaders.add(loader);
+        return loader;
+    }
+
     /**
      * Prepares the given SQL statement as {@link CustomQuery custom query}.
      *
@@ -339,16 +476,28 @@ public class BatchContext implements Closeable {
         }
     }
 
+    /**
+     * Writes all remaining data and releases all resources.
+     *
+     * @throws HandledException if writing the remaining data failed. This is also the case, if a batch which was
+     *                          {@link #withAsyncFlushing() executed in the background} failed. Note that all
+     *                          resources are released anyway.
+     */
     @Override
     public void close() throws IOException {
-        safeClose();
+        HandledException failure = closeResources();
 
         // Mark this context as closed so that no further queries or connections can be opened after
         // this has been completed...
         queries = null;
+        loaders = null;
         connectionsPerRealm = null;
 
         op.close();
+
+        if (failure != null) {
+            throw failure;
+        }
     }
 
     /**
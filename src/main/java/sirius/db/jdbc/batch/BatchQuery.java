@@ -16,6 +16,7 @@ import sirius.db.mixing.BaseMapper;
 import sirius.db.mixing.EntityDescriptor;
 import sirius.db.mixing.Mixing;
 import sirius.db.mixing.Property;
+import sirius.kernel.async.Tasks;
 import sirius.kernel.commons.Monoflop;
 import sirius.kernel.commons.Tuple;
 import sirius.kernel.commons.Watch;
@@ -25,12 +26,17 @@ import sirius.kernel.health.Exceptions;
 import sirius.kernel.health.HandledException;
 import sirius.kernel.nls.NLS;
 
+import javax.annotation.Nullable;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 /**
@@ -45,10 +51,18 @@ public abstract class BatchQuery<E extends SQLEntity> {
      */
     public static final int MAX_BATCH_BACKLOG = 250;
 
+    private static final String ASYNC_FLUSH_EXECUTOR = "jdbc-batch-flush";
+
     protected BatchContext context;
     protected PreparedStatement stmt;
+    private boolean returnGeneratedKeys;
+    private Connection connection;
+    private PreparedStatement standbyStmt;
+    private Connection standbyConnection;
+    private CompletableFuture<Void> pendingFlush;
     protected int batchBacklog;
     protected int batchBacklogLimit = MAX_BATCH_BACKLOG;
+    protected AdaptiveBatchLimit adaptiveBatchLimit;
     protected Class<E> type;
     protected final List<Tuple<Operator, String>> filters;
     protected List<Tuple<Operator, Property>> properties;
@@ -62,6 +76,9 @@ public abstract class BatchQuery<E extends SQLEntity> {
     @Part
     protected static Mixing mixing;
 
+    @Part
+    private static Tasks tasks;
+
     /**
      * Creates a new instance for the given context, type and mappings.
      *
@@ -84,17 +101,38 @@ public abstract class BatchQuery<E extends SQLEntity> {
         this.batchBacklogLimit = maxBacklog;
     }
 
+    /**
+     * Tunes the batch size at runtime so that executing a batch takes about the given duration.
+     * <p>
+     * The current batch limit (see {@link #withCustomBatchLimit(int)}) is used as initial value.
+     *
+     * @param targetLatency the desired duration of executing and committing a batch or <tt>null</tt> to use the
+     *                      default (<tt>jdbc.adaptiveBatchSize.targetLatency</tt>)
+     * @see AdaptiveBatchLimit
+     */
+    public void withAdaptiveBatchLimit(@Nullable Duration targetLatency) {
+        this.adaptiveBatchLimit = AdaptiveBatchLimit.create(batchBacklogLimit, targetLatency);
+    }
+
+    /**
+     * Determines the number of rows to add to a batch before it is executed.
+     *
+     * @return the effective batch limit, which is either fixed or determined by the adaptive batch limit
+     */
+    protected int getEffectiveBatchLimit() {
+        return adaptiveBatchLimit != null ? adaptiveBatchLimit.getLimit() : batchBacklogLimit;
+    }
+
     protected void tryCommit(boolean cascade) {
         if (stmt == null) {
             return;
         }
 
+        awaitPendingFlush(cascade);
+
         if (batchBacklog > 0) {
             try {
-                Watch w = Watch.start();
-                stmt.executeBatch();
-                stmt.getConnection().commit();
-                avarage.addValues(batchBacklog, w.elapsedMillis());
+                executeBatch(stmt, batchBacklog);
                 batchBacklog = 0;
             } catch (SQLException e) {
                 if (cascade) {
@@ -109,13 +147,124 @@ public abstract class BatchQuery<E extends SQLEntity> {
         }
     }
 
+    private void executeBatch(PreparedStatement statement, int backlog) throws SQLException {
+        Watch w = Watch.start();
+        try {
+            statement.executeBatch();
+            statement.getConnection().commit();
+        } catch (SQLException e) {
+            if (adaptiveBatchLimit != null) {
+                adaptiveBatchLimit.recordFailure(e);
+            }
+            throw e;
+        }
+        avarage.addValues(backlog, w.elapsedMillis());
+        if (adaptiveBatchLimit != null) {
+            adaptiveBatchLimit.recordExecution(backlog, w.elapsedMillis());
+        }
+        invalidateCaches();
+    }
+
+    /**
+     * Discards all cached queries and entities of our type once a change has been committed.
+     */
+    protected void invalidateCaches() {
+        oma.invalidateCaches(getDescriptor());
+    }
+
     /**
      * Forces a batch to be processed (independent of it size, as long as it isn't empty).
+     * <p>
+     * If the {@link BatchContext#withAsyncFlushing() batch context flushes asynchronously}, this also waits until
+     * the batch which is currently executed in the background has been completed.
      */
     public void commit() {
         tryCommit(true);
     }
 
+    /**
+     * Hands the current batch over to be executed in the background and continues with the standby statement.
+     * <p>
+     * If the previous batch is still being executed, we wait for it to complete, so that at most one batch per
+     * query is in flight.
+     */
+    private void flushAsync() throws SQLException {
+        awaitPendingFlush(true);
+
+        if (standbyStmt == null) {
+            standbyConnection = context.createConnection(getDescriptor().getRealm());
+            standbyStmt = prepareStatement(standbyConnection);
+        }
+
+        PreparedStatement statementToFlush = stmt;
+        int backlog = batchBacklog;
+        CompletableFuture<Void> flush = new CompletableFuture<>();
+        pendingFlush = flush;
+
+        stmt = standbyStmt;
+        standbyStmt = statementToFlush;
+        Connection currentConnection = connection;
+        connection = standbyConnection;
+        standbyConnection = currentConnection;
+        batchBacklog = 0;
+
+        tasks.executor(ASYNC_FLUSH_EXECUTOR)
+             .dropOnOverload(() -> executeInBackground(statementToFlush, backlog, flush))
+             .start(() -> executeInBackground(statementToFlush, backlog, flush));
+    }
+
+    private void executeInBackground(PreparedStatement statement, int backlog, CompletableFuture<Void> flush) {
+        try {
+            executeBatch(statement, backlog);
+            flush.complete(null);
+        } catch (Exception e) {
+            safeRollback(statement);
+            flush.completeExceptionally(e);
+        }
+    }
+
+    private void safeRollback(PreparedStatement statement) {
+        try {
+            statement.clearBatch();
+            statement.getConnection().rollback();
+        } catch (SQLException e) {
+            Exceptions.ignore(e);
+        }
+    }
+
+    /**
+     * Waits until the batch which is executed in the background (if any) has been completed.
+     *
+     * @param cascade determines if the whole context should be closed if the batch failed
+     */
+    private void awaitPendingFlush(boolean cascade) {
+        if (pendingFlush == null) {
+            return;
+        }
+
+        CompletableFuture<Void> flush = pendingFlush;
+        pendingFlush = null;
+        try {
+            flush.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Interrupted while waiting for a batch to be executed: %s (%s)")
+                            .handle();
+        } catch (ExecutionException e) {
+            if (cascade) {
+                context.safeClose();
+            }
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .error(e.getCause())
+                            .withSystemErrorMessage("An error occured while batch executing a statement: %s (%s)")
+                            .handle();
+        }
+    }
+
     /**
      * Adds the current parameter set as batch.
      *
@@ -124,8 +273,12 @@ public abstract class BatchQuery<E extends SQLEntity> {
     protected void addBatch() throws SQLException {
         prepareStmt().addBatch();
         batchBacklog++;
-        if (batchBacklog > batchBacklogLimit) {
-            commit();
+        if (batchBacklog > getEffectiveBatchLimit()) {
+            if (isFlushedAsync()) {
+                flushAsync();
+            } else {
+                commit();
+            }
         }
     }
 
@@ -142,12 +295,43 @@ public abstract class BatchQuery<E extends SQLEntity> {
         }
 
         this.query = sql;
+        this.returnGeneratedKeys = returnGeneratedKeys;
+
+        if (isFlushedAsync()) {
+            connection = context.createConnection(getDescriptor().getRealm());
+            stmt = prepareStatement(connection);
+        } else {
+            stmt = prepareStatement(context.getConnection(getDescriptor().getRealm()));
+        }
+    }
+
+    private PreparedStatement prepareStatement(Connection targetConnection) throws SQLException {
+        if (returnGeneratedKeys) {
+            return targetConnection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS);
+        } else {
+            return targetConnection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        }
+    }
 
-        stmt = returnGeneratedKeys ?
-               context.getConnection(getDescriptor().getRealm())
-                      .prepareStatement(sql, Statement.RETURN_GENERATED_KEYS) :
-               context.getConnection(getDescriptor().getRealm())
-                      .prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+    /**
+     * Determines if batches of this query are executed in the background.
+     * <p>
+     * In this case, the query uses its own connections, as these are used by the background thread.
+     *
+     * @return <tt>true</tt> if the context {@link BatchContext#withAsyncFlushing() flushes asynchronously} and
+     * this query uses batches at all
+     */
+    protected boolean isFlushedAsync() {
+        return context.isAsyncFlushing() && isBatchable();
+    }
+
+    /**
+     * Determines if this query supports being executed in batches.
+     *
+     * @return <tt>true</tt> if the query can add batches, <tt>false</tt> if it is always executed instantly
+     */
+    protected boolean isBatchable() {
+        return true;
     }
 
     /**
@@ -222,8 +406,30 @@ public abstract class BatchQuery<E extends SQLEntity> {
      */
     protected void safeClose() {
         try {
-            if (stmt != null) {
-                stmt.close();
+            awaitPendingFlush(false);
+        } catch (HandledException e) {
+            Exceptions.ignore(e);
+        }
+
+        safeCloseStatement(stmt);
+        safeCloseStatement(standbyStmt);
+        stmt = null;
+        standbyStmt = null;
+
+        if (connection != null) {
+            context.safeCloseConnection(connection);
+            connection = null;
+        }
+        if (standbyConnection != null) {
+            context.safeCloseConnection(standbyConnection);
+            standbyConnection = null;
+        }
+    }
+
+    private void safeCloseStatement(PreparedStatement statement) {
+        try {
+            if (statement != null) {
+                statement.close();
             }
         } catch (SQLException e) {
             Exceptions.handle()
@@ -231,8 +437,6 @@ public abstract class BatchQuery<E extends SQLEntity> {
                       .error(e)
                       .withSystemErrorMessage("An error occured while closing a prepared statement: %s (%s)")
                       .handle();
-        } finally {
-            stmt = null;
         }
     }
 
@@ -263,6 +467,10 @@ public abstract class BatchQuery<E extends SQLEntity> {
             sb.append("|Backlog: ");
             sb.append(batchBacklog);
         }
+        if (adaptiveBatchLimit != null) {
+            sb.append("|Limit: ");
+            sb.append(adaptiveBatchLimit.getLimit());
+        }
         if (avarage.getCount() > 0) {
             sb.append("|Executed: ");
             sb.append(avarage.getCount());
@@ -0,0 +1,594 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc.batch;
+
+import sirius.db.jdbc.Capability;
+import sirius.db.jdbc.Database;
+import sirius.db.jdbc.Databases;
+import sirius.db.jdbc.OMA;
+import sirius.kernel.async.Tasks;
+import sirius.kernel.commons.Strings;
+import sirius.kernel.commons.Watch;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.health.Exceptions;
+import sirius.kernel.health.HandledException;
+import sirius.kernel.nls.NLS;
+
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Streams rows into a table using the native bulk load mechanism of the database.
+ * <p>
+ * For MySQL / MariaDB this uses <tt>LOAD DATA LOCAL INFILE</tt> (which requires <tt>allowLoadLocalInfile=true</tt>
+ * in the JDBC url for newer drivers) and for Clickhouse a <tt>TabSeparated</tt> stream. In both cases the rows are
+ * encoded as tab separated values and handed to the driver while they are being added. The statement itself is
+ * executed by the <tt>jdbc-bulk-load</tt> executor which consumes the stream. The amount of buffered data is
+ * bounded (to {@link #MAX_BUFFERED_CHUNKS} chunks of {@link #CHUNK_SIZE} bytes), so that {@link #addRow(Object...)}
+ * blocks if the database cannot keep up.
+ * <p>
+ * As each running load occupies a thread of the executor, a load might have to wait for a free thread. If none
+ * becomes available within {@link #LOADER_START_TIMEOUT}, the load fails (instead of blocking forever, which would
+ * be the case if a thread opens more loaders than there are threads).
+ * <p>
+ * Note that the loader uses its own connection, which is closed along with the loader. Use
+ * {@link sirius.db.jdbc.batch.external.ExternalBatchContext#bulkLoad(String, String...)} or
+ * {@link BatchContext#bulkLoad(Class, sirius.db.mixing.Mapping...)} to create a loader.
+ */
+public class BulkLoader implements Closeable {
+
+    /**
+     * Contains the size of a chunk of encoded rows which is handed to the driver.
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Contains the maximal number of chunks which are buffered before {@link #addRow(Object...)} blocks.
+     */
+    public static final int MAX_BUFFERED_CHUNKS = 16;
+
+    /**
+     * Contains the maximal duration to wait for a free thread of the executor which executes the load.
+     */
+    public static final Duration LOADER_START_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final byte[] END_OF_STREAM = new byte[0];
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final DateTimeFormatter TIMESTAMP_WITH_MILLIS_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    private static final String[] LOCAL_INFILE_STATEMENTS =
+            {"com.mysql.cj.jdbc.JdbcStatement", "com.mysql.jdbc.Statement", "org.mariadb.jdbc.MariaDbStatement"};
+    private static final String CLICKHOUSE_STATEMENT = "ru.yandex.clickhouse.ClickHouseStatement";
+    private static final String BULK_LOAD_EXECUTOR = "jdbc-bulk-load";
+
+    @Part
+    private static Tasks tasks;
+
+    @Part
+    private static OMA oma;
+
+    private final Database database;
+    private final String table;
+    private final List<String> columns;
+    private final int numberOfColumns;
+    private final boolean fractionalSeconds;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_BUFFERED_CHUNKS);
+    private final ByteArrayOutputStream currentChunk = new ByteArrayOutputStream(CHUNK_SIZE + 1024);
+    private final StringBuilder rowBuffer = new StringBuilder();
+    private final Watch watch = Watch.start();
+    private Connection connection;
+    private Statement loadStatement;
+    private boolean loaderStarted;
+    private long loaderSubmitted;
+    private final AtomicBoolean loaderClaimed = new AtomicBoolean();
+    private final CountDownLatch loaderFinished = new CountDownLatch(1);
+    private volatile Thread loaderThread;
+    private volatile boolean loaderCompleted;
+    private volatile Exception loaderError;
+    private long rows;
+    private long bytes;
+    private boolean closed;
+
+    /**
+     * Creates a new loader which writes into the given columns of the given table.
+     *
+     * @param database the database to load the data into
+     * @param table    the table to fill
+     * @param columns  the columns to fill (in the order of the values passed to {@link #addRow(Object...)})
+     */
+    public BulkLoader(Database database, String table, List<String> columns) {
+        this.database = database;
+        this.table = table;
+        this.columns = columns;
+        this.numberOfColumns = columns.size();
+        this.fractionalSeconds = database.hasCapability(Capability.LOAD_DATA_LOCAL_INFILE);
+    }
+
+    /**
+     * Determines if the given database supports bulk loading.
+     *
+     * @param database the database to check
+     * @return <tt>true</tt> if the database supports one of the bulk load mechanisms, <tt>false</tt> otherwise
+     */
+    public static boolean isSupported(Database database) {
+        return database.hasCapability(Capability.LOAD_DATA_LOCAL_INFILE)
+               || database.hasCapability(Capability.TAB_SEPARATED_STREAMS);
+    }
+
+    /**
+     * Adds a row to load.
+     * <p>
+     * All values are converted using {@link Databases#convertValue(Object)}. Note that this method blocks if the
+     * internal buffer is full and the database hasn't yet consumed enough data.
+     *
+     * @param values the values of the row (one per column)
+     * @throws HandledException if the bulk load failed or the number of values doesn't match the columns
+     */
+    public void addRow(Object... values) {
+        if (closed) {
+            throw new IllegalStateException("This bulk loader has already been closed.");
+        }
+        if (values.length != numberOfColumns) {
+            throw new IllegalArgumentException(Strings.apply("Expected %s values but got %s.",
+                                                             numberOfColumns,
+                                                             values.length));
+        }
+
+        ensureLoaderStarted();
+
+        rowBuffer.setLength(0);
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                rowBuffer.append('\t');
+            }
+            encodeValue(Databases.convertValue(values[i]), fractionalSeconds, rowBuffer);
+        }
+        rowBuffer.append('\n');
+
+        byte[] row = rowBuffer.toString().getBytes(StandardCharsets.UTF_8);
+        currentChunk.write(row, 0, row.length);
+        bytes += row.length;
+        rows++;
+
+        if (currentChunk.size() >= CHUNK_SIZE) {
+            pushChunk(currentChunk.toByteArray());
+            currentChunk.reset();
+        }
+    }
+
+    /**
+     * Encodes a single (already converted) value as expected by <tt>LOAD DATA</tt> and <tt>TabSeparated</tt>.
+     * <p>
+     * Note that the <tt>DateTime</tt> columns of Clickhouse don't accept fractional seconds in <tt>TabSeparated</tt>
+     * input, therefore timestamps are truncated to seconds unless <tt>fractionalSeconds</tt> is set.
+     *
+     * @param value             the value to encode
+     * @param fractionalSeconds determines if the milliseconds of timestamps are kept
+     * @param target            the target to append the encoded value to
+     */
+    static void encodeValue(Object value, boolean fractionalSeconds, StringBuilder target) {
+        if (value == null) {
+            target.append("\\N");
+        } else if (value instanceof Boolean) {
+            target.append(Boolean.TRUE.equals(value) ? '1' : '0');
+        } else if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            boolean withMillis = fractionalSeconds && timestamp.getNanos() != 0;
+            target.append((withMillis ? TIMESTAMP_WITH_MILLIS_FORMAT : TIMESTAMP_FORMAT).format(
+                    timestamp.toLocalDateTime()));
+        } else if (value instanceof BigDecimal) {
+            target.append(((BigDecimal) value).toPlainString());
+        } else if (value instanceof Collection) {
+            encodeArray((Collection<?>) value, target);
+        } else if (value instanceof byte[]) {
+            throw new IllegalArgumentException("Binary values cannot be bulk loaded.");
+        } else {
+            escape(value.toString(), false, target);
+        }
+    }
+
+    /*
+     * Encodes a collection as array literal as expected by Clickhouse. The elements are quoted and escaped once, as
+     * the array as a whole is not escaped again.
+     */
+    private static void encodeArray(Collection<?> values, StringBuilder target) {
+        target.append('[');
+        boolean first = true;
+        for (Object element : values) {
+            if (!first) {
+                target.append(',');
+            }
+            first = false;
+            Object effectiveElement = Databases.convertValue(element);
+            if (effectiveElement instanceof Number) {
+                target.append(effectiveElement);
+            } else {
+                target.append('\'');
+                escape(String.valueOf(effectiveElement), true, target);
+                target.append('\'');
+            }
+        }
+        target.append(']');
+    }
+
+    private static void escape(String value, boolean escapeQuotes, StringBuilder target) {
+        for (int i = 0; i < value.length(); i++) {
+            char current = value.charAt(i);
+            if (current == '\\') {
+                target.append("\\\\");
+            } else if (current == '\'' && escapeQuotes) {
+                target.append("\\'");
+            } else if (current == '\t') {
+                target.append("\\t");
+            } else if (current == '\n') {
+                target.append("\\n");
+            } else if (current == '\r') {
+                target.append("\\r");
+            } else {
+                target.append(current);
+            }
+        }
+    }
+
+    private void pushChunk(byte[] chunk) {
+        try {
+            while (!chunks.offer(chunk, 1, TimeUnit.SECONDS)) {
+                checkLoaderStarted();
+                if (loaderCompleted) {
+                    throw reportLoaderFailure();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Interrupted while bulk loading into %s: %s (%s)", table)
+                            .handle();
+        }
+    }
+
+    private HandledException reportLoaderFailure() {
+        return Exceptions.handle()
+                         .to(OMA.LOG)
+                         .error(loaderError != null ? loaderError : new IllegalStateException("Loader stopped."))
+                         .withSystemErrorMessage("An error occurred while bulk loading into %s: %s (%s)", table)
+                         .handle();
+    }
+
+    private void ensureLoaderStarted() {
+        if (loaderStarted) {
+            return;
+        }
+
+        try {
+            connection = database.getLongRunningConnection();
+            loadStatement = connection.createStatement();
+            Runnable loader = createLoader(loadStatement);
+            loaderStarted = true;
+            loaderSubmitted = System.currentTimeMillis();
+            tasks.executor(BULK_LOAD_EXECUTOR)
+                 .dropOnOverload(() -> rejectLoader("No thread is available to execute the bulk load."))
+                 .start(() -> runLoader(loader));
+        } catch (SQLException e) {
+            safeCloseConnection();
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Failed to start a bulk load into %s: %s (%s)", table)
+                            .handle();
+        }
+    }
+
+    private Runnable createLoader(Statement statement) throws SQLException {
+        InputStream input = new ChunkInputStream();
+        if (database.hasCapability(Capability.LOAD_DATA_LOCAL_INFILE)) {
+            invokeDriverMethod(statement, "setLocalInfileInputStream", InputStream.class, input);
+            String sql = "LOAD DATA LOCAL INFILE 'stream' INTO TABLE "
+                         + table
+                         + " CHARACTER SET utf8mb4 ("
+                         + String.join(", ", columns)
+                         + ")";
+            return () -> executeLoad(() -> statement.execute(sql));
+        }
+
+        if (database.hasCapability(Capability.TAB_SEPARATED_STREAMS)) {
+            // The driver generates "INSERT INTO <table> FORMAT TabSeparated" so we pass along our columns...
+            String target = table + " (" + String.join(", ", columns) + ")";
+            Method sendStream = findDriverMethod(statement, "sendStream", InputStream.class, String.class);
+            return () -> executeLoad(() -> invoke(sendStream, statement, input, target));
+        }
+
+        throw new SQLException("The database " + database.getName() + " doesn't support bulk loading.");
+    }
+
+    private void invokeDriverMethod(Statement statement, String method, Class<?> parameterType, Object parameter)
+            throws SQLException {
+        invoke(findDriverMethod(statement, method, parameterType), statement, parameter);
+    }
+
+    private Object invoke(Method method, Statement statement, Object... parameters) throws SQLException {
+        try {
+            return method.invoke(statement.unwrap(method.getDeclaringClass()), parameters);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new SQLException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new SQLException(e);
+        }
+    }
+
+    private Method findDriverMethod(Statement statement, String name, Class<?>... parameterTypes)
+            throws SQLException {
+        String[] candidates = database.hasCapability(Capability.LOAD_DATA_LOCAL_INFILE) ?
+                              LOCAL_INFILE_STATEMENTS :
+                              new String[]{CLICKHOUSE_STATEMENT};
+        for (String candidate : candidates) {
+            try {
+                Class<?> statementClass = Class.forName(candidate);
+                if (statement.isWrapperFor(statementClass)) {
+                    return statementClass.getMethod(name, parameterTypes);
+                }
+            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                Exceptions.ignore(e);
+            }
+        }
+
+        throw new SQLException("The JDBC driver of " + database.getName() + " doesn't provide: " + name);
+    }
+
+    private interface LoadAction {
+        void execute() throws SQLException;
+    }
+
+    private void executeLoad(LoadAction action) {
+        try {
+            action.execute();
+        } catch (Exception e) {
+            loaderError = e;
+        }
+    }
+
+    private void runLoader(Runnable loader) {
+        if (!loaderClaimed.compareAndSet(false, true)) {
+            // The load has already been given up as the thread became available too late...
+            return;
+        }
+
+        loaderThread = Thread.currentThread();
+        try {
+            loader.run();
+        } finally {
+            loaderThread = null;
+            completeLoader();
+        }
+    }
+
+    private void rejectLoader(String reason) {
+        if (loaderClaimed.compareAndSet(false, true)) {
+            loaderError = new IllegalStateException(reason);
+            completeLoader();
+        }
+    }
+
+    /*
+     * Gives up the load if it is still waiting for a thread after LOADER_START_TIMEOUT.
+     */
+    private void checkLoaderStarted() {
+        if (!loaderClaimed.get() && System.currentTimeMillis() - loaderSubmitted > LOADER_START_TIMEOUT.toMillis()) {
+            rejectLoader(Strings.apply("No thread became available within %ss to execute the bulk load.",
+                                       LOADER_START_TIMEOUT.getSeconds()));
+        }
+    }
+
+    private void completeLoader() {
+        loaderCompleted = true;
+        chunks.clear();
+        try {
+            loadStatement.close();
+        } catch (SQLException e) {
+            Exceptions.ignore(e);
+        } finally {
+            loaderFinished.countDown();
+        }
+    }
+
+    /**
+     * Provides the chunks of encoded rows as input stream for the driver.
+     */
+    private class ChunkInputStream extends InputStream {
+
+        private byte[] current = new byte[0];
+        private int position;
+        private boolean eof;
+
+        @Override
+        public int read() throws IOException {
+            byte[] buffer = new byte[1];
+            int read = read(buffer, 0, 1);
+            return read < 0 ? -1 : buffer[0] & 0xFF;
+        }
+
+        @Override
+        public int read(@Nonnull byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!fetchChunk()) {
+                return -1;
+            }
+
+            int numberOfBytes = Math.min(length, current.length - position);
+            System.arraycopy(current, position, buffer, offset, numberOfBytes);
+            position += numberOfBytes;
+            return numberOfBytes;
+        }
+
+        /*
+         * Fetches the next chunk if the current one has been consumed. Note that an interrupt must not be reported
+         * as end of stream, as the driver would then complete (and commit) a partial load.
+         */
+        private boolean fetchChunk() throws IOException {
+            while (!eof && position >= current.length) {
+                try {
+                    current = chunks.take();
+                    position = 0;
+                    eof = current == END_OF_STREAM;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("The bulk load into " + table + " has been interrupted.");
+                }
+            }
+
+            return !eof;
+        }
+    }
+
+    /**
+     * Returns the number of rows added so far.
+     *
+     * @return the number of rows handed to the database
+     */
+    public long getRowCount() {
+        return rows;
+    }
+
+    /**
+     * Returns the throughput of this loader.
+     *
+     * @return the average number of rows per second since the loader was created
+     */
+    public long getRowsPerSecond() {
+        return rows * 1000 / Math.max(1, watch.elapsedMillis());
+    }
+
+    /**
+     * Completes the bulk load and waits until the database has processed all rows.
+     *
+     * @throws HandledException if the bulk load failed or if the calling thread was interrupted while waiting for
+     *                          the database. In the latter case the load is aborted.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (!loaderStarted) {
+            return;
+        }
+
+        try {
+            if (currentChunk.size() > 0) {
+                pushChunk(currentChunk.toByteArray());
+                currentChunk.reset();
+            }
+            pushChunk(END_OF_STREAM);
+            while (!loaderFinished.await(1, TimeUnit.SECONDS)) {
+                checkLoaderStarted();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abortLoader();
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Interrupted while bulk loading into %s: %s (%s)", table)
+                            .handle();
+        } catch (HandledException e) {
+            abortLoader();
+            throw e;
+        } finally {
+            safeCloseConnection();
+            // Even a failed load might have written some rows (depending on the database)...
+            oma.invalidateCachedQueries(table);
+        }
+
+        if (loaderError != null) {
+            throw reportLoaderFailure();
+        }
+
+        OMA.LOG.INFO("Bulk loaded %s rows (%s) into %s in %s (%s rows/s)",
+                     rows,
+                     NLS.formatSize(bytes),
+                     table,
+                     watch.duration(),
+                     getRowsPerSecond());
+    }
+
+    /*
+     * Interrupts the loader so that the driver fails (instead of completing a partial load) and waits for it to stop.
+     */
+    private void abortLoader() {
+        Thread thread = loaderThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        try {
+            loaderFinished.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void safeCloseConnection() {
+        try {
+            if (connection != null) {
+                connection.close();
+                connection = null;
+            }
+        } catch (SQLException e) {
+            Exceptions.handle()
+                      .to(OMA.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("An exception occured while closing a database connection: %s (%s)")
+                      .handle();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Bulk load into "
+               + table
+               + " ["
+               + (closed ? "closed" : "open")
+               + "|Rows: "
+               + rows
+               + "|Size: "
+               + NLS.formatSize(bytes)
+               + "|Rows/s: "
+               + getRowsPerSecond()
+               + "]";
+    }
+}
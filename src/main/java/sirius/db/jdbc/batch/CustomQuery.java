@@ -71,6 +71,7 @@ public class CustomQuery extends BatchQuery<SQLEntity> {
     public Row executeUpdate() throws SQLException {
         prepareStmt().executeUpdate();
         prepareStmt().getConnection().commit();
+        invalidateCaches();
         if (fetchId) {
             return dbs.fetchGeneratedKeys(stmt);
         } else {
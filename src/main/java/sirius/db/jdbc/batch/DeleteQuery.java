@@ -83,6 +83,7 @@ public class DeleteQuery<E extends SQLEntity> extends BatchQuery<E> {
             } else {
                 stmt.executeUpdate();
                 stmt.getConnection().commit();
+                invalidateCaches();
                 avarage.addValue(w.elapsedMillis());
             }
 
@@ -0,0 +1,85 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc.batch;
+
+import sirius.db.jdbc.OMA;
+import sirius.db.jdbc.SQLEntity;
+import sirius.db.mixing.EntityDescriptor;
+import sirius.db.mixing.Property;
+import sirius.kernel.di.std.Part;
+
+import javax.annotation.Nonnull;
+import java.io.Closeable;
+import java.util.List;
+
+/**
+ * Bulk loads entities into their table using a {@link BulkLoader}.
+ * <p>
+ * Note that no before- or after save checks are performed and that the ids of the entities remain unknown.
+ *
+ * @param <E> the generic type of entities to load
+ */
+public class EntityBulkLoader<E extends SQLEntity> implements Closeable {
+
+    @Part
+    private static OMA oma;
+
+    private final EntityDescriptor descriptor;
+    private final List<Property> properties;
+    private final BulkLoader loader;
+
+    protected EntityBulkLoader(EntityDescriptor descriptor, List<Property> properties, BulkLoader loader) {
+        this.descriptor = descriptor;
+        this.properties = properties;
+        this.loader = loader;
+    }
+
+    /**
+     * Adds the given entity to be loaded.
+     *
+     * @param entity the entity to load
+     */
+    public void add(@Nonnull E entity) {
+        Object[] values = new Object[descriptor.isVersioned() ? properties.size() + 1 : properties.size()];
+        for (int i = 0; i < properties.size(); i++) {
+            values[i] = properties.get(i).getValueForDatasource(OMA.class, entity);
+        }
+        if (descriptor.isVersioned()) {
+            values[properties.size()] = 1;
+        }
+
+        loader.addRow(values);
+    }
+
+    /**
+     * Returns the underlying loader, e.g. to determine the throughput.
+     *
+     * @return the loader which actually streams the rows into the database
+     */
+    public BulkLoader getLoader() {
+        return loader;
+    }
+
+    /**
+     * Completes the bulk load and waits until the database has processed all entities.
+     */
+    @Override
+    public void close() {
+        try {
+            loader.close();
+        } finally {
+            oma.invalidateCaches(descriptor);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return loader.toString();
+    }
+}
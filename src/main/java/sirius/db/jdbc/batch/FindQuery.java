@@ -45,6 +45,11 @@ public class FindQuery<E extends SQLEntity> extends BatchQuery<E> {
         super(context, type, filters);
     }
 
+    @Override
+    protected boolean isBatchable() {
+        return false;
+    }
+
     /**
      * Tries to find a real database entity where the mappings to compare match the given example entity.
      *
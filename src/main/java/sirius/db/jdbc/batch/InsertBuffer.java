@@ -0,0 +1,271 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc.batch;
+
+import sirius.db.jdbc.OMA;
+import sirius.db.jdbc.SQLEntity;
+import sirius.db.mixing.EntityDescriptor;
+import sirius.db.mixing.Mixing;
+import sirius.kernel.Stoppable;
+import sirius.kernel.async.Tasks;
+import sirius.kernel.commons.Strings;
+import sirius.kernel.di.std.ConfigValue;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.Exceptions;
+import sirius.kernel.timer.EveryTenSeconds;
+
+import javax.annotation.Nonnull;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Buffers inserts of entities in order to write them as large batches.
+ * <p>
+ * This is intended for event-like entities which are written very frequently from many threads (e.g. into
+ * Clickhouse which performs best with few large inserts). Instead of calling {@link OMA#update(SQLEntity)} for each
+ * entity, {@link #insert(SQLEntity)} can be used, which only performs the before save checks and then adds the
+ * entity to a node-local buffer per entity type. A buffer is flushed in the background once it contains
+ * <tt>jdbc.insertBuffer.maxRows</tt> entities or once its oldest entity is older than
+ * <tt>jdbc.insertBuffer.maxAge</tt> (which is checked every ten seconds). If the background flushing cannot keep
+ * up and a buffer reaches <tt>jdbc.insertBuffer.maxBufferedRows</tt>, the inserting thread flushes the buffer itself.
+ * <p>
+ * If a flush fails (e.g. as the database is unavailable), the entities which haven't been written are put back in
+ * front of the buffer and are retried by the next flush (at the latest once they exceed <tt>maxAge</tt> again). To
+ * bound the memory usage, a buffer never keeps more than <tt>jdbc.insertBuffer.maxBufferedRows</tt> entities: if
+ * re-queued entities would exceed this limit, the oldest ones are discarded and an error is logged.
+ * <p>
+ * Note that buffered entities are neither visible to queries nor are their ids known until they are flushed. Also,
+ * no after save handlers are invoked. All buffers are flushed when the system is shut down. Entities which still
+ * cannot be written at this point are discarded and an error is logged.
+ */
+@Register(classes = {InsertBuffer.class, EveryTenSeconds.class, Stoppable.class})
+public class InsertBuffer implements EveryTenSeconds, Stoppable {
+
+    private static final String FLUSH_EXECUTOR = "jdbc-insert-buffer";
+
+    @ConfigValue("jdbc.insertBuffer.maxRows")
+    private int maxRows;
+
+    @ConfigValue("jdbc.insertBuffer.maxBufferedRows")
+    private int maxBufferedRows;
+
+    @ConfigValue("jdbc.insertBuffer.maxAge")
+    private Duration maxAge;
+
+    @Part
+    private Mixing mixing;
+
+    @Part
+    private Tasks tasks;
+
+    private final Map<Class<?>, Buffer> buffers = new ConcurrentHashMap<>();
+
+    /**
+     * Determines what has to happen after an entity was added to a buffer.
+     */
+    private enum FlushAction {
+        NONE, FLUSH_IN_BACKGROUND, FLUSH_IMMEDIATELY
+    }
+
+    /**
+     * Contains the buffered entities of a single type.
+     */
+    private class Buffer {
+
+        private final EntityDescriptor descriptor;
+        private final Object flushLock = new Object();
+        private List<SQLEntity> entities = new ArrayList<>();
+        private long oldestEntity;
+        private boolean flushScheduled;
+
+        Buffer(EntityDescriptor descriptor) {
+            this.descriptor = descriptor;
+        }
+
+        /**
+         * Adds the given entity and determines if the buffer has to be flushed.
+         *
+         * @return the action to perform once the entity has been added
+         */
+        synchronized FlushAction add(SQLEntity entity) {
+            if (entities.isEmpty()) {
+                oldestEntity = System.currentTimeMillis();
+            }
+            entities.add(entity);
+
+            if (entities.size() >= maxBufferedRows) {
+                return FlushAction.FLUSH_IMMEDIATELY;
+            }
+            if (entities.size() >= maxRows && !flushScheduled) {
+                flushScheduled = true;
+                return FlushAction.FLUSH_IN_BACKGROUND;
+            }
+
+            return FlushAction.NONE;
+        }
+
+        synchronized boolean isExpired(long now) {
+            return !entities.isEmpty() && now - oldestEntity >= maxAge.toMillis();
+        }
+
+        synchronized List<SQLEntity> drain() {
+            List<SQLEntity> result = entities;
+            entities = new ArrayList<>();
+            flushScheduled = false;
+            return result;
+        }
+
+        /**
+         * Puts the given entities, which failed to be written, back in front of the buffer.
+         * <p>
+         * If the buffer would then exceed <tt>maxBufferedRows</tt>, the oldest entities are discarded.
+         *
+         * @param failedEntities the entities to re-queue in their original order
+         */
+        synchronized void requeue(List<SQLEntity> failedEntities) {
+            if (entities.isEmpty()) {
+                oldestEntity = System.currentTimeMillis();
+            }
+
+            List<SQLEntity> combined = new ArrayList<>(failedEntities.size() + entities.size());
+            combined.addAll(failedEntities);
+            combined.addAll(entities);
+            int overflow = combined.size() - Math.max(maxBufferedRows, 1);
+            if (overflow > 0) {
+                OMA.LOG.SEVERE(Strings.apply("Discarding %s buffered entities of type %s, as they cannot be written"
+                                             + " and the buffer is full.", overflow, descriptor.getType().getName()));
+                combined = new ArrayList<>(combined.subList(overflow, combined.size()));
+            }
+
+            entities = combined;
+        }
+
+        synchronized int size() {
+            return entities.size();
+        }
+
+        /**
+         * Writes all buffered entities as batch.
+         * <p>
+         * Flushes of the same buffer are serialized, so that the entities are written in the order of insertion.
+         */
+        void flush() {
+            synchronized (flushLock) {
+                List<SQLEntity> entitiesToWrite = drain();
+                if (!entitiesToWrite.isEmpty()) {
+                    List<SQLEntity> failedEntities = write(descriptor, entitiesToWrite);
+                    if (!failedEntities.isEmpty()) {
+                        requeue(failedEntities);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the given entity to the insert buffer of its type.
+     * <p>
+     * The before save checks are executed immediately, so that validation errors are reported to the caller.
+     *
+     * @param entity the entity to insert. Note that the entity must not be modified after this call.
+     * @param <E>    the generic type of the entity
+     */
+    public <E extends SQLEntity> void insert(@Nonnull E entity) {
+        if (!entity.isNew()) {
+            throw new IllegalArgumentException("Only new entities can be buffered for insertion.");
+        }
+
+        Buffer buffer = buffers.computeIfAbsent(entity.getClass(),
+                                                type -> new Buffer(mixing.getDescriptor(entity.getClass())));
+        buffer.descriptor.beforeSave(entity);
+        FlushAction action = buffer.add(entity);
+        if (action == FlushAction.FLUSH_IMMEDIATELY) {
+            buffer.flush();
+        } else if (action == FlushAction.FLUSH_IN_BACKGROUND) {
+            tasks.executor(FLUSH_EXECUTOR).dropOnOverload(buffer::flush).start(buffer::flush);
+        }
+    }
+
+    /**
+     * Writes all buffered entities into the database.
+     * <p>
+     * This blocks until all buffers have been flushed.
+     */
+    public void flush() {
+        buffers.values().forEach(Buffer::flush);
+    }
+
+    /**
+     * Writes the given entities in batches of <tt>maxRows</tt>.
+     *
+     * @return the entities of the failed batch and all following ones or an empty list if all entities were written
+     */
+    private List<SQLEntity> write(EntityDescriptor descriptor, List<SQLEntity> entities) {
+        int batchSize = Math.max(maxRows, 1);
+        int written = 0;
+        try (BatchContext ctx = new BatchContext(() -> "Flushing the insert buffer of " + descriptor.getType(),
+                                                 Duration.ofMinutes(5))) {
+            @SuppressWarnings("unchecked")
+            InsertQuery<SQLEntity> insert = ctx.insertQuery((Class<SQLEntity>) descriptor.getType(), false);
+            insert.withCustomBatchLimit(batchSize);
+            while (written < entities.size()) {
+                int end = Math.min(written + batchSize, entities.size());
+                for (SQLEntity entity : entities.subList(written, end)) {
+                    insert.insert(entity, false, true);
+                }
+                insert.commit();
+                written = end;
+            }
+
+            return Collections.emptyList();
+        } catch (Exception e) {
+            Exceptions.handle()
+                      .to(OMA.LOG)
+                      .error(e)
+                      .withSystemErrorMessage("Failed to flush %s of %s buffered entities of type %s,"
+                                              + " these will be retried: %s (%s)",
+                                              entities.size() - written,
+                                              entities.size(),
+                                              descriptor.getType().getName())
+                      .handle();
+            return new ArrayList<>(entities.subList(written, entities.size()));
+        }
+    }
+
+    /**
+     * Flushes all buffers which contain entities older than <tt>jdbc.insertBuffer.maxAge</tt>.
+     */
+    @Override
+    public void runTimer() throws Exception {
+        long now = System.currentTimeMillis();
+        for (Buffer buffer : buffers.values()) {
+            if (buffer.isExpired(now)) {
+                buffer.flush();
+            }
+        }
+    }
+
+    @Override
+    public void stopped() {
+        flush();
+        for (Buffer buffer : buffers.values()) {
+            int remainingEntities = buffer.size();
+            if (remainingEntities > 0) {
+                OMA.LOG.SEVERE(Strings.apply("Discarding %s buffered entities of type %s, as they cannot be written.",
+                                             remainingEntities,
+                                             buffer.descriptor.getType().getName()));
+            }
+        }
+    }
+}
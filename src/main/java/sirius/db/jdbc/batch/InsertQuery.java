@@ -131,6 +131,7 @@ public class InsertQuery<E extends SQLEntity> extends BatchQuery<E> {
             } else {
                 stmt.executeUpdate();
                 stmt.getConnection().commit();
+                invalidateCaches();
                 if (fetchId) {
                     Row keys = dbs.fetchGeneratedKeys(stmt);
                     OMA.loadCreatedId(entity, keys);
@@ -92,6 +92,7 @@ public class UpdateQuery<E extends SQLEntity> extends BatchQuery<E> {
             } else {
                 stmt.executeUpdate();
                 stmt.getConnection().commit();
+                invalidateCaches();
                 avarage.addValue(w.elapsedMillis());
                 if (descriptor.isVersioned()) {
                     entity.setVersion(entity.getVersion() + 1);
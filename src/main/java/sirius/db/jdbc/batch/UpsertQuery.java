@@ -0,0 +1,259 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc.batch;
+
+import sirius.db.jdbc.Capability;
+import sirius.db.jdbc.OMA;
+import sirius.db.jdbc.Operator;
+import sirius.db.jdbc.SQLEntity;
+import sirius.db.mixing.BaseMapper;
+import sirius.db.mixing.EntityDescriptor;
+import sirius.db.mixing.Mapping;
+import sirius.db.mixing.Property;
+import sirius.kernel.commons.Monoflop;
+import sirius.kernel.commons.Tuple;
+import sirius.kernel.commons.Watch;
+import sirius.kernel.health.Exceptions;
+
+import javax.annotation.Nonnull;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Represents a batch query which inserts an entity or updates the existing one with the same conflict key.
+ * <p>
+ * The mappings given when creating the query (see {@link BatchContext#upsertQuery(Class, Mapping...)}) form the
+ * conflict key. Note that a unique index over exactly these columns is required. The query is compiled into the
+ * native upsert of the database (<tt>INSERT ... ON DUPLICATE KEY UPDATE</tt> for MySQL / MariaDB and
+ * <tt>INSERT ... ON CONFLICT ... DO UPDATE</tt> for Postgres) so that no separate lookup is required.
+ * <p>
+ * For versioned entities, the version is initialized with 1 or incremented when an existing row is updated. Note
+ * however, that no optimistic locking check is performed.
+ * <p>
+ * Cached queries and entities of the type are invalidated once the changes have been committed.
+ *
+ * @param <E> the generic type of entities to insert or update with this query
+ */
+public class UpsertQuery<E extends SQLEntity> extends BatchQuery<E> {
+
+    private List<Property> propertiesToUpdate;
+
+    protected UpsertQuery(BatchContext context, Class<E> type, List<Tuple<Operator, String>> filters) {
+        super(context, type, filters);
+    }
+
+    /**
+     * Specifies the list of mappings to write (besides the conflict key).
+     * <p>
+     * These mappings are inserted along with the conflict key for new rows and updated for existing rows.
+     * Note that this must be called once before this first entity is upserted and cannot be changed later.
+     *
+     * @param mappingsToUpdate a list of mappings to insert or update
+     * @return the query itself for fluent method calls
+     */
+    public UpsertQuery<E> withUpdatedMappings(Mapping... mappingsToUpdate) {
+        EntityDescriptor ed = getDescriptor();
+        this.propertiesToUpdate =
+                Arrays.stream(mappingsToUpdate).map(Mapping::getName).map(ed::getProperty).collect(Collectors.toList());
+        return this;
+    }
+
+    protected List<Property> getPropertiesToUpdate() {
+        if (propertiesToUpdate == null) {
+            throw new IllegalStateException("No mappings to update were specified. Use '.withUpdatedMappings'!");
+        }
+
+        return Collections.unmodifiableList(propertiesToUpdate);
+    }
+
+    /**
+     * Inserts the given entity or updates the existing entity with the same conflict key.
+     * <p>
+     * Note that the id of the entity is not updated, as it cannot be determined reliably in both cases.
+     *
+     * @param entity       the entity to insert or update
+     * @param invokeChecks determines if before- and after save checks should be performed (<tt>true</tt>)
+     *                     or skipped (<tt>false</tt>)
+     * @param addBatch     determines if the query should be executed instantly (<tt>false</tt>) or added to the
+     *                     batch update (<tt>true</tt>).
+     */
+    @SuppressWarnings("unchecked")
+    public void upsert(@Nonnull E entity, boolean invokeChecks, boolean addBatch) {
+        try {
+            if (this.type == null) {
+                this.type = (Class<E>) entity.getClass();
+            }
+
+            Watch w = Watch.start();
+            if (invokeChecks) {
+                getDescriptor().beforeSave(entity);
+            }
+
+            PreparedStatement stmt = prepareStmt();
+            int i = 1;
+            for (Tuple<Operator, Property> filter : getPropertyFilters()) {
+                stmt.setObject(i++, filter.getSecond().getValueForDatasource(OMA.class, entity));
+            }
+            for (Property property : getPropertiesToUpdate()) {
+                stmt.setObject(i++, property.getValueForDatasource(OMA.class, entity));
+            }
+
+            if (addBatch) {
+                addBatch();
+            } else {
+                stmt.executeUpdate();
+                stmt.getConnection().commit();
+                avarage.addValue(w.elapsedMillis());
+                invalidateCaches();
+            }
+
+            if (invokeChecks) {
+                getDescriptor().afterSave(entity);
+            }
+        } catch (SQLException e) {
+            context.safeClose();
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .error(e)
+                            .withSystemErrorMessage(
+                                    "A database error occured while executing an UpsertQuery for %s: %s (%s)",
+                                    type.getName())
+                            .handle();
+        } catch (Exception e) {
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("An error occured while executing an UpsertQuery for %s: %s (%s)",
+                                                    type.getName())
+                            .handle();
+        }
+    }
+
+    @Override
+    protected void buildSQL() throws SQLException {
+        StringBuilder sql = new StringBuilder("INSERT INTO ");
+        StringBuilder values = new StringBuilder(" VALUES(");
+        sql.append(getDescriptor().getRelationName());
+        sql.append(" (");
+        Monoflop mf = Monoflop.create();
+        for (Tuple<Operator, Property> filter : getPropertyFilters()) {
+            appendColumn(sql, values, filter.getSecond().getPropertyName(), "?", mf);
+        }
+        for (Property property : getPropertiesToUpdate()) {
+            appendColumn(sql, values, property.getPropertyName(), "?", mf);
+        }
+        if (descriptor.isVersioned()) {
+            appendColumn(sql, values, BaseMapper.VERSION, "1", mf);
+        }
+        sql.append(")");
+        values.append(")");
+        sql.append(values);
+
+        if (hasCapability(Capability.ON_DUPLICATE_KEY_UPDATE)) {
+            appendOnDuplicateKeyUpdate(sql);
+        } else if (hasCapability(Capability.ON_CONFLICT_DO_UPDATE)) {
+            appendOnConflictDoUpdate(sql);
+        } else {
+            throw Exceptions.handle()
+                            .to(OMA.LOG)
+                            .withSystemErrorMessage("Cannot execute an UpsertQuery for %s, as the database of realm"
+                                                    + " '%s' doesn't support upserts.",
+                                                    descriptor.getType(),
+                                                    descriptor.getRealm())
+                            .handle();
+        }
+
+        createStmt(sql.toString(), false);
+    }
+
+    private void appendColumn(StringBuilder sql, StringBuilder values, String column, String value, Monoflop mf) {
+        if (mf.successiveCall()) {
+            sql.append(", ");
+            values.append(", ");
+        }
+        sql.append(column);
+        values.append(value);
+    }
+
+    private boolean hasCapability(Capability capability) {
+        return oma.getDatabase(descriptor.getRealm()).hasCapability(capability);
+    }
+
+    private void appendOnDuplicateKeyUpdate(StringBuilder sql) {
+        sql.append(" ON DUPLICATE KEY UPDATE ");
+        Monoflop mf = Monoflop.create();
+        for (Property property : getPropertiesToUpdate()) {
+            if (mf.successiveCall()) {
+                sql.append(", ");
+            }
+            sql.append(property.getPropertyName());
+            sql.append(" = VALUES(");
+            sql.append(property.getPropertyName());
+            sql.append(")");
+        }
+
+        if (descriptor.isVersioned()) {
+            if (mf.successiveCall()) {
+                sql.append(", ");
+            }
+            sql.append(BaseMapper.VERSION);
+            sql.append(" = ");
+            sql.append(BaseMapper.VERSION);
+            sql.append(" + 1");
+        }
+
+        if (!mf.isToggled()) {
+            // Nothing to update - therefore we perform a no-op assignment to ignore duplicates...
+            String column = getPropertyFilters().get(0).getSecond().getPropertyName();
+            sql.append(column);
+            sql.append(" = ");
+            sql.append(column);
+        }
+    }
+
+    private void appendOnConflictDoUpdate(StringBuilder sql) {
+        sql.append(" ON CONFLICT (");
+        sql.append(getPropertyFilters().stream()
+                                       .map(filter -> filter.getSecond().getPropertyName())
+                                       .collect(Collectors.joining(", ")));
+        sql.append(")");
+
+        if (getPropertiesToUpdate().isEmpty() && !descriptor.isVersioned()) {
+            sql.append(" DO NOTHING");
+            return;
+        }
+
+        sql.append(" DO UPDATE SET ");
+        Monoflop mf = Monoflop.create();
+        for (Property property : getPropertiesToUpdate()) {
+            if (mf.successiveCall()) {
+                sql.append(", ");
+            }
+            sql.append(property.getPropertyName());
+            sql.append(" = EXCLUDED.");
+            sql.append(property.getPropertyName());
+        }
+
+        if (descriptor.isVersioned()) {
+            if (mf.successiveCall()) {
+                sql.append(", ");
+            }
+            sql.append(BaseMapper.VERSION);
+            sql.append(" = ");
+            sql.append(descriptor.getRelationName());
+            sql.append(".");
+            sql.append(BaseMapper.VERSION);
+            sql.append(" + 1");
+        }
+    }
+}
@@ -10,7 +10,9 @@ package sirius.db.jdbc.batch.external;
 
 import sirius.db.jdbc.Database;
 import sirius.db.jdbc.OMA;
+import sirius.db.jdbc.batch.BulkLoader;
 import sirius.kernel.async.Operation;
+import sirius.kernel.commons.Strings;
 import sirius.kernel.health.Exceptions;
 import sirius.kernel.health.HandledException;
 
@@ -21,6 +23,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.function.Supplier;
 
@@ -37,6 +40,7 @@ public class ExternalBatchContext implements Closeable {
     private Database database;
     private Connection connection;
     private List<ExternalBatchQuery> queries = new ArrayList<>();
+    private List<BulkLoader> loaders = new ArrayList<>();
     private Operation op;
 
     /**
@@ -64,6 +68,28 @@ public class ExternalBatchContext implements Closeable {
         return qry;
     }
 
+    /**
+     * Creates a {@link BulkLoader bulk loader} which streams rows into the given table using the native bulk
+     * load mechanism of the database.
+     * <p>
+     * Note that the loader has to be {@link BulkLoader#close() closed} to complete the load. Otherwise this
+     * happens when the context is closed.
+     *
+     * @param table   the table to load the rows into
+     * @param columns the columns to fill
+     * @return the loader used to stream rows into the database
+     */
+    public BulkLoader bulkLoad(String table, String... columns) {
+        if (!BulkLoader.isSupported(database)) {
+            throw new UnsupportedOperationException(Strings.apply("The database %s doesn't support bulk loading.",
+                                                                  database.getName()));
+        }
+
+        BulkLoader loader = new BulkLoader(database, table, Arrays.asList(columns));
+        loaders.add(loader);
+        return loader;
+    }
+
     protected Connection getConnection() throws SQLException {
         if (connection == null) {
             connection = database.getConnection();
@@ -73,6 +99,15 @@ public class ExternalBatchContext implements Closeable {
     }
 
     protected void safeClose() {
+        for (BulkLoader loader : loaders) {
+            try {
+                loader.close();
+            } catch (HandledException e) {
+                Exceptions.ignore(e);
+            }
+        }
+        loaders.clear();
+
         for (ExternalBatchQuery query : queries) {
             try {
                 query.tryCommit(false);
@@ -12,6 +12,7 @@ import sirius.db.jdbc.BaseSQLQuery;
 import sirius.db.jdbc.Databases;
 import sirius.db.jdbc.OMA;
 import sirius.db.jdbc.Row;
+import sirius.db.jdbc.batch.AdaptiveBatchLimit;
 import sirius.kernel.async.TaskContext;
 import sirius.kernel.commons.Limit;
 import sirius.kernel.commons.Watch;
@@ -26,6 +27,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.time.Duration;
 import java.util.function.Predicate;
 
 /**
@@ -41,6 +43,7 @@ public class ExternalBatchQuery extends BaseSQLQuery {
     protected final PreparedStatement statement;
     protected int batchBacklog;
     protected int batchBacklogLimit = MAX_BATCH_BACKLOG;
+    protected AdaptiveBatchLimit adaptiveBatchLimit;
     protected ExternalBatchContext context;
     protected String query;
     protected Average avarage = new Average();
@@ -61,6 +64,28 @@ public class ExternalBatchQuery extends BaseSQLQuery {
         this.batchBacklogLimit = maxBacklog;
     }
 
+    /**
+     * Tunes the batch size at runtime so that executing a batch takes about the given duration.
+     * <p>
+     * The current batch limit (see {@link #withCustomBatchLimit(int)}) is used as initial value.
+     *
+     * @param targetLatency the desired duration of executing a batch or <tt>null</tt> to use the default
+     *                      (<tt>jdbc.adaptiveBatchSize.targetLatency</tt>)
+     * @see AdaptiveBatchLimit
+     */
+    public void withAdaptiveBatchLimit(@Nullable Duration targetLatency) {
+        this.adaptiveBatchLimit = AdaptiveBatchLimit.create(batchBacklogLimit, targetLatency);
+    }
+
+    /**
+     * Determines the number of rows to add to a batch before it is executed.
+     *
+     * @return the effective batch limit, which is either fixed or determined by the adaptive batch limit
+     */
+    protected int getEffectiveBatchLimit() {
+        return adaptiveBatchLimit != null ? adaptiveBatchLimit.getLimit() : batchBacklogLimit;
+    }
+
     /**
      * Resets all previously set parameters.
      *
@@ -105,8 +130,14 @@ public class ExternalBatchQuery extends BaseSQLQuery {
                 Watch w = Watch.start();
                 statement.executeBatch();
                 avarage.addValues(batchBacklog, w.elapsedMillis());
+                if (adaptiveBatchLimit != null) {
+                    adaptiveBatchLimit.recordExecution(batchBacklog, w.elapsedMillis());
+                }
                 batchBacklog = 0;
             } catch (SQLException e) {
+                if (adaptiveBatchLimit != null) {
+                    adaptiveBatchLimit.recordFailure(e);
+                }
                 if (cascade) {
                     context.safeClose();
                 }
@@ -134,7 +165,7 @@ public class ExternalBatchQuery extends BaseSQLQuery {
     public void addBatch() throws SQLException {
         statement.addBatch();
         batchBacklog++;
-        if (batchBacklog > batchBacklogLimit) {
+        if (batchBacklog > getEffectiveBatchLimit()) {
             commit();
         }
     }
@@ -191,6 +222,10 @@ public class ExternalBatchQuery extends BaseSQLQuery {
             sb.append("|Backlog: ");
             sb.append(batchBacklog);
         }
+        if (adaptiveBatchLimit != null) {
+            sb.append("|Limit: ");
+            sb.append(adaptiveBatchLimit.getLimit());
+        }
         if (avarage.getCount() > 0) {
             sb.append("|Executed: ");
             sb.append(avarage.getCount());
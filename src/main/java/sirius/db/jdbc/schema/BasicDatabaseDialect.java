@@ -153,6 +153,16 @@ public abstract class BasicDatabaseDialect implements DatabaseDialect {
         return MessageFormat.format("ALTER TABLE `{0}` RENAME `{1}`", table.getOldName(), table.getName());
     }
 
+    @Nullable
+    @Override
+    public String generateExplain(String sql) {
+        if (!sql.trim().regionMatches(true, 0, "SELECT", 0, 6)) {
+            return null;
+        }
+
+        return "EXPLAIN " + sql;
+    }
+
     @Override
     public String translateColumnName(String name) {
         return name;
@@ -216,4 +216,15 @@ public interface DatabaseDialect {
      * @throws SQLException in case of a database error
      */
     String getDefaultValue(ResultSet rs) throws SQLException;
+
+    /**
+     * Builds a statement which reports the execution plan of the given query.
+     * <p>
+     * The generated statement must not execute the query itself, as it is used to diagnose slow queries.
+     *
+     * @param sql the query to explain (may contain parameter placeholders)
+     * @return the generated SQL statement or null if the database cannot explain the given query
+     */
+    @Nullable
+    String generateExplain(String sql);
 }
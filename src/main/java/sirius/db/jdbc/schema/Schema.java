@@ -13,6 +13,7 @@ import sirius.db.jdbc.Capability;
 import sirius.db.jdbc.Database;
 import sirius.db.jdbc.Databases;
 import sirius.db.jdbc.OMA;
+import sirius.db.jdbc.ReplicaSet;
 import sirius.db.jdbc.SQLEntity;
 import sirius.db.mixing.BaseMapper;
 import sirius.db.mixing.EntityDescriptor;
@@ -27,6 +28,7 @@ import sirius.kernel.async.Tasks;
 import sirius.kernel.commons.MultiMap;
 import sirius.kernel.commons.Strings;
 import sirius.kernel.commons.Tuple;
+import sirius.kernel.commons.Value;
 import sirius.kernel.commons.Wait;
 import sirius.kernel.di.GlobalContext;
 import sirius.kernel.di.Initializable;
@@ -41,6 +43,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -62,6 +65,9 @@ public class Schema implements Startable, Initializable {
     private static final String KEY_DATABASE = "database";
     private static final String KEY_SECONDARY_DATABASE = "secondaryDatabase";
     private static final String KEY_SECONDARY_ENABLED = "secondaryEnabled";
+    private static final String KEY_REPLICAS = "replicas";
+    private static final String KEY_DEFAULT_MAX_STALENESS = "defaultMaxStaleness";
+    private static final String KEY_MAX_REPLICATION_LAG = "maxReplicationLag";
 
     private Future readyFuture = new Future();
 
@@ -79,6 +85,7 @@ public class Schema implements Startable, Initializable {
 
     private List<SchemaUpdateAction> requiredSchemaChanges = new ArrayList<>();
     private Map<String, Tuple<Database, Database>> databases = new HashMap<>();
+    private Map<String, ReplicaSet> replicaSets = new HashMap<>();
 
     /**
      * Returns a tuple of configured databases for a given realm.
@@ -96,6 +103,26 @@ public class Schema implements Startable, Initializable {
         return Optional.ofNullable(databases.get(realm));
     }
 
+    /**
+     * Returns the replica set of the given realm.
+     *
+     * @param realm the realm to determine the replicas for
+     * @return the replica set of the realm or an empty optional if no database is configured for the realm
+     */
+    @Nonnull
+    public Optional<ReplicaSet> getReplicaSet(String realm) {
+        return Optional.ofNullable(replicaSets.get(realm));
+    }
+
+    /**
+     * Returns the replica sets of all configured realms.
+     *
+     * @return all known replica sets
+     */
+    public Collection<ReplicaSet> getReplicaSets() {
+        return Collections.unmodifiableCollection(replicaSets.values());
+    }
+
     /**
      * Provides the underlying database instance used to perform the actual statements.
      *
@@ -372,6 +399,7 @@ public class Schema implements Startable, Initializable {
     @Override
     public void started() {
         databases.clear();
+        replicaSets.clear();
         requiredSchemaChanges.clear();
 
         Set<String> realms = mixing.getDescriptors()
@@ -389,6 +417,7 @@ public class Schema implements Startable, Initializable {
                 if (dbs.hasDatabase(databaseName)) {
                     Database primary = dbs.get(databaseName);
                     databases.put(realm, Tuple.create(primary, determineSecondary(ext).orElse(primary)));
+                    replicaSets.put(realm, createReplicaSet(primary, ext));
                     waitForDatabaseToBecomeReady(realm, ext.get("initSql").asString());
                 } else {
                     OMA.LOG.INFO(
@@ -402,6 +431,28 @@ public class Schema implements Startable, Initializable {
         updateSchemaAtStartup();
     }
 
+    private ReplicaSet createReplicaSet(Database primary, Extension ext) {
+        List<ReplicaSet.Replica> replicas = new ArrayList<>();
+        for (String replica : ext.get(KEY_REPLICAS).asString().split(",")) {
+            Tuple<String, String> nameAndWeight = Strings.split(replica.trim(), ":");
+            if (Strings.isFilled(nameAndWeight.getFirst())) {
+                if (dbs.hasDatabase(nameAndWeight.getFirst())) {
+                    replicas.add(new ReplicaSet.Replica(dbs.get(nameAndWeight.getFirst()),
+                                                        Math.max(1, Value.of(nameAndWeight.getSecond()).asInt(1))));
+                } else {
+                    OMA.LOG.WARN("Ignoring the unknown replica '%s' for realm '%s'...",
+                                 nameAndWeight.getFirst(),
+                                 ext.getId());
+                }
+            }
+        }
+
+        return new ReplicaSet(primary,
+                              replicas,
+                              Duration.ofSeconds(ext.get(KEY_DEFAULT_MAX_STALENESS).asLong(0)),
+                              Duration.ofSeconds(ext.get(KEY_MAX_REPLICATION_LAG).asLong(30)));
+    }
+
     private Optional<Database> determineSecondary(Extension ext) {
         if (!ext.get(KEY_SECONDARY_ENABLED).asBoolean()) {
             return Optional.empty();
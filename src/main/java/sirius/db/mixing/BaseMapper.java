@@ -10,6 +10,7 @@ package sirius.db.mixing;
 
 import sirius.db.jdbc.SQLEntity;
 import sirius.db.mixing.annotations.Versioned;
+import sirius.db.mixing.query.BaseQuery;
 import sirius.db.mixing.query.Query;
 import sirius.db.mixing.query.constraints.Constraint;
 import sirius.db.mixing.query.constraints.FilterFactory;
@@ -29,10 +30,16 @@ import sirius.kernel.health.Exceptions;
 import sirius.kernel.health.HandledException;
 
 import javax.annotation.CheckReturnValue;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * Declares the common functionality of a mapper which is responsible for storing and loading entities to and from a database.
@@ -53,6 +60,9 @@ public abstract class BaseMapper<B extends BaseEntity<?>, C extends Constraint,
     @Part
     protected Mixing mixing;
 
+    @Part
+    protected EntityCache entityCache;
+
     /**
      * Writes the contents of the given entity to the database.
      * <p>
@@ -197,10 +207,14 @@ public abstract class BaseMapper<B extends BaseEntity<?>, C extends Constraint,
             EntityDescriptor ed = entity.getDescriptor();
             ed.beforeSave(entity);
 
-            if (entity.isNew()) {
-                createEntity(entity, ed);
-            } else {
-                updateEntity(entity, force, ed);
+            try {
+                if (entity.isNew()) {
+                    createEntity(entity, ed);
+                } else {
+                    updateEntity(entity, force, ed);
+                }
+            } finally {
+                entityCache.invalidate(ed);
             }
 
             ed.afterSave(entity);
@@ -292,7 +306,11 @@ public abstract class BaseMapper<B extends BaseEntity<?>, C extends Constraint,
             EntityDescriptor ed = entity.getDescriptor();
             ed.beforeDelete(entity);
             if (TaskContext.get().isActive()) {
-                deleteEntity(entity, force, ed);
+                try {
+                    deleteEntity(entity, force, ed);
+                } finally {
+                    entityCache.invalidate(ed);
+                }
                 ed.afterDelete(entity);
             }
         } catch (OptimisticLockException e) {
@@ -358,11 +376,35 @@ public abstract class BaseMapper<B extends BaseEntity<?>, C extends Constraint,
      * @return the entity wrapped as <tt>Optional</tt> or an empty optional if no entity with the given id exists
      */
     public <E extends B> Optional<E> find(Class<E> type, Object id, ContextInfo... info) {
+        return performFind(type, id, true, info);
+    }
+
+    /**
+     * Performs a database lookup like {@link #find(Class, Object, ContextInfo...)} but always bypasses the
+     * {@link EntityCache}.
+     * <p>
+     * This is used to refresh entities and to check if an entity still exists after an update failed, as a cached
+     * copy might be outdated if an invalidation is still pending.
+     *
+     * @param type the type of entity to select
+     * @param id   the id (which can be either a long, Long or String) to select
+     * @param info info provided as context (e.g. routing infos for Elasticsearch)
+     * @param <E>  the generic type of the entity to select
+     * @return the entity wrapped as <tt>Optional</tt> or an empty optional if no entity with the given id exists
+     */
+    protected <E extends B> Optional<E> findUncached(Class<E> type, Object id, ContextInfo... info) {
+        return performFind(type, id, false, info);
+    }
+
+    private <E extends B> Optional<E> performFind(Class<E> type, Object id, boolean useCache, ContextInfo... info) {
         try {
             if (Strings.isEmpty(id)) {
                 return Optional.empty();
             }
             EntityDescriptor ed = mixing.getDescriptor(type);
+            if (useCache && ed.isCached()) {
+                return findCachedEntity(id, ed, makeContext(info));
+            }
             return findEntity(id, ed, makeContext(info));
         } catch (HandledException e) {
             throw e;
@@ -375,6 +417,44 @@ public abstract class BaseMapper<B extends BaseEntity<?>, C extends Constraint,
         }
     }
 
+    private <E extends B> Optional<E> findCachedEntity(Object id,
+                                                       EntityDescriptor ed,
+                                                       Function<String, Value> context) throws Exception {
+        E cachedEntity = entityCache.get(ed, id);
+        if (cachedEntity != null) {
+            return Optional.of(copyEntity(cachedEntity));
+        }
+
+        long generation = entityCache.currentGeneration(ed);
+        Optional<E> result = findEntity(id, ed, context);
+        if (result.isPresent()) {
+            entityCache.put(ed, id, copyEntity(result.get()), generation);
+        }
+
+        return result;
+    }
+
+    /**
+     * Creates a copy of the given entity, which looks as if it was freshly loaded from the database.
+     * <p>
+     * This is used by the {@link EntityCache} so that each caller gets its own instance. Mappers which keep additional
+     * state (like a version) in their entities, have to transfer it by overwriting this method.
+     *
+     * @param entity the entity to copy
+     * @param <E>    the generic type of the entity
+     * @return a copy of the given entity
+     * @throws Exception in case of an error while creating the copy
+     */
+    @SuppressWarnings("unchecked")
+    protected <E extends B> E copyEntity(E entity) throws Exception {
+        Class<? extends BaseMapper<?, ?, ?>> mapperType = (Class<? extends BaseMapper<?, ?, ?>>) getClass();
+        EntityDescriptor ed = entity.getDescriptor();
+        List<Property> properties = new ArrayList<>(ed.getProperties());
+        return (E) ed.make(mapperType,
+                           properties,
+                           index -> Value.of(properties.get(index).getValueForDatasource(mapperType, entity)));
+    }
+
     private Function<String, Value> makeContext(ContextInfo[] info) {
         if (info == null || info.length == 0) {
             return EMPTY_CONTEXT;
@@ -476,7 +556,8 @@ public abstract class BaseMapper<B extends BaseEntity<?>, C extends Constraint,
     /**
      * Tries to fetch a fresh (updated) instance of the given entity from the database.
      * <p>
-     * If the entity does no longer exist, the given instance is returned.
+     * If the entity does no longer exist, the given instance is returned. The {@link EntityCache} is bypassed, so that
+     * the current state of the database is always returned.
      *
      * @param entity the entity to refresh
      * @param <E>    the generic type of the entity
@@ -499,7 +580,8 @@ public abstract class BaseMapper<B extends BaseEntity<?>, C extends Constraint,
     /**
      * Tries to fetch a fresh (updated) instance of the given entity from the database.
      * <p>
-     * If the entity does no longer exist, an exception will be thrown.
+     * If the entity does no longer exist, an exception will be thrown. The {@link EntityCache} is bypassed, so that
+     * the current state of the database is always returned.
      *
      * @param entity the entity to refresh
      * @param <E>    the generic type of the entity
@@ -525,6 +607,66 @@ public abstract class BaseMapper<B extends BaseEntity<?>, C extends Constraint,
         }
     }
 
+    /**
+     * Performs a database lookup to select all entities of the given type with one of the given ids.
+     * <p>
+     * This is used to resolve many references at once (see {@link BaseQuery#prefetch(Mapping)}) and therefore
+     * issues one query per {@link BaseQuery#MAX_LIST_SIZE} ids rather than one per id. Note that this bypasses the
+     * {@link EntityCache}.
+     *
+     * @param type     the type of entities to select
+     * @param ids      the ids of the entities to select
+     * @param consumer the consumer to be supplied with each entity which was found. Note that the order is undefined
+     *                 and that ids which do not exist are simply skipped
+     * @param <E>      the generic type of the entities to select
+     */
+    public <E extends B> void findAll(Class<E> type, Collection<?> ids, Consumer<E> consumer) {
+        try {
+            processInBlocks(ids, block -> findBlock(type, block, consumer));
+        } catch (HandledException e) {
+            throw e;
+        } catch (Exception e) {
+            throw Exceptions.handle()
+                            .to(Mixing.LOG)
+                            .error(e)
+                            .withSystemErrorMessage("Unable to FIND %s entities of type %s: %s (%s)",
+                                                    ids.size(),
+                                                    type.getSimpleName())
+                            .handle();
+        }
+    }
+
+    /**
+     * Splits the given ids into blocks of at most {@link BaseQuery#MAX_LIST_SIZE} non-empty and distinct ids.
+     *
+     * @param ids            the ids to process
+     * @param blockProcessor the processor to invoke for each block
+     * @throws Exception in case of an error in the processor
+     */
+    private void processInBlocks(Collection<?> ids, Callback<List<Object>> blockProcessor) throws Exception {
+        List<Object> effectiveIds = ids.stream().filter(Strings::isFilled).distinct().collect(Collectors.toList());
+        for (int index = 0; index < effectiveIds.size(); index += BaseQuery.MAX_LIST_SIZE) {
+            blockProcessor.invoke(effectiveIds.subList(index,
+                                                       Math.min(index + BaseQuery.MAX_LIST_SIZE,
+                                                                effectiveIds.size())));
+        }
+    }
+
+    /**
+     * Selects all entities of the given type with one of the given ids using a single query.
+     *
+     * @param type     the type of entities to select
+     * @param ids      the ids of the entities to select (at most {@link BaseQuery#MAX_LIST_SIZE})
+     * @param consumer the consumer to be supplied with each entity which was found
+     * @param <E>      the generic type of the entities to select
+     */
+    @SuppressWarnings("unchecked")
+    protected <E extends B> void findBlock(Class<E> type, List<Object> ids, Consumer<E> consumer) {
+        Q query = select(type);
+        query.where(query.filters().oneInField(BaseEntity.ID, ids).build());
+        query.iterateAll(entity -> consumer.accept((E) entity));
+    }
+
     /**
      * Creates a query for the given type.
      *
@@ -554,4 +696,49 @@ public abstract class BaseMapper<B extends BaseEntity<?>, C extends Constraint,
      * @throws Exception in case of an error during a lookup
      */
     public abstract Value fetchField(Class<? extends B> type, Object id, Mapping field) throws Exception;
+
+    /**
+     * Provides the most efficient way of retrieving the field value of many entities at once.
+     * <p>
+     * Note that it is probably advisable to not call this method directly but rather
+     * {@link FieldLookupCache#lookupAll(Class, Collection, Mapping)} which provides a cache.
+     *
+     * @param type  the type of the entities
+     * @param ids   the ids of the entities
+     * @param field the field to resolve
+     * @return the field values, transformed into the appropriate type, keyed by the ids (as string). Ids of
+     * nonexistent entities are not contained in the map.
+     * @throws Exception in case of an error during a lookup
+     */
+    public Map<String, Value> fetchFields(Class<? extends B> type, Collection<?> ids, Mapping field)
+            throws Exception {
+        Map<String, Value> result = new HashMap<>();
+        processInBlocks(ids, block -> fetchFieldsBlock(type, block, field, result));
+        return result;
+    }
+
+    /**
+     * Retrieves the field value of all given entities.
+     * <p>
+     * By default, this uses {@link #fetchField(Class, Object, Mapping)} for each id. Mappers which can fetch many
+     * values with a single request should overwrite this method. As <tt>fetchField</tt> yields an empty value for
+     * nonexistent entities, empty values are not put into the result map. Therefore, an entity whose field is empty
+     * is treated like a nonexistent one (which yields the same result for callers of
+     * {@link #fetchFields(Class, Collection, Mapping)}).
+     *
+     * @param type   the type of the entities
+     * @param ids    the ids of the entities (at most {@link BaseQuery#MAX_LIST_SIZE})
+     * @param field  the field to resolve
+     * @param result the map to fill with the values of all existing entities, keyed by their id (as string)
+     * @throws Exception in case of an error during a lookup
+     */
+    protected void fetchFieldsBlock(Class<? extends B> type, List<Object> ids, Mapping field, Map<String, Value> result)
+            throws Exception {
+        for (Object id : ids) {
+            Value value = fetchField(type, id, field);
+            if (value.isFilled()) {
+                result.put(String.valueOf(id), value);
+            }
+        }
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.mixing;
+
+import sirius.db.mixing.annotations.Cached;
+import sirius.db.redis.Redis;
+import sirius.db.redis.Subscriber;
+import sirius.kernel.cache.Cache;
+import sirius.kernel.cache.CacheManager;
+import sirius.kernel.di.std.Part;
+import sirius.kernel.di.std.Register;
+import sirius.kernel.health.Exceptions;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Provides a second level cache for entities which wear a {@link Cached} annotation.
+ * <p>
+ * The cache is filled and used by {@link BaseMapper#find(Class, Object, ContextInfo...)} and invalidated whenever
+ * an entity of a cached type is created, updated or deleted via its mapper, a generated statement, a batch query or
+ * a bulk load. Changes made by executing plain SQL (e.g. via {@link sirius.db.jdbc.SQLQuery#executeUpdate()}) are
+ * not detected and require an explicit call to {@link #invalidate(EntityDescriptor)} (or
+ * {@link sirius.db.jdbc.OMA#invalidateCaches(EntityDescriptor)}). To keep things simple (and correct in the presence
+ * of concurrent loads), a modification invalidates all cached entities of the same type, by incrementing a generation
+ * counter per type. Invalidations are broadcast to all other nodes via redis (if configured).
+ */
+@Register(classes = {EntityCache.class, Subscriber.class})
+public class EntityCache implements Subscriber {
+
+    private static final String TOPIC = "mixing-entity-cache";
+
+    /**
+     * Represents a cached entity along with the generation of its type when it was loaded.
+     */
+    private static class Entry {
+        private final BaseEntity<?> entity;
+        private final long generation;
+
+        Entry(BaseEntity<?> entity, long generation) {
+            this.entity = entity;
+            this.generation = generation;
+        }
+    }
+
+    private final Cache<String, Entry> cache = CacheManager.createLocalCache("mixing-entities");
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    @Part
+    private Redis redis;
+
+    /**
+     * Returns the cached entity for the given type and id.
+     * <p>
+     * Note that the cached instance is shared and must therefore be copied before handing it out.
+     *
+     * @param ed  the descriptor of the entity type
+     * @param id  the id of the entity
+     * @param <E> the generic type of the entity
+     * @return the cached entity or <tt>null</tt> if no (valid) entity is present
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    protected <E extends BaseEntity<?>> E get(EntityDescriptor ed, Object id) {
+        Entry entry = cache.get(Mixing.getUniqueName(ed.getType(), id));
+        if (entry == null || entry.generation != currentGeneration(ed)) {
+            return null;
+        }
+
+        return (E) entry.entity;
+    }
+
+    /**
+     * Stores the given entity in the cache.
+     *
+     * @param ed         the descriptor of the entity type
+     * @param id         the id which was used to load the entity
+     * @param entity     the entity to store. This must not be handed out to any other caller
+     * @param generation the generation of the type which was determined <b>before</b> the entity was loaded
+     */
+    protected void put(EntityDescriptor ed, Object id, BaseEntity<?> entity, long generation) {
+        if (generation == currentGeneration(ed)) {
+            cache.put(Mixing.getUniqueName(ed.getType(), id), new Entry(entity, generation));
+        }
+    }
+
+    /**
+     * Returns the current generation of the given type.
+     *
+     * @param ed the descriptor of the entity type
+     * @return the current generation which has to be passed into {@link #put(EntityDescriptor, Object, BaseEntity,
+     * long)}
+     */
+    protected long currentGeneration(EntityDescriptor ed) {
+        AtomicLong generation = generations.get(ed.getType().getName());
+        return generation == null ? 0 : generation.get();
+    }
+
+    /**
+     * Invalidates all cached entities of the given type on this and all other nodes.
+     *
+     * @param ed the descriptor of the entity type
+     */
+    public void invalidate(EntityDescriptor ed) {
+        if (!ed.isCached()) {
+            return;
+        }
+
+        invalidateLocally(ed.getType().getName());
+        if (redis.isConfigured()) {
+            try {
+                redis.publish(TOPIC, ed.getType().getName());
+            } catch (Exception e) {
+                Exceptions.handle()
+                          .to(Mixing.LOG)
+                          .error(e)
+                          .withSystemErrorMessage(
+                                  "Failed to broadcast the invalidation of cached entities of %s: %s (%s)",
+                                  ed.getType().getName())
+                          .handle();
+            }
+        }
+    }
+
+    private void invalidateLocally(String typeName) {
+        generations.computeIfAbsent(typeName, ignored -> new AtomicLong()).incrementAndGet();
+    }
+
+    @Override
+    public String getTopic() {
+        return TOPIC;
+    }
+
+    @Override
+    public void onMessage(String message) {
+        invalidateLocally(message);
+    }
+}
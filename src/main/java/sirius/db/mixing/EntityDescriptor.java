@@ -14,6 +14,7 @@ import sirius.db.mixing.annotations.AfterDelete;
 import sirius.db.mixing.annotations.AfterSave;
 import sirius.db.mixing.annotations.BeforeDelete;
 import sirius.db.mixing.annotations.BeforeSave;
+import sirius.db.mixing.annotations.Cached;
 import sirius.db.mixing.annotations.ComplexDelete;
 import sirius.db.mixing.annotations.Mixin;
 import sirius.db.mixing.annotations.OnValidate;
@@ -60,6 +61,7 @@ import java.util.TreeMap;
 import java.util.function.BiConsumer;
 import java.util.function.BiPredicate;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
 import java.util.stream.Stream;
 
 /**
@@ -101,6 +103,13 @@ public class EntityDescriptor {
      */
     private boolean complexDelete;
 
+    /**
+     * Determines if deleting an entity of this type requires to invoke handlers.
+     *
+     * @see #hasDeleteHandlers()
+     */
+    private boolean deleteHandlers;
+
     /**
      * Contains all properties (defined via fields, composites or mixins)
      */
@@ -171,6 +180,7 @@ public class EntityDescriptor {
     protected Config legacyInfo;
     protected Map<String, String> columnAliases;
     protected boolean versioned;
+    protected boolean cached;
     protected BaseMapper<?, ?, ?> mapper;
 
     /**
@@ -185,6 +195,7 @@ public class EntityDescriptor {
                 getAnnotation(RelationName.class).map(RelationName::value).orElse(type.getSimpleName().toLowerCase());
         this.realm = getAnnotation(Realm.class).map(Realm::value).orElse(Mixing.DEFAULT_REALM);
         this.versioned = getAnnotation(Versioned.class).isPresent();
+        this.cached = getAnnotation(Cached.class).isPresent();
 
         try {
             this.referenceInstance = type.getDeclaredConstructor().newInstance();
@@ -313,6 +324,10 @@ public class EntityDescriptor {
      */
     protected void finishSetup() {
         getAnnotation(ComplexDelete.class).ifPresent(annotation -> complexDelete = annotation.value());
+        deleteHandlers = !beforeDeleteHandlers.isEmpty()
+                         || !afterDeleteHandlers.isEmpty()
+                         || !cascadeDeleteHandlers.isEmpty()
+                         || properties.values().stream().anyMatch(Property::handlesDeletes);
     }
 
     /**
@@ -485,6 +500,20 @@ public class EntityDescriptor {
         }
     }
 
+    /**
+     * Determines if any handler needs to be invoked when an entity of this type is deleted.
+     * <p>
+     * This checks for before, after and cascade delete handlers as well as for properties which react on deletes
+     * (see {@link Property#handlesDeletes()}). If none are present, entities can be deleted via a plain DELETE
+     * statement without being loaded first. This is determined once the entity model is completely linked, as
+     * other descriptors might add cascade handlers while being linked.
+     *
+     * @return <tt>true</tt> if deleting an entity requires to invoke handlers, <tt>false</tt> otherwise
+     */
+    public boolean hasDeleteHandlers() {
+        return deleteHandlers;
+    }
+
     /**
      * Adds a cascade handler for entities managed by this descriptor.
      *
@@ -492,6 +521,7 @@ public class EntityDescriptor {
      */
     public void addCascadeDeleteHandler(Consumer<Object> handler) {
         cascadeDeleteHandlers.add(handler);
+        deleteHandlers = true;
         markAsComplexDelete();
     }
 
@@ -502,6 +532,7 @@ public class EntityDescriptor {
      */
     public void addBeforeDeleteHandler(Consumer<Object> handler) {
         beforeDeleteHandlers.add(handler);
+        deleteHandlers = true;
     }
 
     /**
@@ -790,16 +821,49 @@ public class EntityDescriptor {
             String columnName = (alias == null) ? p.getPropertyName() : alias + "_" + p.getPropertyName();
             Value data = supplier.apply(columnName);
             if (data != null) {
-                p.setValueFromDatasource(mapperType, entity, data);
-                if (isBaseEntity(entity)) {
-                    asBaseEntity(entity).persistedData.put(p, p.getValueAsCopy(entity));
-                }
+                loadProperty(mapperType, entity, p, data);
             }
         }
 
         return entity;
     }
 
+    /**
+     * Creates an entity by only loading the given properties.
+     * <p>
+     * In contrast to {@link #make(Class, String, ValueSupplier)}, no column names are computed or resolved. Rather
+     * the supplier is asked for the value of each property by its index in the given list. This can be used by
+     * mappers which pre-compute how to read each property from a result.
+     *
+     * @param mapperType the mapper which is currently active
+     * @param properties the properties to load
+     * @param supplier   used to provide the value for the property with the given index in <tt>properties</tt>.
+     *                   May return <tt>null</tt> to skip a property
+     * @return an entity containing the values provided by the supplier
+     * @throws Exception in case of an error while building the entity
+     */
+    public Object make(Class<? extends BaseMapper<?, ?, ?>> mapperType,
+                       List<Property> properties,
+                       IntFunction<Value> supplier) throws Exception {
+        Object entity = type.getDeclaredConstructor().newInstance();
+
+        for (int i = 0; i < properties.size(); i++) {
+            Value data = supplier.apply(i);
+            if (data != null) {
+                loadProperty(mapperType, entity, properties.get(i), data);
+            }
+        }
+
+        return entity;
+    }
+
+    private void loadProperty(Class<? extends BaseMapper<?, ?, ?>> mapperType, Object entity, Property p, Value data) {
+        p.setValueFromDatasource(mapperType, entity, data);
+        if (isBaseEntity(entity)) {
+            asBaseEntity(entity).persistedData.put(p, p.getValueAsCopy(entity));
+        }
+    }
+
     /**
      * Applies legacy renaming rules to determine the effective property name based on the name generated by the
      * property.
@@ -1030,6 +1094,15 @@ public class EntityDescriptor {
         return versioned;
     }
 
+    /**
+     * Determines if entities of this type are kept in the {@link EntityCache}.
+     *
+     * @return <tt>true</tt> if the type wears a {@link Cached} annotation, <tt>false</tt> otherwise
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
     /**
      * Toggles the complexDelete flag to <tt>true</tt>.
      *
@@ -17,8 +17,13 @@ import sirius.kernel.di.std.Part;
 import sirius.kernel.di.std.Register;
 import sirius.kernel.health.Exceptions;
 
-import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
 /**
  * Provides a global cache for field values.
@@ -29,13 +34,62 @@ import javax.annotation.Nullable;
 @Register(classes = FieldLookupCache.class)
 public class FieldLookupCache {
 
-    private Cache<String, Value> cache = CacheManager.createLocalCache("mixing-field-lookup");
+    /**
+     * Represents the key of a cached value.
+     * <p>
+     * The id is kept as string so that e.g. <tt>42L</tt> and <tt>"42"</tt> share the same entry.
+     */
+    private static class LookupKey {
+        private final Class<?> type;
+        private final String id;
+        private final String field;
+
+        LookupKey(Class<?> type, Object id, Mapping field) {
+            this.type = type;
+            this.id = String.valueOf(id);
+            this.field = field.toString();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof LookupKey)) {
+                return false;
+            }
+
+            LookupKey that = (LookupKey) other;
+            return type.equals(that.type) && id.equals(that.id) && field.equals(that.field);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, id, field);
+        }
+
+        @Override
+        public String toString() {
+            return Mixing.getUniqueName(type, id) + "-" + field;
+        }
+    }
+
+    private Cache<LookupKey, Value> cache = CacheManager.createLocalCache("mixing-field-lookup");
+
+    /**
+     * Remembers lookups of nonexistent entities, so that stale IDs don't hit the database over and over again.
+     * <p>
+     * This cache is expected to be quite short lived, as an entity might be created with an ID which was previously
+     * unknown.
+     */
+    private Cache<LookupKey, Boolean> misses = CacheManager.createLocalCache("mixing-field-lookup-misses");
 
     @Part
     private Mixing mixing;
 
-    private <E extends BaseEntity<?>> Value load(Class<E> type, @Nullable Object id, Mapping field) throws Exception {
-        return mixing.getDescriptor(type).getMapper().fetchField(type, id, field);
+    private <E extends BaseEntity<?>> Map<String, Value> load(Class<E> type, Collection<?> ids, Mapping field)
+            throws Exception {
+        return mixing.getDescriptor(type).getMapper().fetchFields(type, ids, field);
     }
 
     /**
@@ -55,32 +109,81 @@ public class FieldLookupCache {
             return Value.EMPTY;
         }
 
-        try {
-            String cacheKey = getCacheKey(type, id, field);
-            Value result = cache.get(cacheKey);
-            if (result == null) {
-                result = load(type, id, field);
-                cache.put(cacheKey, result);
+        return lookupAll(type, Collections.singletonList(id), field).getOrDefault(id, Value.EMPTY);
+    }
+
+    /**
+     * Provides the values of the given entities and field.
+     * <p>
+     * All values which are present in the cache are directly served from there. All others are fetched using
+     * a single lookup (per {@link sirius.db.mixing.query.BaseQuery#MAX_LIST_SIZE} IDs) via
+     * {@link BaseMapper#fetchFields(Class, Collection, Mapping)}. Lookups for nonexistent entities are also
+     * remembered for a short period of time.
+     *
+     * @param type  the type of the entities to resolve
+     * @param ids   the ids of the entities to resolve
+     * @param field the field to resolve
+     * @param <E>   the generic type of the entities
+     * @return the values of the field for all given (non-empty) IDs. The value is empty if either the field is empty
+     * or if there is no entity with the given ID
+     */
+    public <E extends BaseEntity<?>> Map<Object, Value> lookupAll(Class<E> type, Collection<?> ids, Mapping field) {
+        Map<Object, Value> result = new HashMap<>();
+        List<Object> idsToLoad = new ArrayList<>();
+        for (Object id : ids) {
+            if (Strings.isFilled(id) && !result.containsKey(id)) {
+                LookupKey key = getCacheKey(type, id, field);
+                Value value = cache.get(key);
+                if (value != null) {
+                    result.put(id, value);
+                } else if (misses.get(key) != null) {
+                    result.put(id, Value.EMPTY);
+                } else {
+                    idsToLoad.add(id);
+                }
             }
+        }
 
-            return result;
+        if (!idsToLoad.isEmpty()) {
+            loadMissingValues(type, idsToLoad, field, result);
+        }
+
+        return result;
+    }
+
+    private <E extends BaseEntity<?>> void loadMissingValues(Class<E> type,
+                                                             List<Object> ids,
+                                                             Mapping field,
+                                                             Map<Object, Value> result) {
+        try {
+            Map<String, Value> values = load(type, ids, field);
+            for (Object id : ids) {
+                LookupKey key = getCacheKey(type, id, field);
+                Value value = values.get(key.id);
+                if (value != null) {
+                    cache.put(key, value);
+                    result.put(id, value);
+                } else {
+                    misses.put(key, Boolean.TRUE);
+                    result.put(id, Value.EMPTY);
+                }
+            }
         } catch (Exception e) {
             Exceptions.handle()
                       .to(Mixing.LOG)
                       .error(e)
-                      .withSystemErrorMessage(
-                              "An error occurred when performing a lookup on field %s for entity %s of type %s: %s (%s)",
-                              field,
-                              id,
-                              type)
+                      .withSystemErrorMessage("An error occurred when performing a lookup on field %s for %s "
+                                              + "entities of type %s: %s (%s)",
+                                              field,
+                                              ids.size(),
+                                              type)
                       .handle();
-            return Value.EMPTY;
+            ids.forEach(id -> result.put(id, Value.EMPTY));
         }
     }
 
-    @Nonnull
-    private <E extends BaseEntity<?>> String getCacheKey(Class<E> type, Object id, Mapping field) {
-        return Mixing.getUniqueName(type, id) + "-" + field;
+    private <E extends BaseEntity<?>> LookupKey getCacheKey(Class<E> type, Object id, Mapping field) {
+        return new LookupKey(type, id, field);
     }
 
     /**
@@ -728,6 +728,34 @@ public abstract class Property extends Composable {
     protected void onAfterSave(Object entity) {
     }
 
+    /**
+     * Determines if this property has to be notified when an entity is deleted.
+     * <p>
+     * By default, this checks if {@link #onBeforeDelete(Object)} or {@link #onAfterDelete(Object)} is overridden.
+     * If so, entities have to be loaded and deleted one by one (see {@link EntityDescriptor#hasDeleteHandlers()}).
+     * This is only evaluated once per descriptor, when the entity model is set up.
+     *
+     * @return <tt>true</tt> if the property reacts on deleted entities, <tt>false</tt> otherwise
+     */
+    protected boolean handlesDeletes() {
+        return overridesCallback("onBeforeDelete") || overridesCallback("onAfterDelete");
+    }
+
+    private boolean overridesCallback(String name) {
+        Class<?> current = getClass();
+        while (current != null && current != Property.class) {
+            try {
+                current.getDeclaredMethod(name, Object.class);
+                return true;
+            } catch (NoSuchMethodException e) {
+                Exceptions.ignore(e);
+            }
+            current = current.getSuperclass();
+        }
+
+        return false;
+    }
+
     /**
      * Invoked before an entity is deleted from the database
      *
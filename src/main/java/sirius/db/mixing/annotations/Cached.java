@@ -0,0 +1,28 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.mixing.annotations;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an entity as cached, so that {@link sirius.db.mixing.BaseMapper#find(Class, Object,
+ * sirius.db.mixing.ContextInfo...)} is served from the {@link sirius.db.mixing.EntityCache second level cache}.
+ * <p>
+ * As each modification invalidates all cached entities of the type, this should only be used for entities which
+ * are read frequently but modified rarely.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cached {
+}
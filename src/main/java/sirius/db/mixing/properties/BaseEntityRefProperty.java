@@ -26,6 +26,11 @@ import sirius.kernel.health.Exceptions;
 import sirius.kernel.nls.NLS;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 /**
@@ -194,6 +199,38 @@ public abstract class BaseEntityRefProperty<I, E extends BaseEntity<I>, R extend
         }
     }
 
+    /**
+     * Loads the referenced entities of all given entities at once and fills them into the references.
+     * <p>
+     * References which are empty or which already have a value are skipped. All remaining ids are resolved via
+     * {@link BaseMapper#findAll(Class, java.util.Collection, java.util.function.Consumer)}. Note that entities which
+     * reference the same id will share the same referenced instance.
+     *
+     * @param entities the entities (which own this property) to fetch the referenced entities for
+     */
+    @SuppressWarnings("unchecked")
+    public void prefetch(Collection<?> entities) {
+        Map<Object, List<R>> refsById = new HashMap<>();
+        for (Object entity : entities) {
+            R ref = getEntityRef(accessPath.apply(entity));
+            if (!ref.isValueLoaded()) {
+                refsById.computeIfAbsent(ref.getId(), ignored -> new ArrayList<>()).add(ref);
+            }
+        }
+
+        if (refsById.isEmpty()) {
+            return;
+        }
+
+        getReferencedDescriptor().getMapper()
+                                  .findAll((Class<E>) getReferencedType(), refsById.keySet(), referencedEntity -> {
+                                      List<R> refs = refsById.get(referencedEntity.getId());
+                                      if (refs != null) {
+                                          refs.forEach(ref -> ref.setValue(referencedEntity));
+                                      }
+                                  });
+    }
+
     @Override
     public void link() {
         super.link();
@@ -10,8 +10,11 @@ package sirius.db.mixing.query;
 
 import sirius.db.mixing.BaseEntity;
 import sirius.db.mixing.EntityDescriptor;
+import sirius.db.mixing.Mapping;
 import sirius.db.mixing.Mixing;
+import sirius.db.mixing.properties.BaseEntityRefProperty;
 import sirius.kernel.commons.Limit;
+import sirius.kernel.commons.Strings;
 import sirius.kernel.commons.ValueHolder;
 import sirius.kernel.di.std.Part;
 import sirius.kernel.health.Exceptions;
@@ -37,6 +40,12 @@ public abstract class BaseQuery<Q, E extends BaseEntity<?>> {
      */
     public static final int MAX_LIST_SIZE = 1000;
 
+    /**
+     * Contains the number of entities which are buffered so that their references can be {@link #prefetch(Mapping)
+     * prefetched} at once.
+     */
+    private static final int PREFETCH_BLOCK_SIZE = 250;
+
     /**
      * Contains the max number of items to fetch (or 0 for "unlimited")
      */
@@ -52,6 +61,11 @@ public abstract class BaseQuery<Q, E extends BaseEntity<?>> {
      */
     protected boolean forceFail;
 
+    /**
+     * Contains the reference fields for which the referenced entities are to be prefetched.
+     */
+    protected List<Mapping> prefetches = new ArrayList<>();
+
     @Part
     protected static Mixing mixing;
 
@@ -128,6 +142,73 @@ public abstract class BaseQuery<Q, E extends BaseEntity<?>> {
         return (Q) this;
     }
 
+    /**
+     * Loads the entities referenced by the given field along with the results of this query.
+     * <p>
+     * Instead of resolving each reference once it is accessed (which results in one lookup per entity), the results
+     * are processed in blocks and all references of a block are resolved using a single lookup per referenced type
+     * (see {@link sirius.db.mixing.BaseMapper#findAll(Class, java.util.Collection, Consumer)}). This also works for
+     * large results processed via {@link #iterate(Predicate)}.
+     *
+     * @param refField the reference field to prefetch. This has to be an entity reference like
+     *                 {@link sirius.db.mixing.types.BaseEntityRef}
+     * @return the query itself for fluent method calls
+     */
+    @SuppressWarnings("unchecked")
+    public Q prefetch(Mapping refField) {
+        if (!(descriptor.getProperty(refField) instanceof BaseEntityRefProperty)) {
+            throw new IllegalArgumentException(Strings.apply("Cannot prefetch '%s' of %s as it is not a reference!",
+                                                             refField,
+                                                             descriptor.getType().getName()));
+        }
+
+        prefetches.add(refField);
+        return (Q) this;
+    }
+
+    /**
+     * Invokes the given iteration and performs all {@link #prefetch(Mapping) prefetches} before the results are
+     * handed to the given handler.
+     *
+     * @param handler   the handler to supply with the results
+     * @param iteration the actual iteration of the results which is invoked with the (wrapped) handler
+     */
+    protected void iterateWithPrefetches(Predicate<E> handler, Consumer<Predicate<E>> iteration) {
+        if (prefetches.isEmpty()) {
+            iteration.accept(handler);
+            return;
+        }
+
+        List<E> block = new ArrayList<>(PREFETCH_BLOCK_SIZE);
+        iteration.accept(entity -> {
+            block.add(entity);
+            return block.size() < PREFETCH_BLOCK_SIZE || processPrefetchBlock(block, handler);
+        });
+        processPrefetchBlock(block, handler);
+    }
+
+    private boolean processPrefetchBlock(List<E> block, Predicate<E> handler) {
+        try {
+            if (block.isEmpty()) {
+                return true;
+            }
+
+            for (Mapping refField : prefetches) {
+                ((BaseEntityRefProperty<?, ?, ?>) descriptor.getProperty(refField)).prefetch(block);
+            }
+
+            for (E entity : block) {
+                if (!handler.test(entity)) {
+                    return false;
+                }
+            }
+
+            return true;
+        } finally {
+            block.clear();
+        }
+    }
+
     /**
      * Calls the given function on all items in the result, as long as it returns <tt>true</tt>.
      * <p>
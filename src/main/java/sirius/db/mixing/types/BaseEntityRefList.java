@@ -10,7 +10,12 @@ package sirius.db.mixing.types;
 
 import sirius.db.mixing.BaseEntity;
 import sirius.db.mixing.ContextInfo;
+import sirius.db.mixing.Mixing;
+import sirius.kernel.di.std.Part;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Stream;
 
@@ -29,6 +34,9 @@ public abstract class BaseEntityRefList<E extends BaseEntity<String>, L extends
     protected BaseEntityRef.OnDelete deleteHandler;
     protected Class<E> type;
 
+    @Part
+    private static Mixing mixing;
+
     protected BaseEntityRefList(Class<E> type, BaseEntityRef.OnDelete deleteHandler) {
         this.type = type;
         this.deleteHandler = deleteHandler;
@@ -93,19 +101,44 @@ public abstract class BaseEntityRefList<E extends BaseEntity<String>, L extends
     /**
      * Retruns all entity in the list by resolving them against the database.
      * <p>
-     * This will perform N uncached lookups against the database - use with caution.
+     * All entities are resolved at once (see {@link #resolveAll(List, ContextInfo...)}), so that this only performs
+     * one lookup per {@link sirius.db.mixing.query.BaseQuery#MAX_LIST_SIZE} IDs. Note that these lookups are not
+     * cached.
      *
      * @param context the lookup context
-     * @return a stream of all entities in the list, wrapped as optional. May contain empty optionals for stale IDs
+     * @return a stream of all entities in the list (in the order of their IDs), wrapped as optional. May contain empty
+     * optionals for stale IDs
      */
     public Stream<Optional<E>> fetchAll(ContextInfo... context) {
-        return data().stream().map(id -> resolve(id, context));
+        List<String> ids = data();
+        if (ids.size() <= 1) {
+            return ids.stream().map(id -> resolve(id, context));
+        }
+
+        Map<String, E> entities = resolveAll(ids, context);
+        return ids.stream().map(id -> Optional.ofNullable(entities.get(id)));
+    }
+
+    /**
+     * Resolves all given IDs into entity instances.
+     * <p>
+     * By default, this uses {@link sirius.db.mixing.BaseMapper#findAll(Class, java.util.Collection,
+     * java.util.function.Consumer)} of the appropriate mapper.
+     *
+     * @param ids     the ids to resolve
+     * @param context the context used for resolving (routing etc.)
+     * @return a map of all entities which exist, keyed by their ID
+     */
+    protected Map<String, E> resolveAll(List<String> ids, ContextInfo... context) {
+        Map<String, E> entities = new HashMap<>();
+        mixing.getDescriptor(type).getMapper().findAll(type, ids, entity -> entities.put(entity.getId(), entity));
+        return entities;
     }
 
     /**
      * Retruns all entity in the list by resolving them against the database.
      * <p>
-     * This will perform N uncached lookups against the database - use with caution.
+     * This resolves the entities just like {@link #fetchAll(ContextInfo...)}.
      *
      * @param context the lookup context
      * @return a stream of all entities in the list which also exist in the database
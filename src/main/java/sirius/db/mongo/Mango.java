@@ -31,6 +31,8 @@ import sirius.kernel.health.Exceptions;
 
 import java.util.HashSet;
 import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Function;
@@ -142,7 +144,7 @@ public class Mango extends BaseMapper<MongoEntity, MongoConstraint, MongoQuery<?
         if (force || updatedRows > 0) {
             return;
         }
-        if (find(entity.getClass(), entity.getId()).isPresent()) {
+        if (findUncached(entity.getClass(), entity.getId()).isPresent()) {
             throw new OptimisticLockException();
         } else {
             throw Exceptions.handle()
@@ -204,10 +206,17 @@ public class Mango extends BaseMapper<MongoEntity, MongoConstraint, MongoQuery<?
         }
     }
 
+    @Override
+    protected <E extends MongoEntity> E copyEntity(E entity) throws Exception {
+        E copy = super.copyEntity(entity);
+        copy.setVersion(entity.getVersion());
+        return copy;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     protected <E extends MongoEntity> Optional<E> findEntity(E entity) {
-        return find((Class<E>) entity.getClass(), entity.getId());
+        return findUncached((Class<E>) entity.getClass(), entity.getId());
     }
 
     @Override
@@ -363,6 +372,21 @@ public class Mango extends BaseMapper<MongoEntity, MongoConstraint, MongoQuery<?
                     .orElse(Value.EMPTY);
     }
 
+    @Override
+    protected void fetchFieldsBlock(Class<? extends MongoEntity> type,
+                                    List<Object> ids,
+                                    Mapping field,
+                                    Map<String, Value> result) throws Exception {
+        EntityDescriptor descriptor = mixing.getDescriptor(type);
+        Property property = descriptor.getProperty(field);
+        mongo.find(descriptor.getRealm())
+             .selectFields(MongoEntity.ID, field)
+             .where(QueryBuilder.FILTERS.oneInField(MongoEntity.ID, ids).build())
+             .allIn(descriptor.getRelationName(),
+                    doc -> result.put(doc.getString(MongoEntity.ID),
+                                      Value.of(property.transformFromDatasource(getClass(), doc.get(field)))));
+    }
+
     @Override
     protected int determineRetryTimeoutFactor() {
         return 50;
@@ -135,7 +135,9 @@ public class MongoQuery<E extends MongoEntity> extends Query<MongoQuery<E>, E, M
         if (forceFail) {
             return;
         }
-        finder.eachIn(descriptor.getRelationName(), doc -> resultHandler.test(Mango.make(descriptor, doc)));
+        iterateWithPrefetches(resultHandler,
+                              handler -> finder.eachIn(descriptor.getRelationName(),
+                                                       doc -> handler.test(Mango.make(descriptor, doc))));
     }
 
     @Override
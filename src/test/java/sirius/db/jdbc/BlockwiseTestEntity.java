@@ -0,0 +1,43 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc;
+
+import sirius.db.mixing.Mapping;
+import sirius.db.mixing.annotations.Length;
+import sirius.db.mixing.annotations.NullAllowed;
+
+/**
+ * Testentity for iterating blockwise over nullable sort columns in SmartQuerySpec
+ */
+public class BlockwiseTestEntity extends SQLEntity {
+
+    public static final Mapping NAME = Mapping.named("name");
+    @Length(50)
+    private String name;
+
+    public static final Mapping SORT_KEY = Mapping.named("sortKey");
+    @NullAllowed
+    private Integer sortKey;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Integer getSortKey() {
+        return sortKey;
+    }
+
+    public void setSortKey(Integer sortKey) {
+        this.sortKey = sortKey;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc
+
+import sirius.kernel.BaseSpecification
+import sirius.kernel.di.std.Part
+
+import java.sql.Connection
+
+class ConnectionLeakDetectorSpec extends BaseSpecification {
+
+    @Part
+    private static Databases dbs
+
+    @Part
+    private static OMA oma
+
+    def "connections held longer than the threshold are suspected leaks"() {
+        given: "the test config uses a leak detection threshold of one second"
+        Database db = dbs.get("test")
+        when:
+        Connection regular = db.getConnection()
+        Connection longRunning = db.getLongRunningConnection()
+        then:
+        !db.getSuspectedLeaks().contains(regular)
+        when:
+        Thread.sleep(1500)
+        then: "only the regular connection is reported"
+        db.getSuspectedLeaks().contains(regular)
+        !db.getSuspectedLeaks().contains(longRunning)
+        when:
+        regular.close()
+        longRunning.close()
+        then:
+        !db.getSuspectedLeaks().contains(regular)
+    }
+
+    def "connections used to stream query results are not suspected leaks"() {
+        given:
+        Database db = dbs.get("test")
+        TestEntity entity = new TestEntity()
+        entity.setFirstname("Streaming")
+        entity.setLastname("Leak")
+        oma.update(entity)
+        boolean streamingConnectionOpen = false
+        boolean streamingConnectionReported = true
+        when:
+        oma.select(TestEntity.class).eq(SQLEntity.ID, entity.getId()).iterateAll({ e ->
+            Thread.sleep(1500)
+            streamingConnectionOpen = db.getOpenConnections().any { connection -> connection.isStreaming() }
+            streamingConnectionReported = db.getSuspectedLeaks().any { connection -> connection.isStreaming() }
+        })
+        then:
+        streamingConnectionOpen
+        !streamingConnectionReported
+    }
+
+    def "each suspected leak is reported once"() {
+        given:
+        Database db = dbs.get("test")
+        ConnectionLeakDetector detector = new ConnectionLeakDetector()
+        Connection connection = db.getConnection()
+        when:
+        Thread.sleep(1500)
+        detector.runTimer()
+        then: "the detector has already marked the connection as reported"
+        !((WrappedConnection) connection).markLeakReported()
+        cleanup:
+        connection.close()
+    }
+}
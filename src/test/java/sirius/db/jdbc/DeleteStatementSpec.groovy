@@ -54,4 +54,23 @@ class DeleteStatementSpec extends BaseSpecification {
         oma.select(GeneratedStatementTestEntity.class).count() == 0
     }
 
+    def "a chunked delete statement deletes all matching entities"() {
+        given:
+        for (int i = 0; i < 10; i++) {
+            GeneratedStatementTestEntity e = new GeneratedStatementTestEntity()
+            e.setTestNumber(4713)
+            e.setValue(String.valueOf(i))
+            oma.update(e)
+        }
+        when:
+        int changes = oma.deleteStatement(GeneratedStatementTestEntity.class).
+                where(GeneratedStatementTestEntity.TEST_NUMBER, 4713).
+                withChunkSize(3).
+                executeUpdate()
+        then:
+        changes == 10
+        and:
+        oma.select(GeneratedStatementTestEntity.class).eq(GeneratedStatementTestEntity.TEST_NUMBER, 4713).count() == 0
+    }
+
 }
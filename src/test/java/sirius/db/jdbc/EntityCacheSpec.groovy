@@ -0,0 +1,156 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc
+
+import sirius.db.jdbc.batch.BatchContext
+import sirius.db.jdbc.batch.InsertQuery
+import sirius.db.jdbc.batch.UpdateQuery
+import sirius.db.mixing.Mixing
+import sirius.kernel.BaseSpecification
+import sirius.kernel.di.std.Part
+
+import java.time.Duration
+
+class EntityCacheSpec extends BaseSpecification {
+
+    @Part
+    private static OMA oma
+
+    /**
+     * Renames the given entity by plain SQL, which bypasses all caches.
+     */
+    private static void renameBehindTheBack(CachedTestEntity entity, String name) {
+        String table = entity.getDescriptor().getRelationName()
+        oma.getDatabase(Mixing.DEFAULT_REALM).
+                createQuery("UPDATE " + table + ' SET name = ${name} WHERE id = ${id}').
+                set("name", name).
+                set("id", entity.getId()).
+                executeUpdate()
+    }
+
+    private static CachedTestEntity createEntity(String name) {
+        CachedTestEntity entity = new CachedTestEntity()
+        entity.setName(name)
+        oma.update(entity)
+        return entity
+    }
+
+    def "find is served from the cache"() {
+        given:
+        CachedTestEntity entity = createEntity("Cached")
+        oma.findOrFail(CachedTestEntity.class, entity.getId())
+        when:
+        renameBehindTheBack(entity, "Changed")
+        then:
+        oma.findOrFail(CachedTestEntity.class, entity.getId()).getName() == "Cached"
+        when:
+        oma.invalidateCaches(entity.getDescriptor())
+        then:
+        oma.findOrFail(CachedTestEntity.class, entity.getId()).getName() == "Changed"
+    }
+
+    def "refreshing an entity bypasses the cache"() {
+        given:
+        CachedTestEntity entity = createEntity("BeforeRefresh")
+        oma.findOrFail(CachedTestEntity.class, entity.getId())
+        when:
+        renameBehindTheBack(entity, "AfterRefresh")
+        then:
+        oma.refreshOrFail(entity).getName() == "AfterRefresh"
+        and:
+        oma.tryRefresh(entity).getName() == "AfterRefresh"
+    }
+
+    def "deleting an entity which is only present in the cache succeeds"() {
+        given:
+        CachedTestEntity entity = createEntity("DeletedBehindTheBack")
+        oma.findOrFail(CachedTestEntity.class, entity.getId())
+        when:
+        oma.getDatabase(Mixing.DEFAULT_REALM).
+                createQuery("DELETE FROM " + entity.getDescriptor().getRelationName() + ' WHERE id = ${id}').
+                set("id", entity.getId()).
+                executeUpdate()
+        and:
+        oma.delete(entity)
+        then:
+        noExceptionThrown()
+    }
+
+    def "the cache hands out copies of the cached entity"() {
+        given:
+        CachedTestEntity entity = createEntity("Original")
+        when:
+        CachedTestEntity found = oma.findOrFail(CachedTestEntity.class, entity.getId())
+        found.setName("Modified")
+        then:
+        oma.findOrFail(CachedTestEntity.class, entity.getId()).getName() == "Original"
+        and:
+        !oma.findOrFail(CachedTestEntity.class, entity.getId()).is(oma.findOrFail(CachedTestEntity.class,
+                                                                                    entity.getId()))
+    }
+
+    def "updating an entity invalidates the cache"() {
+        given:
+        CachedTestEntity entity = createEntity("Before")
+        oma.findOrFail(CachedTestEntity.class, entity.getId())
+        when:
+        entity.setName("After")
+        oma.update(entity)
+        then:
+        oma.findOrFail(CachedTestEntity.class, entity.getId()).getName() == "After"
+    }
+
+    def "batch updates invalidate the cache"() {
+        given:
+        CachedTestEntity entity = createEntity("BeforeBatch")
+        oma.findOrFail(CachedTestEntity.class, entity.getId())
+        BatchContext ctx = new BatchContext({ -> "Test" }, Duration.ofMinutes(2))
+        when:
+        UpdateQuery<CachedTestEntity> update = ctx.updateByIdQuery(CachedTestEntity.class, CachedTestEntity.NAME)
+        entity.setName("AfterBatch")
+        update.update(entity, true, true)
+        update.commit()
+        then:
+        oma.findOrFail(CachedTestEntity.class, entity.getId()).getName() == "AfterBatch"
+        cleanup:
+        ctx.close()
+    }
+
+    def "instantly executed batch queries invalidate the cache"() {
+        given:
+        CachedTestEntity entity = createEntity("BeforeInstant")
+        oma.findOrFail(CachedTestEntity.class, entity.getId())
+        BatchContext ctx = new BatchContext({ -> "Test" }, Duration.ofMinutes(2))
+        when:
+        UpdateQuery<CachedTestEntity> update = ctx.updateByIdQuery(CachedTestEntity.class, CachedTestEntity.NAME)
+        entity.setName("AfterInstant")
+        update.update(entity, true, false)
+        then:
+        oma.findOrFail(CachedTestEntity.class, entity.getId()).getName() == "AfterInstant"
+        cleanup:
+        ctx.close()
+    }
+
+    def "batch inserts invalidate cached queries"() {
+        given:
+        createEntity("CachedQuery")
+        long count = oma.select(CachedTestEntity.class).cached(Duration.ofMinutes(1)).count()
+        BatchContext ctx = new BatchContext({ -> "Test" }, Duration.ofMinutes(2))
+        when:
+        InsertQuery<CachedTestEntity> insert = ctx.insertQuery(CachedTestEntity.class, false)
+        CachedTestEntity entity = new CachedTestEntity()
+        entity.setName("Inserted")
+        insert.insert(entity, false, true)
+        insert.commit()
+        then:
+        oma.select(CachedTestEntity.class).cached(Duration.ofMinutes(1)).count() == count + 1
+        cleanup:
+        ctx.close()
+    }
+}
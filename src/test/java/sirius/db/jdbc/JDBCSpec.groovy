@@ -122,6 +122,21 @@ class JDBCSpec extends BaseSpecification {
         qry.queryList().size() == 1
     }
 
+    def "the statement compiler re-uses a parsed query with different parameters"() {
+        given:
+        def db = dbs.get("test")
+        def sql = 'SELECT * FROM test_a WHERE 1=1[ AND a = ${filter}][ AND b = ${b}]'
+        when:
+        def misses = Databases.numTemplateCacheMisses.getCount()
+        def all = db.createQuery(sql).queryList()
+        def filtered = db.createQuery(sql).set("filter", "Hello").queryList()
+        then:
+        all.size() == 2
+        filtered.size() == 1
+        and: "the query was parsed at most once"
+        Databases.numTemplateCacheMisses.getCount() - misses <= 1
+    }
+
     def "the statement compiler expands hash-fields correctly"() {
         given:
         def db = dbs.get("test")
@@ -131,6 +146,19 @@ class JDBCSpec extends BaseSpecification {
         qry.queryList().size() == 1
     }
 
+    def "prepared statements are pooled if enabled"() {
+        given:
+        def db = dbs.get("test")
+        when:
+        def pooled = db.getNumPooledPreparedStatements()
+        and:
+        db.createQuery('SELECT * FROM test_a WHERE a = ${a}').set("a", "Hello").queryList()
+        db.createQuery('SELECT * FROM test_a WHERE a = ${a}').set("a", "Hello").queryList()
+        then:
+        db.isPoolingPreparedStatements()
+        db.getNumPooledPreparedStatements() > pooled
+    }
+
     def "SQLQuery#iterate is evaluated correctly"() {
         given:
         def db = dbs.get("test")
@@ -0,0 +1,81 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc
+
+import sirius.kernel.BaseSpecification
+
+class LatencyHistogramSpec extends BaseSpecification {
+
+    def "latencies are sorted into the bucket with the next higher limit"() {
+        given:
+        LatencyHistogram histogram = new LatencyHistogram()
+        when:
+        histogram.record(millis)
+        then:
+        histogram.getCount(bucket) == 1
+        histogram.getBucketLabel(bucket) == label
+        where:
+        millis | bucket | label
+        0      | 0      | "<= 1 ms"
+        1      | 0      | "<= 1 ms"
+        2      | 1      | "<= 5 ms"
+        5000   | 8      | "<= 5000 ms"
+        5001   | 9      | "> 5000 ms"
+    }
+
+    def "totals, average and maximum are computed"() {
+        given:
+        LatencyHistogram histogram = new LatencyHistogram()
+        when:
+        histogram.record(10)
+        histogram.record(30)
+        then:
+        histogram.getNumberOfBuckets() == 10
+        histogram.getTotalCount() == 2
+        histogram.getTotalMillis() == 40
+        histogram.getAverageMillis() == 20d
+        histogram.getMaxMillis() == 30
+    }
+
+    def "percentiles are estimated by the upper bound of their bucket"() {
+        given:
+        LatencyHistogram histogram = new LatencyHistogram()
+        when:
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i)
+        }
+        then:
+        histogram.getPercentileMillis(10) == 10
+        histogram.getPercentileMillis(50) == 50
+        histogram.getPercentileMillis(99) == 100
+        histogram.getPercentileMillis(100) == 100
+    }
+
+    def "percentiles never exceed the longest latency"() {
+        given:
+        LatencyHistogram histogram = new LatencyHistogram()
+        when:
+        histogram.record(3)
+        then:
+        histogram.getPercentileMillis(99) == 3
+        when:
+        histogram.record(7000)
+        then: "the last bucket has no upper bound, therefore the maximum is reported"
+        histogram.getPercentileMillis(99) == 7000
+    }
+
+    def "an empty histogram reports zero"() {
+        given:
+        LatencyHistogram histogram = new LatencyHistogram()
+        expect:
+        histogram.getPercentileMillis(50) == 0
+        histogram.getAverageMillis() == 0d
+        histogram.getTotalCount() == 0
+    }
+}
@@ -236,4 +236,52 @@ class OMASpec extends BaseSpecification {
         !e.hasJustBeenCreated()
     }
 
+    def "updateAll inserts and updates entities in batches"() {
+        given:
+        List<TestEntity> entities = []
+        for (int i = 0; i < 10; i++) {
+            TestEntity e = new TestEntity()
+            e.setFirstname("Batch" + i)
+            e.setLastname("Entity")
+            e.setAge(i)
+            entities.add(e)
+        }
+        when:
+        oma.updateAll(entities)
+        then:
+        entities.every { !it.isNew() }
+        and:
+        oma.findOrFail(TestEntity.class, entities.get(5).getId()).getFirstname() == "Batch5"
+        when:
+        entities.each { it.setAge(it.getAge() + 100) }
+        oma.updateAll(entities)
+        then:
+        oma.findOrFail(TestEntity.class, entities.get(5).getId()).getAge() == 105
+    }
+
+    def "tryUpdateAll updates the versions of all written entities if one of them is outdated"() {
+        given:
+        List<SQLLockedTestEntity> entities = []
+        for (int i = 0; i < 3; i++) {
+            SQLLockedTestEntity e = new SQLLockedTestEntity()
+            e.setValue("Initial" + i)
+            entities.add(e)
+        }
+        oma.updateAll(entities)
+        and: "one entity is modified concurrently"
+        SQLLockedTestEntity concurrent = oma.refreshOrFail(entities.get(1))
+        concurrent.setValue("Concurrent")
+        oma.update(concurrent)
+        when:
+        entities.each { it.setValue("Modified") }
+        oma.tryUpdateAll(entities)
+        then:
+        thrown(OptimisticLockException)
+        and: "the other entities have been written and their versions match the database"
+        oma.refreshOrFail(entities.get(0)).getValue() == "Modified"
+        oma.refreshOrFail(entities.get(0)).getVersion() == entities.get(0).getVersion()
+        oma.refreshOrFail(entities.get(2)).getVersion() == entities.get(2).getVersion()
+        and: "the concurrent modification is kept"
+        oma.refreshOrFail(entities.get(1)).getValue() == "Concurrent"
+    }
 }
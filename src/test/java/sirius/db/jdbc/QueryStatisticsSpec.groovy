@@ -0,0 +1,62 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc
+
+import sirius.kernel.BaseSpecification
+import sirius.kernel.di.std.Part
+
+import java.sql.Connection
+import java.sql.PreparedStatement
+
+class QueryStatisticsSpec extends BaseSpecification {
+
+    @Part
+    private static Databases dbs
+
+    def "fingerprint normalizes literals and parameter lists"() {
+        expect:
+        QueryStatistics.fingerprint(sql) == fingerprint
+        where:
+        sql                                                             | fingerprint
+        "SELECT * FROM test WHERE id = 42"                              | "SELECT * FROM test WHERE id = ?"
+        "SELECT * FROM test WHERE name = 'O''Brien' AND value > 1.5"    | "SELECT * FROM test WHERE name = ? AND value > ?"
+        "SELECT * FROM test WHERE id IN (1, 2,3)"                       | "SELECT * FROM test WHERE id IN (?+)"
+        "SELECT * FROM test WHERE id IN (?, ?)"                         | "SELECT * FROM test WHERE id IN (?+)"
+        "INSERT INTO test (a, b) VALUES (?, ?), (?, ?),\n (?, ?)"       | "INSERT INTO test (a, b) VALUES (?+), ..."
+        "SELECT col1 FROM table2"                                       | "SELECT col1 FROM table2"
+    }
+
+    def "batch executions are recorded along with the number of modified rows"() {
+        given:
+        Database db = dbs.get("test")
+        db.createQuery("CREATE TABLE IF NOT EXISTS statistics_batch(a INT)").executeUpdate()
+        String sql = "INSERT INTO statistics_batch (a) VALUES (?)"
+        when:
+        Connection c = db.getConnection()
+        try {
+            PreparedStatement stmt = c.prepareStatement(sql)
+            for (int i = 0; i < 5; i++) {
+                stmt.setInt(1, i)
+                stmt.addBatch()
+            }
+            stmt.executeBatch()
+            stmt.close()
+        } finally {
+            c.close()
+        }
+        and:
+        QueryStatistics.Entry entry = QueryStatistics.getTopEntries(Integer.MAX_VALUE).find {
+            it.getFingerprint() == QueryStatistics.fingerprint(sql)
+        }
+        then:
+        entry != null
+        entry.getCalls() >= 1
+        entry.getRows() >= 5
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc
+
+import sirius.db.jdbc.schema.Schema
+import sirius.kernel.BaseSpecification
+import sirius.kernel.di.std.Part
+
+import java.time.Duration
+
+class ReplicaSetSpec extends BaseSpecification {
+
+    @Part
+    private static Databases databases
+
+    @Part
+    private static Schema schema
+
+    @Part
+    private static OMA oma
+
+    /**
+     * Creates a replica which is never probed so that its state can be controlled by the test.
+     * <p>
+     * As only the identity of the selected database is checked, any database can act as replica.
+     */
+    private static ReplicaSet.Replica createReplica() {
+        return new ReplicaSet.Replica(databases.get("clickhouse"), 1) {
+            @Override
+            protected void probe() {
+            }
+        }
+    }
+
+    def "a replica is not used before it has been probed"() {
+        given:
+        Database primary = databases.get("test")
+        ReplicaSet.Replica replica = createReplica()
+        ReplicaSet set = new ReplicaSet(primary, [replica], Duration.ofSeconds(10), Duration.ofSeconds(30))
+        expect:
+        !replica.isHealthy()
+        set.selectDatabase(Duration.ofSeconds(10)) == primary
+    }
+
+    def "reads are routed based on the accepted staleness"() {
+        given:
+        Database primary = databases.get("test")
+        ReplicaSet.Replica replica = createReplica()
+        ReplicaSet set = new ReplicaSet(primary, [replica], Duration.ofSeconds(10), Duration.ofSeconds(30))
+        when:
+        replica.updateState(true, Duration.ofSeconds(2))
+        then: "the replica is used if its lag is acceptable"
+        set.selectDatabase(Duration.ofSeconds(5)) == replica.getDatabase()
+        and: "the default staleness is used if no hint is given"
+        set.selectDatabase(null) == replica.getDatabase()
+        and: "the primary is used if the replica lags behind too far"
+        set.selectDatabase(Duration.ofSeconds(1)) == primary
+        and: "a staleness of zero enforces the primary"
+        set.selectDatabase(Duration.ZERO) == primary
+        when:
+        replica.updateState(true, Duration.ofSeconds(60))
+        then: "a replica beyond the maximal replication lag is never used"
+        set.selectDatabase(Duration.ofMinutes(5)) == primary
+        when:
+        replica.updateState(false, Duration.ZERO)
+        then: "an unhealthy replica is never used"
+        set.selectDatabase(Duration.ofSeconds(5)) == primary
+    }
+
+    def "readAfterWrite enforces the primary database even if a replica is available"() {
+        given:
+        Database primary = oma.getDatabase("mixing")
+        ReplicaSet.Replica replica = createReplica()
+        replica.updateState(true, Duration.ZERO)
+        ReplicaSet set = new ReplicaSet(primary, [replica], Duration.ofSeconds(10), Duration.ofSeconds(30))
+        and:
+        ReplicaSet previous = schema.replicaSets.put("mixing", set)
+        when:
+        def staleQuery = oma.select(TestEntity.class).maxStaleness(Duration.ofSeconds(5))
+        def freshQuery = oma.select(TestEntity.class).maxStaleness(Duration.ofSeconds(5)).readAfterWrite()
+        then:
+        staleQuery.getReadDatabase() == replica.getDatabase()
+        freshQuery.getReadDatabase() == primary
+        cleanup:
+        schema.replicaSets.put("mixing", previous)
+    }
+}
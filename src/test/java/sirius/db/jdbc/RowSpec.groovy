@@ -0,0 +1,79 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc
+
+import sirius.kernel.BaseSpecification
+import sirius.kernel.di.std.Part
+
+class RowSpec extends BaseSpecification {
+
+    @Part
+    private static Databases dbs
+
+    def "values of a row are accessible by their column name ignoring case"() {
+        when:
+        Row row = dbs.get("test").createQuery("SELECT 1 AS number, 'Test' AS Name").queryFirst()
+        then:
+        row.getValue("number").asInt(0) == 1
+        row.getValue("NUMBER").asInt(0) == 1
+        row.getValue("name").asString() == "Test"
+        row.hasValue("Name")
+        !row.hasValue("unknown")
+        and: "the fields are reported in the order of the result set using their original names"
+        row.getFieldsList().collect { it.getFirst() } == ["number", "Name"]
+    }
+
+    def "all rows of a result set share the same header"() {
+        when:
+        List<Row> rows = dbs.get("test").createQuery("SELECT 1 AS a UNION ALL SELECT 2 AS a").queryList()
+        then:
+        rows.size() == 2
+        rows.get(0).header.is(rows.get(1).header)
+        rows.collect { it.getValue("a").asInt(0) } == [1, 2]
+    }
+
+    def "a duplicate column name is resolved to its last occurrence"() {
+        when:
+        Row row = dbs.get("test").createQuery("SELECT 1 AS a, 2 AS A").queryFirst()
+        then:
+        row.getValue("a").asInt(0) == 2
+        row.getFieldsList().size() == 1
+    }
+
+    def "setValue replaces known and adds unknown columns"() {
+        given:
+        Row row = dbs.get("test").createQuery("SELECT 1 AS a").queryFirst()
+        when:
+        row.setValue("A", 5)
+        row.setValue("extra", "x")
+        then:
+        row.getValue("a").asInt(0) == 5
+        row.getValue("EXTRA").asString() == "x"
+        row.getFieldsList().collect { it.getFirst() } == ["a", "extra"]
+        and:
+        row.getFields().keySet() == ["A", "EXTRA"] as Set
+    }
+
+    def "a new row without a result set works"() {
+        given:
+        Row row = new Row()
+        when:
+        row.setValue("test", 1)
+        then:
+        row.hasValue("TEST")
+        row.getValue("test").asInt(0) == 1
+    }
+
+    def "accessing an unknown column fails"() {
+        when:
+        new Row().getValue("unknown")
+        then:
+        thrown(IllegalArgumentException)
+    }
+}
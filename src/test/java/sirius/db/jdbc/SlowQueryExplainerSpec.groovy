@@ -0,0 +1,43 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc
+
+import sirius.db.jdbc.schema.MySQLDatabaseDialect
+import sirius.kernel.BaseSpecification
+
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicLong
+
+class SlowQueryExplainerSpec extends BaseSpecification {
+
+    def "only SELECT statements are explained"() {
+        expect:
+        new MySQLDatabaseDialect().generateExplain(sql) == explain
+        where:
+        sql                               | explain
+        "SELECT * FROM test WHERE id = ?" | "EXPLAIN SELECT * FROM test WHERE id = ?"
+        "  select id FROM test"           | "EXPLAIN   select id FROM test"
+        "UPDATE test SET a = 1"           | null
+        "DELETE FROM test"                | null
+        "SEL"                             | null
+    }
+
+    def "at most one query is explained per interval"() {
+        given:
+        AtomicLong lastPermit = new AtomicLong()
+        Duration interval = Duration.ofMinutes(1)
+        long now = interval.toMillis() * 10
+        expect:
+        SlowQueryExplainer.tryAcquirePermit(lastPermit, now, interval)
+        !SlowQueryExplainer.tryAcquirePermit(lastPermit, now + 1, interval)
+        !SlowQueryExplainer.tryAcquirePermit(lastPermit, now + interval.toMillis() - 1, interval)
+        SlowQueryExplainer.tryAcquirePermit(lastPermit, now + interval.toMillis(), interval)
+        lastPermit.get() == now + interval.toMillis()
+    }
+}
@@ -17,6 +17,8 @@ import sirius.kernel.commons.Strings
 import sirius.kernel.di.std.Part
 import sirius.kernel.health.HandledException
 
+import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.function.Function
 import java.util.stream.Collectors
 
@@ -90,6 +92,106 @@ class SmartQuerySpec extends BaseSpecification {
                 collect(Collectors.toList()) == ["Test", "Hello", "World"]
     }
 
+    def "iterateBlockwise respects the order of the query"() {
+        given:
+        SmartQuery<SmartQueryTestEntity> qry = oma.select(SmartQueryTestEntity.class)
+                                                  .orderDesc(SmartQueryTestEntity.TEST_NUMBER)
+        when:
+        def result = []
+        qry.iterateBlockwiseAll({ x -> result.add(x.getValue()) })
+        then:
+        result == ["World", "Hello", "Test"]
+    }
+
+    def "iterateBlockwise respects the order across block boundaries"() {
+        given:
+        SmartQuery<SmartQueryTestEntity> qry = oma.select(SmartQueryTestEntity.class)
+                                                  .orderDesc(SmartQueryTestEntity.TEST_NUMBER)
+                                                  .withIterateTimeout(Duration.ZERO)
+        when:
+        def result = []
+        qry.iterateBlockwiseAll({ x -> result.add(x.getValue()) })
+        then:
+        result == ["World", "Hello", "Test"]
+    }
+
+    def "iterateBlockwise does not skip NULL sort values across block boundaries"() {
+        given:
+        oma.select(BlockwiseTestEntity.class).delete()
+        [null, 3, null, 1, 2, null].eachWithIndex { sortKey, index ->
+            BlockwiseTestEntity e = new BlockwiseTestEntity()
+            e.setName("E" + index)
+            e.setSortKey(sortKey)
+            oma.update(e)
+        }
+        when:
+        def expectedAsc = oma.select(BlockwiseTestEntity.class)
+                             .orderAsc(BlockwiseTestEntity.SORT_KEY)
+                             .orderAsc(SQLEntity.ID)
+                             .queryList()
+                             .collect { x -> x.getName() }
+        def expectedDesc = oma.select(BlockwiseTestEntity.class)
+                              .orderDesc(BlockwiseTestEntity.SORT_KEY)
+                              .orderAsc(SQLEntity.ID)
+                              .queryList()
+                              .collect { x -> x.getName() }
+        and:
+        def ascending = []
+        oma.select(BlockwiseTestEntity.class)
+           .orderAsc(BlockwiseTestEntity.SORT_KEY)
+           .orderAsc(SQLEntity.ID)
+           .withIterateTimeout(Duration.ZERO)
+           .iterateBlockwiseAll({ x -> ascending.add(x.getName()) })
+        def descending = []
+        oma.select(BlockwiseTestEntity.class)
+           .orderDesc(BlockwiseTestEntity.SORT_KEY)
+           .orderAsc(SQLEntity.ID)
+           .withIterateTimeout(Duration.ZERO)
+           .iterateBlockwiseAll({ x -> descending.add(x.getName()) })
+        then:
+        expectedAsc.size() == 6
+        ascending == expectedAsc
+        descending == expectedDesc
+    }
+
+    def "iterateParallel visits all entities exactly once"() {
+        given:
+        SmartQuery<SmartQueryTestEntity> qry = oma.select(SmartQueryTestEntity.class)
+        when:
+        def result = Collections.synchronizedList([])
+        qry.iterateParallel(2, { x -> result.add(x.getValue()) })
+        then:
+        result.sort() == ["Hello", "Test", "World"]
+    }
+
+    def "iterateParallel rejects queries with a limit or skip value"() {
+        when:
+        oma.select(SmartQueryTestEntity.class).limit(2).iterateParallel(2, { x -> })
+        then:
+        thrown(IllegalStateException)
+        when:
+        oma.select(SmartQueryTestEntity.class).skip(1).iterateParallel(2, { x -> })
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "iterateParallel stops all partitions if the calling thread is interrupted"() {
+        given:
+        Thread caller = Thread.currentThread()
+        AtomicInteger visited = new AtomicInteger()
+        when:
+        oma.select(SmartQueryTestEntity.class).iterateParallel(2, { x ->
+            visited.incrementAndGet()
+            caller.interrupt()
+        })
+        int visitedOnReturn = visited.get()
+        then: "the interrupted flag is preserved"
+        Thread.interrupted()
+        and: "the handler isn't invoked once the method returned"
+        Thread.sleep(100)
+        visited.get() == visitedOnReturn
+    }
+
     def "count returns the number of entity"() {
         given:
         SmartQuery<SmartQueryTestEntity> qry = oma.select(SmartQueryTestEntity.class)
@@ -100,6 +202,61 @@ class SmartQuerySpec extends BaseSpecification {
         result == 3
     }
 
+    def "async queries can be executed in parallel"() {
+        when:
+        def list = oma.select(SmartQueryTestEntity.class).orderAsc(SmartQueryTestEntity.TEST_NUMBER).queryListAsync()
+        def count = oma.select(SmartQueryTestEntity.class).countAsync()
+        def first = oma.select(SmartQueryTestEntity.class).orderAsc(SmartQueryTestEntity.TEST_NUMBER).firstAsync()
+        then:
+        list.get().stream().map({ x -> x.getValue() } as Function).collect(Collectors.toList()) ==
+                ["Test", "Hello", "World"]
+        and:
+        count.get() == 3
+        and:
+        first.get().get().getValue() == "Test"
+    }
+
+    def "cached queries are invalidated by OMA writes"() {
+        given:
+        SmartQuery<SmartQueryTestParentEntity> qry = oma.select(SmartQueryTestParentEntity.class)
+                                                        .cached(Duration.ofMinutes(5))
+        when:
+        def before = qry.count()
+        and:
+        SmartQueryTestParentEntity p = new SmartQueryTestParentEntity()
+        p.setName("Parent 3")
+        oma.update(p)
+        and:
+        def afterInsert = qry.count()
+        and:
+        oma.delete(p)
+        then:
+        afterInsert == before + 1
+        and:
+        qry.count() == before
+    }
+
+    def "cached queries with ambiguous parameters do not share results"() {
+        when:
+        def first = oma.select(SmartQueryTestEntity.class)
+                       .where(OMA.FILTERS.ne(SmartQueryTestEntity.VALUE, "Test, Hello"))
+                       .where(OMA.FILTERS.ne(SmartQueryTestEntity.VALUE, "World"))
+                       .orderAsc(SmartQueryTestEntity.TEST_NUMBER)
+                       .cached(Duration.ofMinutes(5))
+                       .queryList()
+                       .collect { x -> x.getValue() }
+        def second = oma.select(SmartQueryTestEntity.class)
+                        .where(OMA.FILTERS.ne(SmartQueryTestEntity.VALUE, "Test"))
+                        .where(OMA.FILTERS.ne(SmartQueryTestEntity.VALUE, "Hello, World"))
+                        .orderAsc(SmartQueryTestEntity.TEST_NUMBER)
+                        .cached(Duration.ofMinutes(5))
+                        .queryList()
+                        .collect { x -> x.getValue() }
+        then:
+        first == ["Test", "Hello"]
+        second == ["Hello", "World"]
+    }
+
     def "exists returns a correct value"() {
         given:
         SmartQuery<SmartQueryTestEntity> qry = oma.select(SmartQueryTestEntity.class)
@@ -410,6 +567,39 @@ class SmartQuerySpec extends BaseSpecification {
         thrown(HandledException)
     }
 
+    def "prefetch resolves all references of the results"() {
+        when:
+        def result = oma.select(SmartQueryTestChildEntity.class)
+                        .prefetch(SmartQueryTestChildEntity.PARENT)
+                        .orderAsc(SmartQueryTestChildEntity.NAME)
+                        .queryList()
+        then:
+        result.size() == 2
+        and:
+        result.every { child -> child.getParent().isValueLoaded() }
+        and:
+        !result.any { child -> child.getOtherParent().isValueLoaded() }
+        and:
+        result.collect { child -> child.getParent().fetchValue().getName() } == ["Parent 1", "Parent 2"]
+    }
+
+    def "prefetch is rejected for cached queries"() {
+        when:
+        oma.select(SmartQueryTestChildEntity.class)
+           .prefetch(SmartQueryTestChildEntity.PARENT)
+           .cached(Duration.ofMinutes(5))
+           .queryList()
+        then:
+        thrown(IllegalStateException)
+    }
+
+    def "prefetch rejects fields which are not references"() {
+        when:
+        oma.select(SmartQueryTestChildEntity.class).prefetch(SmartQueryTestChildEntity.NAME)
+        then:
+        thrown(IllegalArgumentException)
+    }
+
     def "a forcefully failed query does not yield any results"() {
         when:
         def qry =  oma.select(SmartQueryTestEntity.class).fail()
@@ -424,4 +614,25 @@ class SmartQuerySpec extends BaseSpecification {
         and:
         !qry.exists()
     }
+
+    def "delete without handlers removes exactly the matching entities"() {
+        given:
+        for (int i = 0; i < 25; i++) {
+            GeneratedStatementTestEntity e = new GeneratedStatementTestEntity()
+            e.setTestNumber(i % 2 == 0 ? 5001 : 5002)
+            e.setValue(String.valueOf(i))
+            oma.update(e)
+        }
+        expect:
+        !new GeneratedStatementTestEntity().getDescriptor().hasDeleteHandlers()
+        when: "a small chunk size is used so that several full chunks and a partial one are deleted"
+        oma.select(GeneratedStatementTestEntity.class)
+           .eq(GeneratedStatementTestEntity.TEST_NUMBER, 5001)
+           .withDeleteChunkSize(5)
+           .delete()
+        then:
+        oma.select(GeneratedStatementTestEntity.class).eq(GeneratedStatementTestEntity.TEST_NUMBER, 5001).count() == 0
+        and:
+        oma.select(GeneratedStatementTestEntity.class).eq(GeneratedStatementTestEntity.TEST_NUMBER, 5002).count() == 12
+    }
 }
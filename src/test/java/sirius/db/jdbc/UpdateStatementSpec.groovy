@@ -41,6 +41,39 @@ class UpdateStatementSpec extends BaseSpecification {
         oma.refreshOrFail(e2).getValue() == "4"
     }
 
+    def "a chunked update statement updates a column used in its own where clause"() {
+        given:
+        for (int i = 0; i < 10; i++) {
+            GeneratedStatementTestEntity e = new GeneratedStatementTestEntity()
+            e.setTestNumber(4811)
+            e.setValue(String.valueOf(i))
+            oma.update(e)
+        }
+        and:
+        GeneratedStatementTestEntity untouched = new GeneratedStatementTestEntity()
+        untouched.setTestNumber(4813)
+        untouched.setValue("untouched")
+        oma.update(untouched)
+        when:
+        int changes = oma.updateStatement(GeneratedStatementTestEntity.class).
+                set(GeneratedStatementTestEntity.VALUE, "chunked").
+                set(GeneratedStatementTestEntity.TEST_NUMBER, 4812).
+                where(GeneratedStatementTestEntity.TEST_NUMBER, 4811).
+                withChunkSize(3).
+                executeUpdate()
+        then: "all matching entities are updated across several chunks"
+        changes == 10
+        and:
+        oma.select(GeneratedStatementTestEntity.class).eq(GeneratedStatementTestEntity.TEST_NUMBER, 4811).count() == 0
+        and: "the SET parameters and the WHERE parameters are bound correctly"
+        oma.select(GeneratedStatementTestEntity.class)
+           .eq(GeneratedStatementTestEntity.TEST_NUMBER, 4812)
+           .eq(GeneratedStatementTestEntity.VALUE, "chunked")
+           .count() == 10
+        and:
+        oma.refreshOrFail(untouched).getValue() == "untouched"
+    }
+
     def "a update statement reports illegal use (set after where)"() {
         when:
         oma.updateStatement(GeneratedStatementTestEntity.class).
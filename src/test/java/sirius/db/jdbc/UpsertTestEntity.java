@@ -0,0 +1,42 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+
+package sirius.db.jdbc;
+
+import sirius.db.mixing.Mapping;
+import sirius.db.mixing.annotations.Index;
+import sirius.db.mixing.annotations.Length;
+
+@Index(name = "unique_code", columns = "code", unique = true)
+public class UpsertTestEntity extends SQLEntity {
+
+    public static final Mapping CODE = Mapping.named("code");
+    @Length(50)
+    private String code;
+
+    public static final Mapping VALUE = Mapping.named("value");
+    @Length(50)
+    private String value;
+
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(String code) {
+        this.code = code;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public void setValue(String value) {
+        this.value = value;
+    }
+}
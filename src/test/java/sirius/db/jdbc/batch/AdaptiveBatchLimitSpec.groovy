@@ -0,0 +1,66 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc.batch
+
+import sirius.kernel.BaseSpecification
+
+import java.sql.SQLException
+import java.sql.SQLTransactionRollbackException
+import java.time.Duration
+
+class AdaptiveBatchLimitSpec extends BaseSpecification {
+
+    def "limit grows while batches are fast and the time per row doesn't increase"() {
+        given:
+        AdaptiveBatchLimit limit = new AdaptiveBatchLimit(100, 10, 1000, Duration.ofSeconds(1))
+        when:
+        limit.recordExecution(100, 50)
+        then:
+        limit.getLimit() == 150
+        when:
+        limit.recordExecution(150, 60)
+        then:
+        limit.getLimit() == 225
+    }
+
+    def "limit shrinks if the target latency is exceeded"() {
+        given:
+        AdaptiveBatchLimit limit = new AdaptiveBatchLimit(400, 10, 1000, Duration.ofSeconds(1))
+        when:
+        limit.recordExecution(400, 1600)
+        then:
+        limit.getLimit() == 250
+    }
+
+    def "partial batches don't change the limit"() {
+        given:
+        AdaptiveBatchLimit limit = new AdaptiveBatchLimit(100, 10, 1000, Duration.ofSeconds(1))
+        when:
+        limit.recordExecution(20, 10)
+        then:
+        limit.getLimit() == 100
+    }
+
+    def "limit is halved on lock problems but not on other errors"() {
+        given:
+        AdaptiveBatchLimit limit = new AdaptiveBatchLimit(100, 10, 1000, Duration.ofSeconds(1))
+        when:
+        limit.recordFailure(new SQLException("Syntax error", "42000", 1064))
+        then:
+        limit.getLimit() == 100
+        when:
+        limit.recordFailure(new SQLException("Lock wait timeout exceeded", "HY000", 1205))
+        then:
+        limit.getLimit() == 50
+        when:
+        limit.recordFailure(new SQLTransactionRollbackException("Deadlock"))
+        then:
+        limit.getLimit() == 25
+    }
+}
@@ -9,7 +9,10 @@
 package sirius.db.jdbc.batch
 
 import sirius.db.jdbc.OMA
+import sirius.db.jdbc.SQLUniqueTestEntity
 import sirius.db.jdbc.TestEntity
+import sirius.db.jdbc.UpsertTestEntity
+import sirius.db.jdbc.VersionedUpsertTestEntity
 import sirius.db.mixing.Mixing
 import sirius.kernel.BaseSpecification
 import sirius.kernel.di.std.Part
@@ -76,6 +79,157 @@ class BatchContextSpec extends BaseSpecification {
         ctx.close()
     }
 
+    def "batch insert with async flushing works"() {
+        setup:
+        BatchContext ctx = new BatchContext({ -> "Test" }, Duration.ofMinutes(2)).withAsyncFlushing()
+        when:
+        InsertQuery<TestEntity> insert = ctx.insertQuery(
+                TestEntity.class,
+                TestEntity.FIRSTNAME,
+                TestEntity.LASTNAME,
+                TestEntity.AGE)
+        insert.withCustomBatchLimit(10)
+        and:
+        for (int i = 0; i < 105; i++) {
+            TestEntity e = new TestEntity()
+            e.setFirstname("BatchContextInsert" + i)
+            e.setLastname("ASYNCBATCHINSERT")
+            insert.insert(e, false, true)
+        }
+        and:
+        insert.commit()
+        then:
+        oma.select(TestEntity.class).eq(TestEntity.LASTNAME, "ASYNCBATCHINSERT").count() == 105
+        cleanup:
+        OMA.LOG.INFO(ctx)
+        ctx.close()
+    }
+
+    def "close reports a failed batch which was executed in the background"() {
+        setup:
+        BatchContext ctx = new BatchContext({ -> "Test" }, Duration.ofMinutes(2)).withAsyncFlushing()
+        InsertQuery<SQLUniqueTestEntity> insert = ctx.insertQuery(SQLUniqueTestEntity.class, false)
+        insert.withCustomBatchLimit(2)
+        when: "a batch which violates a unique constraint is flushed in the background"
+        for (int i = 0; i < 2; i++) {
+            SQLUniqueTestEntity e = new SQLUniqueTestEntity()
+            e.setValue("ASYNC_DUPLICATE")
+            insert.insert(e, false, true)
+        }
+        and:
+        ctx.close()
+        then:
+        thrown(HandledException)
+        and: "no connection is leaked"
+        oma.getDatabase(Mixing.DEFAULT_REALM).getNumActive() == 0
+    }
+
+    def "batch upsert inserts new and updates existing entities"() {
+        setup:
+        UpsertTestEntity existing = new UpsertTestEntity()
+        existing.setCode("UPSERT1")
+        existing.setValue("old")
+        oma.update(existing)
+        BatchContext ctx = new BatchContext({ -> "Test" }, Duration.ofMinutes(2))
+        when:
+        UpsertQuery<UpsertTestEntity> upsert = ctx.upsertQuery(UpsertTestEntity.class, UpsertTestEntity.CODE)
+                                                  .withUpdatedMappings(UpsertTestEntity.VALUE)
+        and:
+        for (int i = 1; i <= 3; i++) {
+            UpsertTestEntity e = new UpsertTestEntity()
+            e.setCode("UPSERT" + i)
+            e.setValue("new")
+            upsert.upsert(e, false, true)
+        }
+        upsert.commit()
+        then:
+        oma.select(UpsertTestEntity.class).eq(UpsertTestEntity.VALUE, "new").count() == 3
+        and:
+        oma.refreshOrFail(existing).getValue() == "new"
+        cleanup:
+        ctx.close()
+    }
+
+    def "batch upsert increments the version of existing versioned entities"() {
+        setup:
+        VersionedUpsertTestEntity existing = new VersionedUpsertTestEntity()
+        existing.setCode("VERSIONED1")
+        existing.setValue("old")
+        oma.update(existing)
+        BatchContext ctx = new BatchContext({ -> "Test" }, Duration.ofMinutes(2))
+        when:
+        UpsertQuery<VersionedUpsertTestEntity> upsert =
+                ctx.upsertQuery(VersionedUpsertTestEntity.class, VersionedUpsertTestEntity.CODE)
+                   .withUpdatedMappings(VersionedUpsertTestEntity.VALUE)
+        and:
+        for (int i = 1; i <= 2; i++) {
+            VersionedUpsertTestEntity e = new VersionedUpsertTestEntity()
+            e.setCode("VERSIONED" + i)
+            e.setValue("new")
+            upsert.upsert(e, false, true)
+        }
+        upsert.commit()
+        then: "the existing entity is updated and its version is incremented"
+        VersionedUpsertTestEntity updated = oma.refreshOrFail(existing)
+        updated.getValue() == "new"
+        updated.getVersion() == existing.getVersion() + 1
+        and: "the new entity is inserted with the initial version"
+        oma.select(VersionedUpsertTestEntity.class)
+           .eq(VersionedUpsertTestEntity.CODE, "VERSIONED2")
+           .queryFirst()
+           .getVersion() == 1
+        cleanup:
+        ctx.close()
+    }
+
+    def "upserts invalidate cached queries"() {
+        setup:
+        long count = oma.select(UpsertTestEntity.class).cached(Duration.ofMinutes(1)).count()
+        BatchContext ctx = new BatchContext({ -> "Test" }, Duration.ofMinutes(2))
+        when:
+        UpsertQuery<UpsertTestEntity> upsert = ctx.upsertQuery(UpsertTestEntity.class, UpsertTestEntity.CODE)
+                                                  .withUpdatedMappings(UpsertTestEntity.VALUE)
+        UpsertTestEntity e = new UpsertTestEntity()
+        e.setCode("UPSERTCACHED")
+        e.setValue("new")
+        upsert.upsert(e, false, false)
+        then:
+        oma.select(UpsertTestEntity.class).cached(Duration.ofMinutes(1)).count() == count + 1
+        cleanup:
+        ctx.close()
+    }
+
+    def "bulk load into mysql works"() {
+        setup:
+        BatchContext ctx = new BatchContext({ -> "Test" }, Duration.ofMinutes(2))
+        when:
+        EntityBulkLoader<TestEntity> loader = ctx.bulkLoad(TestEntity.class,
+                                                           TestEntity.FIRSTNAME,
+                                                           TestEntity.LASTNAME,
+                                                           TestEntity.AGE)
+        and:
+        for (int i = 0; i < 1000; i++) {
+            TestEntity e = new TestEntity()
+            e.setFirstname("Bulk\t" + i + "\\")
+            e.setLastname("BULKLOAD")
+            e.setAge(i)
+            loader.add(e)
+        }
+        and:
+        loader.close()
+        then:
+        oma.select(TestEntity.class).eq(TestEntity.LASTNAME, "BULKLOAD").count() == 1000
+        and: "special characters survive the round trip"
+        oma.select(TestEntity.class)
+           .eq(TestEntity.LASTNAME, "BULKLOAD")
+           .eq(TestEntity.AGE, 7)
+           .queryFirst()
+           .getFirstname() == "Bulk\t7\\"
+        cleanup:
+        OMA.LOG.INFO(ctx)
+        ctx.close()
+    }
+
     def "update works"() {
         setup:
         TestEntity e = new TestEntity()
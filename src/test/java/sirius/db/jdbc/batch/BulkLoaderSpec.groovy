@@ -0,0 +1,64 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc.batch
+
+import sirius.kernel.BaseSpecification
+
+import java.sql.Timestamp
+
+class BulkLoaderSpec extends BaseSpecification {
+
+    private static String encode(Object value) {
+        return encode(value, true)
+    }
+
+    private static String encode(Object value, boolean fractionalSeconds) {
+        StringBuilder result = new StringBuilder()
+        BulkLoader.encodeValue(value, fractionalSeconds, result)
+        return result.toString()
+    }
+
+    def "NULL is encoded as \\N"() {
+        expect:
+        encode(null) == '\\N'
+    }
+
+    def "control characters and backslashes are escaped"() {
+        expect:
+        encode("a\tb\nc\rd\\e") == 'a\\tb\\nc\\rd\\\\e'
+        and: "quotes are only escaped within arrays"
+        encode("it's") == "it's"
+    }
+
+    def "scalar values are encoded as expected"() {
+        expect:
+        encode(true) == "1"
+        encode(false) == "0"
+        encode(42L) == "42"
+        encode(new BigDecimal("1E+3")) == "1000"
+    }
+
+    def "timestamps are encoded with and without millis"() {
+        expect:
+        encode(Timestamp.valueOf("2020-01-02 03:04:05")) == "2020-01-02 03:04:05"
+        encode(Timestamp.valueOf("2020-01-02 03:04:05.123")) == "2020-01-02 03:04:05.123"
+    }
+
+    def "timestamps are truncated to seconds if fractional seconds are not supported"() {
+        expect:
+        encode(Timestamp.valueOf("2020-01-02 03:04:05.123"), false) == "2020-01-02 03:04:05"
+    }
+
+    def "arrays are encoded as quoted literals which are escaped exactly once"() {
+        expect:
+        encode([1, 2, 3]) == "[1,2,3]"
+        encode(["it's", "back\\slash", "tab\t"]) == "['it\\'s','back\\\\slash','tab\\t']"
+        encode([]) == "[]"
+    }
+}
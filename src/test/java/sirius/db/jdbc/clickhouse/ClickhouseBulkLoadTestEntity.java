@@ -0,0 +1,44 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.jdbc.clickhouse;
+
+import sirius.db.jdbc.SQLEntity;
+import sirius.db.mixing.Mapping;
+import sirius.db.mixing.annotations.Realm;
+
+import java.time.LocalDateTime;
+
+/**
+ * Testentity for bulk loads into Clickhouse.
+ */
+@Realm("clickhouse")
+public class ClickhouseBulkLoadTestEntity extends SQLEntity {
+
+    public static final Mapping NAME = Mapping.named("name");
+    private String name;
+
+    public static final Mapping TIMESTAMP = Mapping.named("timestamp");
+    private LocalDateTime timestamp;
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public LocalDateTime getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(LocalDateTime timestamp) {
+        this.timestamp = timestamp;
+    }
+}
@@ -10,6 +10,8 @@ package sirius.db.jdbc.clickhouse
 
 import sirius.db.jdbc.OMA
 import sirius.db.jdbc.batch.BatchContext
+import sirius.db.jdbc.batch.EntityBulkLoader
+import sirius.db.jdbc.batch.InsertBuffer
 import sirius.db.jdbc.batch.InsertQuery
 import sirius.kernel.BaseSpecification
 import sirius.kernel.di.std.Part
@@ -17,6 +19,7 @@ import sirius.kernel.di.std.Part
 import java.time.Duration
 import java.time.Instant
 import java.time.LocalDate
+import java.time.LocalDateTime
 import java.time.temporal.ChronoField
 
 class ClickhouseSpec extends BaseSpecification {
@@ -24,6 +27,9 @@ class ClickhouseSpec extends BaseSpecification {
     @Part
     static OMA oma
 
+    @Part
+    static InsertBuffer insertBuffer
+
     def setupSpec() {
         oma.getReadyFuture().await(Duration.ofSeconds(60))
     }
@@ -95,6 +101,85 @@ class ClickhouseSpec extends BaseSpecification {
         ctx.close()
     }
 
+    def "bulk load into clickhouse truncates timestamps to seconds"() {
+        setup:
+        BatchContext ctx = new BatchContext({ -> "Test" }, Duration.ofMinutes(2))
+        LocalDateTime timestamp = LocalDateTime.of(2020, 1, 2, 3, 4, 5, 123_000_000)
+        when:
+        EntityBulkLoader<ClickhouseBulkLoadTestEntity> loader =
+                ctx.bulkLoad(ClickhouseBulkLoadTestEntity.class,
+                             ClickhouseBulkLoadTestEntity.NAME,
+                             ClickhouseBulkLoadTestEntity.TIMESTAMP)
+        and:
+        for (int i = 0; i < 10; i++) {
+            ClickhouseBulkLoadTestEntity e = new ClickhouseBulkLoadTestEntity()
+            e.setName("Bulk " + i)
+            e.setTimestamp(timestamp)
+            loader.add(e)
+        }
+        and:
+        loader.close()
+        then:
+        oma.select(ClickhouseBulkLoadTestEntity.class).count() == 10
+        and:
+        oma.select(ClickhouseBulkLoadTestEntity.class)
+           .eq(ClickhouseBulkLoadTestEntity.NAME, "Bulk 7")
+           .queryFirst()
+           .getTimestamp() == timestamp.withNano(0)
+        cleanup:
+        ctx.close()
+    }
+
+    def "buffered inserts into clickhouse are written when flushed"() {
+        when:
+        for (int i = 0; i < 50; i++) {
+            ClickhouseTestEntity e = new ClickhouseTestEntity()
+            e.setDateTime(Instant.now())
+            e.setDate(LocalDate.now())
+            e.setInt8(i)
+            e.setInt16(i)
+            e.setInt32(i)
+            e.setInt64(i)
+            e.setString("Test")
+            e.setFixedString("C")
+            e.setInt8WithDefault(0)
+            e.setEnumValue(ClickhouseTestEntity.TestEnum.Test1)
+            insertBuffer.insert(e)
+        }
+        and:
+        insertBuffer.flush()
+        then:
+        oma.select(ClickhouseTestEntity.class).eq(ClickhouseTestEntity.FIXED_STRING, "C").count() == 50
+    }
+
+    def "buffered inserts into clickhouse are written once they exceed the maximal age"() {
+        when:
+        for (int i = 0; i < 5; i++) {
+            ClickhouseTestEntity e = new ClickhouseTestEntity()
+            e.setDateTime(Instant.now())
+            e.setDate(LocalDate.now())
+            e.setInt8(i)
+            e.setInt16(i)
+            e.setInt32(i)
+            e.setInt64(i)
+            e.setString("Test")
+            e.setFixedString("D")
+            e.setInt8WithDefault(0)
+            e.setEnumValue(ClickhouseTestEntity.TestEnum.Test1)
+            insertBuffer.insert(e)
+        }
+        and:
+        insertBuffer.runTimer()
+        then: "the buffer is too young to be flushed"
+        oma.select(ClickhouseTestEntity.class).eq(ClickhouseTestEntity.FIXED_STRING, "D").count() == 0
+        when:
+        Thread.sleep(1500)
+        and:
+        insertBuffer.runTimer()
+        then: "jdbc.insertBuffer.maxAge (1 second in tests) has been exceeded"
+        oma.select(ClickhouseTestEntity.class).eq(ClickhouseTestEntity.FIXED_STRING, "D").count() == 5
+    }
+
     def "property with default-value is set to default when null in object"() {
         given:
         ClickhouseTestEntity e = new ClickhouseTestEntity()
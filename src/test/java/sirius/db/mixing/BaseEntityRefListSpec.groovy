@@ -9,12 +9,16 @@
 package sirius.db.mixing
 
 import sirius.db.es.Elastic
+import sirius.db.mixing.types.BaseEntityRef
 import sirius.db.mongo.Mango
+import sirius.db.mongo.types.MongoRefList
 import sirius.kernel.BaseSpecification
 import sirius.kernel.commons.Wait
 import sirius.kernel.di.std.Part
 
 import java.time.Duration
+import java.util.function.Function
+import java.util.stream.Collectors
 
 class BaseEntityRefListSpec extends BaseSpecification {
 
@@ -60,4 +64,55 @@ class BaseEntityRefListSpec extends BaseSpecification {
         !resolved.getRef().contains(refElasticEntity.getId())
     }
 
+    def "fetchAll resolves all entities in the order of the list"() {
+        given:
+        List<RefListMongoEntity> entities = []
+        for (int i = 0; i < 3; i++) {
+            RefListMongoEntity entity = new RefListMongoEntity()
+            mango.update(entity)
+            entities.add(entity)
+        }
+        MongoRefList<RefListMongoEntity> list = new MongoRefList<>(RefListMongoEntity.class,
+                                                                   BaseEntityRef.OnDelete.IGNORE)
+        when:
+        list.add(entities.get(2)).add(entities.get(0)).add(entities.get(1))
+        then:
+        list.fetchAll().map({ it.get().getId() } as Function).collect(Collectors.toList()) ==
+                [entities.get(2).getId(), entities.get(0).getId(), entities.get(1).getId()]
+    }
+
+    def "fetchAll yields empty optionals for stale ids"() {
+        given:
+        RefListMongoEntity existing = new RefListMongoEntity()
+        mango.update(existing)
+        RefListMongoEntity deleted = new RefListMongoEntity()
+        mango.update(deleted)
+        MongoRefList<RefListMongoEntity> list = new MongoRefList<>(RefListMongoEntity.class,
+                                                                   BaseEntityRef.OnDelete.IGNORE)
+        list.add(deleted).add(existing)
+        when:
+        mango.delete(deleted)
+        List<Optional<RefListMongoEntity>> result = list.fetchAll().collect(Collectors.toList())
+        then:
+        result.size() == 2
+        !result.get(0).isPresent()
+        result.get(1).get().getId() == existing.getId()
+        and:
+        list.fetchAllAvailable().collect(Collectors.toList()).size() == 1
+    }
+
+    def "fetchAll resolves duplicate ids at each of their positions"() {
+        given:
+        RefListMongoEntity first = new RefListMongoEntity()
+        mango.update(first)
+        RefListMongoEntity second = new RefListMongoEntity()
+        mango.update(second)
+        MongoRefList<RefListMongoEntity> list = new MongoRefList<>(RefListMongoEntity.class,
+                                                                   BaseEntityRef.OnDelete.IGNORE)
+        when:
+        list.add(first.getId()).add(second.getId()).add(first.getId())
+        then:
+        list.fetchAll().map({ it.get().getId() } as Function).collect(Collectors.toList()) ==
+                [first.getId(), second.getId(), first.getId()]
+    }
 }
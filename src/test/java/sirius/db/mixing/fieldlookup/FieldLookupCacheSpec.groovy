@@ -75,6 +75,29 @@ class FieldLookupCacheSpec extends BaseSpecification {
         heroLastName.asString() == "Man"
     }
 
+    def "jdbc bulk field lookup works and remembers nonexistent entities"() {
+        given:
+        SQLFieldLookUpTestEntity peter = new SQLFieldLookUpTestEntity()
+        peter.getNames().setFirstname("Peter")
+        peter.getNames().setLastname("Parker")
+        oma.update(peter)
+        SQLFieldLookUpTestEntity gwen = new SQLFieldLookUpTestEntity()
+        gwen.getNames().setFirstname("Gwen")
+        gwen.getNames().setLastname("Stacy")
+        oma.update(gwen)
+        def field = SQLFieldLookUpTestEntity.NAMES.inner(NameFieldsTestComposite.FIRSTNAME)
+        when:
+        def names = lookupCache.lookupAll(SQLFieldLookUpTestEntity.class, [peter.getId(), gwen.getId(), -42L], field)
+        then:
+        names.get(peter.getId()).asString() == "Peter"
+        names.get(gwen.getId()).asString() == "Gwen"
+        names.get(-42L).isEmptyString()
+        and:
+        lookupCache.cache.get(lookupCache.getCacheKey(SQLFieldLookUpTestEntity.class, peter.getId(), field))
+                   .asString() == "Peter"
+        lookupCache.misses.get(lookupCache.getCacheKey(SQLFieldLookUpTestEntity.class, -42L, field)) == true
+    }
+
     def "mongo field lookup works"() {
         given:
         MongoFieldLookUpTestEntity tony = new MongoFieldLookUpTestEntity()
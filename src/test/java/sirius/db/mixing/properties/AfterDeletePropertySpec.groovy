@@ -0,0 +1,47 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.mixing.properties
+
+import sirius.db.jdbc.OMA
+import sirius.db.mixing.Mixing
+import sirius.kernel.BaseSpecification
+import sirius.kernel.di.std.Part
+
+class AfterDeletePropertySpec extends BaseSpecification {
+
+    @Part
+    private static Mixing mixing
+
+    @Part
+    private static OMA oma
+
+    def "a property which only overrides onAfterDelete is detected as delete handler"() {
+        expect:
+        mixing.getDescriptor(AfterDeleteTestEntity.class)
+              .getProperty(AfterDeleteTestEntity.MARKER) instanceof AfterDeleteTestProperty
+        and:
+        mixing.getDescriptor(AfterDeleteTestEntity.class).hasDeleteHandlers()
+    }
+
+    def "deleting via a query invokes onAfterDelete of properties"() {
+        given:
+        AfterDeleteTestProperty.DELETED_MARKERS.clear()
+        for (long i = 1; i <= 3; i++) {
+            AfterDeleteTestEntity entity = new AfterDeleteTestEntity()
+            entity.setMarker(i)
+            oma.update(entity)
+        }
+        when:
+        oma.select(AfterDeleteTestEntity.class).delete()
+        then:
+        AfterDeleteTestProperty.DELETED_MARKERS.sort() == [1L, 2L, 3L]
+        and:
+        oma.select(AfterDeleteTestEntity.class).count() == 0
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.mixing.properties;
+
+import sirius.db.jdbc.SQLEntity;
+import sirius.db.mixing.Mapping;
+
+/**
+ * Testentity for AfterDeletePropertySpec.
+ * <p>
+ * The field {@link #marker} is represented by an {@link AfterDeleteTestProperty}.
+ */
+public class AfterDeleteTestEntity extends SQLEntity {
+
+    public static final Mapping MARKER = Mapping.named("marker");
+    private long marker;
+
+    public long getMarker() {
+        return marker;
+    }
+
+    public void setMarker(long marker) {
+        this.marker = marker;
+    }
+}
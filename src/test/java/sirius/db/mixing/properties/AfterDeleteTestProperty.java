@@ -0,0 +1,67 @@
+/*
+ * Made with all the love in the world
+ * by scireum in Remshalden, Germany
+ *
+ * Copyright by scireum GmbH
+ * http://www.scireum.de - info@scireum.de
+ */
+
+package sirius.db.mixing.properties;
+
+import sirius.db.mixing.AccessPath;
+import sirius.db.mixing.EntityDescriptor;
+import sirius.db.mixing.Property;
+import sirius.db.mixing.PropertyFactory;
+import sirius.kernel.di.std.Register;
+
+import javax.annotation.Nonnull;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Property for AfterDeletePropertySpec which only overrides {@link #onAfterDelete(Object)}.
+ */
+public class AfterDeleteTestProperty extends LongProperty {
+
+    /**
+     * Contains the markers of all entities which have been deleted.
+     */
+    public static final List<Long> DELETED_MARKERS = new CopyOnWriteArrayList<>();
+
+    /**
+     * Creates the property for {@link AfterDeleteTestEntity#MARKER}.
+     */
+    @Register
+    public static class Factory implements PropertyFactory {
+
+        @Override
+        public int getPriority() {
+            return DEFAULT_PRIORITY - 10;
+        }
+
+        @Override
+        public boolean accepts(EntityDescriptor descriptor, @Nonnull Field field) {
+            return AfterDeleteTestEntity.class.equals(field.getDeclaringClass())
+                   && AfterDeleteTestEntity.MARKER.getName().equals(field.getName());
+        }
+
+        @Override
+        public void create(@Nonnull EntityDescriptor descriptor,
+                           @Nonnull AccessPath accessPath,
+                           @Nonnull Field field,
+                           @Nonnull Consumer<Property> propertyConsumer) {
+            propertyConsumer.accept(new AfterDeleteTestProperty(descriptor, accessPath, field));
+        }
+    }
+
+    AfterDeleteTestProperty(EntityDescriptor descriptor, AccessPath accessPath, Field field) {
+        super(descriptor, accessPath, field);
+    }
+
+    @Override
+    protected void onAfterDelete(Object entity) {
+        DELETED_MARKERS.add((Long) getValue(entity));
+    }
+}